@@ -1,13 +1,44 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URLDecoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class ChessMoveExtractor {
     private static final HttpClient httpClient = HttpClient.newBuilder()
@@ -15,7 +46,39 @@ public class ChessMoveExtractor {
             .followRedirects(HttpClient.Redirect.NORMAL)
             .build();
 
+    // How many monthly archives may be downloading at once (1 = stream one after another)
+    private static final int FETCH_PARALLELISM = Integer.getInteger("chess.fetch.parallelism", 4);
+
+    // Parse and tally the games of each archive on the common fork/join pool
+    private static final boolean PARALLEL_PARSING = Boolean.getBoolean("chess.parse.parallel");
+
+    // Stage timers and counters for the whole run (-Dchess.metrics=<file> or - for a JSON summary)
+    private static final PipelineMetrics METRICS = new PipelineMetrics();
+
+    // Paces and retries every Chess.com request (-Dchess.http.*)
+    private static final RequestScheduler REQUEST_SCHEDULER = RequestScheduler.fromSystemProperties();
+
+    // On-disk archive cache (null when disabled with -Dchess.cache.dir=)
+    private static final ArchiveCache ARCHIVE_CACHE = ArchiveCache.fromSystemProperties();
+
+    // Columnar store of parsed games for --query (null when disabled with -Dchess.store.dir=)
+    private static final GameStore GAME_STORE = GameStore.fromSystemProperties();
+
+    // Layout of report files and --query output (-Dchess.report.format=text|json|csv|markdown)
+    private static final ReportFormat REPORT_FORMAT = ReportFormat.fromSystemProperties();
+
     public static void main(String[] args) {
+        try {
+            RequestScheduler.checkSystemProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+        if (args.length > 0 && args[0].startsWith("--")) {
+            runToolMode(args);
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         String targetUsername,year,month,timeControlFilter;
         if (args.length >=4) {
@@ -32,9 +95,77 @@ public class ChessMoveExtractor {
             year = scanner.nextLine().trim();
             System.out.print("Enter month (0 for entire year): ");
             month = scanner.nextLine().trim();
-            System.out.print("Enter time control filter (e.g., 600, 180+2, or 0 for all games): ");
+            System.out.print("Enter filter (e.g., 600, 180+2, type=Blitz and color=White, or 0 for all games): ");
             timeControlFilter = scanner.nextLine().trim();
         }
+        try {
+            runReport(targetUsername, year, month, timeControlFilter, true);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.out.println("\nPossible reasons:");
+            System.out.println("1. The username might be incorrect");
+            System.out.println("2. There are no games for the specified year/month");
+            System.out.println("3. The year might be in the future (e.g., 2026)");
+            System.out.println("4. Network connection issue");
+        } finally {
+            scanner.close();
+            METRICS.writeSummary();
+        }
+    }
+
+    // Fetch, process and save the report for one username and period.
+    // Returns the file written, or null when there was nothing to report.
+    private static String runReport(String targetUsername, String year, String month, String timeControlFilter,
+                                    boolean verbose) throws IOException, InterruptedException {
+        List<ReportView> views = ReportView.parse(timeControlFilter, reportFileName(targetUsername, year, month));
+        return runReport(targetUsername, year, month, views, verbose);
+    }
+
+    // The same for views the caller made, each with its own report file
+    private static String runReport(String targetUsername, String year, String month, List<ReportView> views,
+                                    boolean verbose) throws IOException, InterruptedException {
+        List<String> pgnUrls = listArchives(targetUsername, year, month);
+        if (pgnUrls.isEmpty()) {
+            System.out.println("No games found or the user/month/year is invalid.");
+            return null;
+        }
+
+        System.out.println("Processing games...");
+
+        // Step 5: Stream the games with metadata straight into the file of every view,
+        // followed by the detailed statistics
+        boolean isAnnual = month.equals("0");
+        if (extractAndSaveGames(pgnUrls, isAnnual, targetUsername, reportPeriod(year, month), views, GAME_STORE, verbose) == null) {
+            System.out.println("No games found or the user/month/year is invalid.");
+            return null;
+        }
+
+        String written = null;
+        for (ReportView view : views) {
+            GameStats stats = view.getStats();
+            if (stats.getTotalGames() == 0) {
+                System.out.println(views.size() == 1 ? "No games match the specified time control filter."
+                        : "No games match the filter of report " + view.name + ": " + view.filterText);
+                continue;
+            }
+
+            System.out.println("\nSuccess! Games saved to: " + view.fileName);
+            if (verbose) {
+                printConsoleSummary(stats);
+            }
+            if (written == null) written = view.fileName;
+        }
+        if (verbose && written != null) {
+            printRequestSummary();
+        }
+        return written;
+    }
+
+    // The PGN archive URL(s) of a year (month "0") or of one month, in order
+    private static List<String> listArchives(String targetUsername, String year, String month)
+            throws IOException, InterruptedException {
         // Step 2: Construct the API URL based on whether month is 0 or not
         String baseUrl;
         boolean isAnnual = month.equals("0");
@@ -47,980 +178,7448 @@ public class ChessMoveExtractor {
             System.out.println("Fetching data from: " + baseUrl);
         }
 
-        try {
-            // Step 3: Fetch the data from Chess.com
-            String pgnData;
-            if (isAnnual) {
-                // Annual endpoint returns JSON with monthly archive URLs
-                pgnData = fetchAndParseAnnualGames(baseUrl, targetUsername);
-            } else {
-                // Monthly endpoint returns PGN directly
-                String pgnUrl = baseUrl + "/pgn";
-                pgnData = fetchDataFromUrl(pgnUrl);
-            }
-
-            if (pgnData == null || pgnData.isEmpty()) {
-                System.out.println("No games found or the user/month/year is invalid.");
-                return;
-            }
-
-            // Step 4: Create the filename
-            String shortYear = year.substring(2);
-            String fileName;
-            if (isAnnual) {
-                fileName = targetUsername + "_" + shortYear + ".txt";
-            } else {
-                String formattedMonth = String.format("%02d", Integer.parseInt(month));
-                fileName = targetUsername + "_" + shortYear + formattedMonth + ".txt";
-            }
-            System.out.println("Processing games...");
+        // Step 3: Collect the PGN archive URL(s) to stream from Chess.com
+        List<String> pgnUrls;
+        if (isAnnual) {
+            // Annual endpoint returns JSON with monthly archive URLs
+            pgnUrls = fetchAndParseAnnualGames(baseUrl, targetUsername);
+        } else {
+            // Monthly endpoint returns PGN directly
+            pgnUrls = List.of(baseUrl + "/pgn");
+        }
 
-            // Step 5: Extract moves with metadata and save to file
-            GameStats stats = extractAndSaveGames(pgnData, targetUsername, fileName, timeControlFilter);
-            
-            if (stats.getTotalGames() == 0) {
-                System.out.println("No games match the specified time control filter.");
-                return;
-            }
-            
-            // Step 6: Append detailed statistics to the file
-            appendDetailedStatisticsToFile(fileName, stats, targetUsername, year, month);
-            
-            System.out.println("\nSuccess! Games saved to: " + fileName);
-            printConsoleSummary(stats);
+        return pgnUrls;
+    }
 
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Error: " + e.getMessage());
-            System.out.println("\nPossible reasons:");
-            System.out.println("1. The username might be incorrect");
-            System.out.println("2. There are no games for the specified year/month");
-            System.out.println("3. The year might be in the future (e.g., 2026)");
-            System.out.println("4. Network connection issue");
-        } finally {
-            scanner.close();
+    // Step 4: The report file name, <username>_<yy>.txt or <username>_<yymm>.txt
+    // (.json, .csv or .md in the other report formats)
+    private static String reportFileName(String targetUsername, String year, String month) {
+        String shortYear = year.substring(2);
+        if (month.equals("0")) {
+            return targetUsername + "_" + shortYear + "." + REPORT_FORMAT.extension;
         }
+        String formattedMonth = String.format("%02d", Integer.parseInt(month));
+        return targetUsername + "_" + shortYear + formattedMonth + "." + REPORT_FORMAT.extension;
     }
 
-    // Method to download PGN data from the web (monthly endpoint)
-    private static String fetchDataFromUrl(String urlString) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(urlString))
-                .header("User-Agent", "ChessMoveExtractor/3.0 (Java 25)")
-                .header("Accept", "text/plain, application/json")
-                .timeout(java.time.Duration.ofSeconds(15))
-                .GET()
-                .build();
-
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    // The period label of a report's statistics
+    private static String reportPeriod(String year, String month) {
+        return month.equals("0") ? "Year " + year : year + "-" + month;
+    }
 
-        int status = response.statusCode();
-        if (status == 404) {
-            System.out.println("No games found at: " + urlString);
-            return "";
+    // Bring a report file up to date by processing only what is new since the
+    // last sync. A checkpoint next to the file (<file>.sync) records, for each
+    // archive, how many games were written and a fingerprint of the last one.
+    // Archives whose month had already ended are never requested again; the
+    // others are re-read (a conditional GET with the archive cache) and only
+    // games past the checkpoint are parsed. New games are appended and the
+    // statistics section is rebuilt from the game store. Without a usable
+    // checkpoint the report is built from scratch. An archive that fails stops
+    // the sync there, so it is retried next time rather than left out.
+    private static String runSync(String targetUsername, String year, String month, String timeControlFilter)
+            throws IOException, InterruptedException {
+        if (GAME_STORE == null) {
+            System.err.println("Sync keeps its statistics in the game store, which is disabled (-Dchess.store.dir=)");
+            return null;
         }
-        if (status != 200) {
-            throw new IOException("HTTP Error: " + status + " for URL: " + urlString);
+        if (timeControlFilter.contains(";")) {
+            throw new IllegalArgumentException("Sync keeps a single report; run one sync per filter");
+        }
+        GameFilter filter = GameFilter.compile(timeControlFilter);
+        if (REPORT_FORMAT == ReportFormat.JSON) {
+            throw new IllegalArgumentException("Sync appends new games to its report, which a JSON document cannot take;"
+                    + " use the text, csv or markdown format");
+        }
+        List<String> pgnUrls = listArchives(targetUsername, year, month);
+        if (pgnUrls.isEmpty()) {
+            System.out.println("No games found or the user/month/year is invalid.");
+            return null;
         }
 
-        return response.body();
-    }
+        String fileName = reportFileName(targetUsername, year, month);
+        Path file = Paths.get(fileName);
+        Path checkpointFile = Paths.get(fileName + ".sync");
+        SyncCheckpoint checkpoint = SyncCheckpoint.load(checkpointFile, targetUsername, timeControlFilter);
+        if (checkpoint != null && !checkpoint.matches(pgnUrls, file)) {
+            System.out.println("Sync checkpoint does not match " + fileName + " any more, rebuilding it.");
+            checkpoint = null;
+        }
+        if (checkpoint == null) {
+            checkpoint = new SyncCheckpoint(targetUsername, timeControlFilter);
+        }
 
-    // Method to fetch and parse annual games from JSON
-    private static String fetchAndParseAnnualGames(String urlString, String username) throws IOException, InterruptedException {
-        System.out.println("Fetching annual game archives...");
-        StringBuilder allPgns = new StringBuilder();
-        
-        try {
-            // First, fetch the JSON that contains monthly archive URLs
-            String jsonResponse = fetchDataFromUrl(urlString);
-            if (jsonResponse.isEmpty()) {
-                return "";
-            }
-            
-            // Parse the JSON to get monthly archive URLs
-            List<String> monthlyUrls = extractMonthlyUrlsFromJson(jsonResponse);
-            
-            if (monthlyUrls.isEmpty()) {
-                System.out.println("No monthly archives found.");
-                return "";
+        // Drop the old statistics section so new games follow the last written one
+        if (checkpoint.gamesBytes == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(checkpoint.gamesBytes);
             }
-            
-            System.out.println("Found " + monthlyUrls.size() + " monthly archive(s).");
-            
-            // Fetch PGNs from each monthly archive
-            int archiveCount = 0;
-            for (String monthlyUrl : monthlyUrls) {
-                archiveCount++;
-                System.out.println("Processing archive " + archiveCount + " of " + monthlyUrls.size() + "...");
-                
-                try {
-                    String monthlyPgn = fetchDataFromUrl(monthlyUrl + "/pgn");
-                    if (!monthlyPgn.isEmpty()) {
-                        allPgns.append(monthlyPgn).append("\n");
+        }
+
+        int unchanged = 0;
+        int fetched = 0;
+        boolean rebuild = false;
+        GameStats stats = new GameStats();
+        try (GameProcessor processor = new GameProcessor(targetUsername, fileName, timeControlFilter, PARALLEL_PARSING)) {
+            processor.resume(checkpoint.gameCount, checkpoint.filteredCount);
+            for (int i = 0; i < pgnUrls.size(); i++) {
+                String pgnUrl = pgnUrls.get(i);
+                SyncCheckpoint.Archive previous = i < checkpoint.archives.size() ? checkpoint.archives.get(i) : null;
+                if (previous != null && previous.complete) {
+                    unchanged++;
+                    continue;
+                }
+
+                long fetchedAt = System.currentTimeMillis();
+                GameStore.SegmentWriter segment = GAME_STORE.newSegment(targetUsername, pgnUrl);
+                if (segment == null) {
+                    throw new IOException("Cannot sync an archive without a month: " + pgnUrl);
+                }
+                int gamesBefore = processor.getGameCount();
+                long waitStarted = System.nanoTime();
+                try (PgnGameReader reader = new PgnGameReader(METRICS.meterArchive(pgnUrl, openArchiveStream(pgnUrl), waitStarted))) {
+                    if (previous != null && previous.games > 0) {
+                        // Step over the games that are already in the file, without parsing them
+                        while (reader.getGamesRead() < previous.games && reader.nextGame() != null) { }
+                        if (reader.getGamesRead() < previous.games
+                                || SyncCheckpoint.fingerprint(reader.getLastGame()) != previous.lastGame) {
+                            System.out.println("Archive " + pgnUrl + " changed since the last sync, rebuilding " + fileName + ".");
+                            rebuild = true;
+                            break;
+                        }
+                        segment.copyRows(GAME_STORE.segment(targetUsername, archiveMonth(pgnUrl)), previous.games);
                     }
-                } catch (IOException | InterruptedException e) {
-                    System.out.println("Skipping archive: " + monthlyUrl + " (Error: " + e.getMessage() + ")");
+
+                    processor.processArchive(reader, segment);
+                    segment.commit();
+                    fetched++;
+
+                    String lastGame = reader.getLastGame();
+                    SyncCheckpoint.Archive archive = new SyncCheckpoint.Archive(pgnUrl, reader.getGamesRead(),
+                            lastGame != null ? SyncCheckpoint.fingerprint(lastGame) : 0, monthEnded(archiveMonth(pgnUrl), fetchedAt));
+                    if (previous != null) {
+                        checkpoint.archives.set(i, archive);
+                    } else {
+                        checkpoint.archives.add(archive);
+                    }
+                } catch (IOException e) {
+                    String monthlyUrl = pgnUrl.substring(0, pgnUrl.length() - "/pgn".length());
+                    System.out.println("Stopping at archive: " + monthlyUrl + " (Error: " + e.getMessage()
+                            + "), it will be retried on the next sync");
+                    if (processor.getGameCount() != gamesBefore) throw e; // Part of it is in the file already
+                    break;
                 }
             }
-            
-        } catch (Exception e) {
-            System.err.println("Error parsing annual data: " + e.getMessage());
-            throw new IOException("Failed to fetch annual games: " + e.getMessage());
-        }
-        
-        return allPgns.toString();
-    }
+            checkpoint.gameCount = processor.getGameCount();
+            checkpoint.filteredCount = processor.getFilteredCount();
+            if (!rebuild) {
+                int newGames = checkpoint.gameCount - checkpoint.previousGameCount;
+                System.out.println("Synced " + newGames + " new game(s) from " + fetched + " archive(s), "
+                        + unchanged + " unchanged archive(s) skipped.");
 
-    // Extract monthly archive URLs from JSON response
-    private static List<String> extractMonthlyUrlsFromJson(String jsonResponse) {
-        List<String> urls = new ArrayList<>();
-        
-        try {
-            // The JSON format is: {"archives":["url1","url2",...]}
-            // Simple parsing without external JSON library
-            if (jsonResponse.contains("\"archives\":[")) {
-                int start = jsonResponse.indexOf("\"archives\":[") + 12;
-                int end = jsonResponse.indexOf("]", start);
-                
-                if (start > 12 && end > start) {
-                    String archivesStr = jsonResponse.substring(start, end);
-                    // Split by comma and clean up
-                    String[] archiveArray = archivesStr.split(",");
-                    
-                    for (String archive : archiveArray) {
-                        String url = archive.trim()
-                            .replace("\"", "")
-                            .replace("\\/", "/"); // Unescape slashes
-                        if (!url.isEmpty() && url.startsWith("http")) {
-                            urls.add(url);
-                        }
+                // The statistics cover every synced game, so they come from the store,
+                // and follow the games in the file that is still open
+                processor.flush();
+                checkpoint.gamesBytes = Files.exists(file) ? Files.size(file) : 0;
+                PlayerDictionary players = new PlayerDictionary();
+                for (SyncCheckpoint.Archive archive : checkpoint.archives) {
+                    GameStore.Segment stored = GAME_STORE.segment(targetUsername, archiveMonth(archive.url));
+                    if (stored == null || stored.size() < archive.games) {
+                        Files.deleteIfExists(checkpointFile);
+                        throw new IOException("Game store has no complete copy of " + archive.url + "; the next sync will rebuild");
                     }
+                    stored.addTo(stats, archive.games, 0, Integer.MAX_VALUE, filter, players);
+                }
+                checkpoint.save(checkpointFile);
+                if (checkpoint.gameCount > 0 && stats.getTotalGames() > 0) {
+                    processor.writeStatistics(stats, targetUsername, reportPeriod(year, month));
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error parsing JSON: " + e.getMessage());
         }
-        
-        return urls;
+        if (rebuild) {
+            Files.deleteIfExists(checkpointFile);
+            return runSync(targetUsername, year, month, timeControlFilter);
+        }
+        if (checkpoint.gameCount == 0) {
+            System.out.println("No games found or the user/month/year is invalid.");
+            return null;
+        }
+        if (stats.getTotalGames() == 0) {
+            System.out.println("No games match the specified time control filter.");
+            return null;
+        }
+        System.out.println("\nSuccess! Games saved to: " + fileName);
+        printRequestSummary();
+        return fileName;
     }
 
-    // Class to hold game statistics
-    static class GameStats {
-        private int totalGames = 0;
-        private int won = 0;
-        private int lost = 0;
-        private int draw = 0;
-        
-        // Color-specific statistics
-        private int whiteGames = 0;
-        private int whiteWon = 0;
-        private int whiteLost = 0;
-        private int whiteDraw = 0;
-        
-        private int blackGames = 0;
-        private int blackWon = 0;
-        private int blackLost = 0;
-        private int blackDraw = 0;
-        
-        // Game type statistics
-        private Map<String, GameTypeStats> gameTypeStats = new HashMap<>();
-        
-        // Rating tracking
-        private Map<String, RatingTracker> ratingTrackers = new HashMap<>();
-        
-        // Move statistics
-        private int totalMoves = 0;
-        private List<Integer> moveCounts = new ArrayList<>();
-        
-        public void addGame(String gameType, String resultLabel, String color, int moveCount, int userRating, String date) {
-            totalGames++;
-            totalMoves += moveCount;
-            moveCounts.add(moveCount);
-            
-            // Only track valid ratings (above 0)
-            boolean hasValidRating = userRating > 0;
-            
-            // Update result statistics
-            switch (resultLabel) {
-                case "(won)": won++; break;
-                case "(lost)": lost++; break;
-                case "(draw)": draw++; break;
+    // What an incremental sync has already written for one report file
+    static class SyncCheckpoint {
+        final String username;
+        final String timeControlFilter;
+        final List<Archive> archives = new ArrayList<>(); // Synced archives, a prefix of the archive list
+        long gamesBytes = 0;   // Length of the report file without its statistics section
+        int gameCount = 0;     // Games seen, filtered or not
+        int filteredCount = 0; // Games written
+        int previousGameCount = 0;
+
+        // One archive: its URL, the games read from it, the fingerprint of the
+        // last one, and whether its month had ended when it was read
+        static class Archive {
+            final String url;
+            final int games;
+            final long lastGame;
+            final boolean complete;
+
+            Archive(String url, int games, long lastGame, boolean complete) {
+                this.url = url;
+                this.games = games;
+                this.lastGame = lastGame;
+                this.complete = complete;
             }
-            
-            // Update color statistics
-            if (color.equals("White")) {
-                whiteGames++;
-                switch (resultLabel) {
-                    case "(won)": whiteWon++; break;
-                    case "(lost)": whiteLost++; break;
-                    case "(draw)": whiteDraw++; break;
+        }
+
+        // 64 bits of the SHA-256 of a game's text, so that a different game in its
+        // place is not taken for it
+        static long fingerprint(String game) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(game.getBytes(StandardCharsets.UTF_8));
+                return ByteBuffer.wrap(digest).getLong();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        SyncCheckpoint(String username, String timeControlFilter) {
+            this.username = username;
+            this.timeControlFilter = timeControlFilter;
+        }
+
+        // The checkpoint for the same username and filter, or null
+        static SyncCheckpoint load(Path path, String username, String timeControlFilter) {
+            if (!Files.exists(path)) return null;
+            Properties props = new Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(reader);
+                if (!username.equalsIgnoreCase(props.getProperty("username", ""))
+                        || !timeControlFilter.equals(props.getProperty("filter"))) {
+                    return null;
                 }
-            } else {
-                blackGames++;
-                switch (resultLabel) {
-                    case "(won)": blackWon++; break;
-                    case "(lost)": blackLost++; break;
-                    case "(draw)": blackDraw++; break;
+                SyncCheckpoint checkpoint = new SyncCheckpoint(username, timeControlFilter);
+                checkpoint.gamesBytes = Long.parseLong(props.getProperty("gamesBytes"));
+                checkpoint.gameCount = Integer.parseInt(props.getProperty("gameCount"));
+                checkpoint.filteredCount = Integer.parseInt(props.getProperty("filteredCount"));
+                checkpoint.previousGameCount = checkpoint.gameCount;
+                int count = Integer.parseInt(props.getProperty("archives"));
+                for (int i = 0; i < count; i++) {
+                    String prefix = "archive." + i + ".";
+                    checkpoint.archives.add(new Archive(props.getProperty(prefix + "url"),
+                            Integer.parseInt(props.getProperty(prefix + "games")),
+                            Long.parseLong(props.getProperty(prefix + "lastGameSha")), // Absent in older checkpoints
+                            Boolean.parseBoolean(props.getProperty(prefix + "complete"))));
                 }
+                return checkpoint;
+            } catch (IOException | RuntimeException e) {
+                return null;
             }
-            
-            // Update game type statistics (only for games with valid ratings)
-            if (hasValidRating) {
-                GameTypeStats typeStats = gameTypeStats.getOrDefault(gameType, new GameTypeStats(gameType));
-                typeStats.addGame(resultLabel, moveCount, userRating, date);
-                gameTypeStats.put(gameType, typeStats);
-                
-                // Update rating tracker with date for chronological sorting
-                RatingTracker tracker = ratingTrackers.getOrDefault(gameType, new RatingTracker());
-                tracker.addRating(userRating, date);
-                ratingTrackers.put(gameType, tracker);
+        }
+
+        // Still describes the file, the archive list and the game store
+        boolean matches(List<String> pgnUrls, Path file) throws IOException {
+            if (archives.size() > pgnUrls.size()) return false;
+            long size = Files.exists(file) ? Files.size(file) : 0;
+            if (size < gamesBytes) return false;
+            for (int i = 0; i < archives.size(); i++) {
+                Archive archive = archives.get(i);
+                if (!archive.url.equals(pgnUrls.get(i))) return false;
+                YearMonth month = archiveMonth(archive.url);
+                if (month == null || GAME_STORE.storedGames(username, month) < archive.games) return false;
             }
+            return true;
         }
-        
-        // Getters
-        public int getTotalGames() { return totalGames; }
-        public int getWon() { return won; }
-        public int getLost() { return lost; }
-        public int getDraw() { return draw; }
-        
-        public int getWhiteGames() { return whiteGames; }
-        public int getWhiteWon() { return whiteWon; }
-        public int getWhiteLost() { return whiteLost; }
-        public int getWhiteDraw() { return whiteDraw; }
-        
-        public int getBlackGames() { return blackGames; }
-        public int getBlackWon() { return blackWon; }
-        public int getBlackLost() { return blackLost; }
-        public int getBlackDraw() { return blackDraw; }
-        
-        public double getAverageMoves() { 
-            return totalGames > 0 ? (double) totalMoves / totalGames : 0; 
+
+        void save(Path path) throws IOException {
+            Properties props = new Properties();
+            props.setProperty("username", username);
+            props.setProperty("filter", timeControlFilter);
+            props.setProperty("gamesBytes", String.valueOf(gamesBytes));
+            props.setProperty("gameCount", String.valueOf(gameCount));
+            props.setProperty("filteredCount", String.valueOf(filteredCount));
+            props.setProperty("archives", String.valueOf(archives.size()));
+            for (int i = 0; i < archives.size(); i++) {
+                Archive archive = archives.get(i);
+                String prefix = "archive." + i + ".";
+                props.setProperty(prefix + "url", archive.url);
+                props.setProperty(prefix + "games", String.valueOf(archive.games));
+                props.setProperty(prefix + "lastGameSha", String.valueOf(archive.lastGame));
+                props.setProperty(prefix + "complete", String.valueOf(archive.complete));
+            }
+
+            Path absolute = path.toAbsolutePath();
+            Path part = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".part");
+            try {
+                try (Writer writer = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+                    props.store(writer, "ChessMoveExtractor sync checkpoint");
+                }
+                Files.move(part, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(part);
+            }
         }
-        
-        public Map<String, GameTypeStats> getGameTypeStats() { return gameTypeStats; }
-        public Map<String, RatingTracker> getRatingTrackers() { return ratingTrackers; }
-        public List<Integer> getMoveCounts() { return moveCounts; }
     }
-    
-    // Modified RatingTracker class with chronological tracking
-    static class RatingTracker {
-        private List<RatingEntry> ratings = new ArrayList<>();
-        
-        static class RatingEntry {
-            int rating;
-            String date; // Format: "YYYY.MM.DD"
-            
-            RatingEntry(int rating, String date) {
-                this.rating = rating;
-                this.date = date;
+
+    // Run every entry of a batch manifest in this JVM on a shared worker pool.
+    // Each non-empty line that is not a # comment holds the same values as the
+    // command line: <username> <year> <month> [filter], where the filter is the
+    // rest of the line and may contain spaces. A failing entry is reported and
+    // does not stop the rest of the batch. Lines of the same username and period
+    // fetch the same archives, so they are merged into one entry that processes
+    // them once for the reports of every line.
+    private static void runBatch(Path manifest) throws IOException, InterruptedException {
+        Map<String, BatchEntry> byArchive = new LinkedHashMap<>();
+        int lines = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+", 4);
+            if (fields.length < 3) {
+                System.err.println("Skipping malformed manifest line: " + line);
+                continue;
             }
+            lines++;
+            BatchEntry entry = new BatchEntry(fields[0], fields[1], fields[2]);
+            byArchive.computeIfAbsent(entry.key(), key -> entry).addFilter(fields.length > 3 ? fields[3].trim() : "0");
         }
-        
-        public void addRating(int rating, String date) {
-            if (rating > 0 && date != null && !date.equals("?")) {
-                ratings.add(new RatingEntry(rating, date));
-            }
+        List<BatchEntry> entries = new ArrayList<>(byArchive.values());
+        if (entries.size() < lines) {
+            System.out.println("Merged " + lines + " manifest lines into " + entries.size() + " entr"
+                    + (entries.size() == 1 ? "y" : "ies") + ", one per username and period");
         }
-        
-        public int getRatingChange() {
-            if (ratings.size() < 2) return 0;
-            
-            // Sort by date chronologically
-            sortRatingsByDate();
-            
-            return ratings.get(ratings.size() - 1).rating - ratings.get(0).rating;
+
+        int workers = Math.max(1, Integer.getInteger("chess.batch.workers", 4));
+        System.out.println("Running " + entries.size() + " batch entr" + (entries.size() == 1 ? "y" : "ies")
+                + " on " + workers + " worker(s)...");
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<String>> results = new ArrayList<>();
+        for (BatchEntry entry : entries) {
+            results.add(pool.submit(() -> runReport(entry.username, entry.year, entry.month, entry.views(), false)));
         }
-        
-        public int getLatestRating() {
-            if (ratings.isEmpty()) return 0;
-            
-            // Sort by date and get most recent
-            sortRatingsByDate();
-            return ratings.get(ratings.size() - 1).rating;
+        pool.shutdown();
+
+        int succeeded = 0;
+        int failed = 0;
+        List<String> outcomes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            String label = entries.get(i).toString();
+            try {
+                String fileName = results.get(i).get();
+                outcomes.add("  OK     " + label + (fileName != null ? " -> " + fileName : " (no games)"));
+                succeeded++;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                outcomes.add("  FAILED " + label + ": " + cause.getClass().getSimpleName() + ": " + cause.getMessage());
+                failed++;
+            }
         }
-        
-        public int getStartingRating() {
-            if (ratings.isEmpty()) return 0;
-            
-            // Sort by date and get earliest
-            sortRatingsByDate();
-            return ratings.get(0).rating;
+
+        System.out.println("\n=== BATCH SUMMARY ===");
+        outcomes.forEach(System.out::println);
+        System.out.println("Succeeded: " + succeeded + " | Failed: " + failed);
+        printRequestSummary();
+    }
+
+    // One username and period of a batch manifest, with the filters of every
+    // line that asked for it in manifest order
+    static class BatchEntry {
+        final String username;
+        final String year;
+        final String month;
+        private final List<String> filters = new ArrayList<>();
+
+        // The month is read as a number, so "1" and "01" are the same archive
+        BatchEntry(String username, String year, String month) {
+            try {
+                int monthNumber = Integer.parseInt(month);
+                if (monthNumber == 0) {
+                    month = "0";
+                } else {
+                    YearMonth yearMonth = YearMonth.of(Integer.parseInt(year), monthNumber);
+                    year = String.valueOf(yearMonth.getYear());
+                    month = String.format("%02d", yearMonth.getMonthValue());
+                }
+            } catch (RuntimeException e) {
+                // Left as written; the report rejects it
+            }
+            this.username = username;
+            this.year = year;
+            this.month = month;
         }
-        
-        public int getHighestRating() {
-            return ratings.stream()
-                .mapToInt(r -> r.rating)
-                .max()
-                .orElse(0);
+
+        String key() {
+            return username.toLowerCase(Locale.ROOT) + "/" + year + "/" + month;
         }
-        
-        public int getLowestRating() {
-            return ratings.stream()
-                .filter(r -> r.rating > 0)
-                .mapToInt(r -> r.rating)
-                .min()
-                .orElse(0);
+
+        void addFilter(String filter) {
+            if (!filters.contains(filter)) filters.add(filter);
         }
-        
-        public int getAverageRating() {
-            if (ratings.isEmpty()) return 0;
-            return (int) ratings.stream()
-                .mapToInt(r -> r.rating)
-                .average()
-                .orElse(0);
-        }
-        
-        private void sortRatingsByDate() {
-            ratings.sort((r1, r2) -> {
-                try {
-                    // Parse dates in format YYYY.MM.DD
-                    String[] parts1 = r1.date.split("\\.");
-                    String[] parts2 = r2.date.split("\\.");
-                    
-                    int year1 = Integer.parseInt(parts1[0]);
-                    int month1 = Integer.parseInt(parts1[1]);
-                    int day1 = Integer.parseInt(parts1[2]);
-                    
-                    int year2 = Integer.parseInt(parts2[0]);
-                    int month2 = Integer.parseInt(parts2[1]);
-                    int day2 = Integer.parseInt(parts2[2]);
-                    
-                    if (year1 != year2) return Integer.compare(year1, year2);
-                    if (month1 != month2) return Integer.compare(month1, month2);
-                    return Integer.compare(day1, day2);
-                } catch (Exception e) {
-                    return 0;
+
+        // The views of every line, with the report files the line would write on
+        // its own. Of two lines that write the same file, the later one wins, as
+        // it would when the lines ran one after another.
+        List<ReportView> views() {
+            String fileName = reportFileName(username, year, month);
+            Map<String, ReportView> byFile = new LinkedHashMap<>();
+            for (String filter : filters) {
+                for (ReportView view : ReportView.parse(filter, fileName)) {
+                    ReportView earlier = byFile.put(view.fileName, view);
+                    if (earlier != null && !earlier.filterText.equals(view.filterText)) {
+                        System.out.println("Batch: " + view.fileName + " is asked for with filter \"" + earlier.filterText
+                                + "\" and later \"" + view.filterText + "\"; writing the later one");
+                    }
                 }
-            });
+            }
+            return new ArrayList<>(byFile.values());
+        }
+
+        @Override
+        public String toString() {
+            return username + " " + year + " " + month + " " + String.join(" | ", filters);
         }
     }
-    
-    // Modified GameTypeStats class
-    static class GameTypeStats {
-        private String gameType;
-        private int total = 0;
-        private int won = 0;
-        private int lost = 0;
-        private int draw = 0;
-        private int totalMoves = 0;
-        private int minRating = Integer.MAX_VALUE;
-        private int maxRating = 0;
-        private int latestRating = 0;
-        private List<Integer> ratings = new ArrayList<>();
-        private List<String> dates = new ArrayList<>();
-        
-        public GameTypeStats(String gameType) {
-            this.gameType = gameType;
+
+    // Keeps the current-month reports of many users up to date (--watch). The
+    // users wait in a DelayQueue ordered by when they are next due. The
+    // dispatcher takes every user that is due at once and hands them to a fixed
+    // pool of workers (-Dchess.watch.workers), which revalidate the current-month
+    // archive with a conditional GET (If-None-Match / If-Modified-Since) and
+    // rebuild a report only when its archive changed since the last poll. A
+    // user whose archive changed is polled again after half their interval, one
+    // whose archive did not after one and a half times it, within
+    // -Dchess.watch.minIntervalMs and -Dchess.watch.maxIntervalMs.
+    // Queue depth (users due but not being polled yet) and lag (how late polls
+    // start) are printed every -Dchess.watch.statusMs, and also written as JSON
+    // to -Dchess.watch.status=<file> when set. What was last seen of every user
+    // is kept in <users file>.state, so a restart does not rebuild every report.
+    static class WatchDaemon {
+        private static final long MIN_INTERVAL_MILLIS = Long.getLong("chess.watch.minIntervalMs", 60_000);
+        private static final long MAX_INTERVAL_MILLIS = Math.max(MIN_INTERVAL_MILLIS,
+                Long.getLong("chess.watch.maxIntervalMs", 60 * 60_000));
+        private static final long STATUS_MILLIS = Math.max(100, Long.getLong("chess.watch.statusMs", 60_000));
+
+        @FunctionalInterface
+        interface Fetcher {
+            // GET an archive unless it still matches the validators of the copy last seen (null when none)
+            Archive fetch(String url, String etag, String lastModified) throws IOException, InterruptedException;
         }
-        
-        public void addGame(String resultLabel, int moveCount, int rating, String date) {
-            if (rating <= 0) return; // Skip invalid ratings
-            
-            total++;
-            totalMoves += moveCount;
-            ratings.add(rating);
-            if (date != null && !date.equals("?")) {
-                dates.add(date);
+
+        // A fetched archive: its body and validators, or no body when it is unchanged (304) or missing (404)
+        static class Archive {
+            final InputStream body;
+            final String etag;
+            final String lastModified;
+
+            Archive(InputStream body, String etag, String lastModified) {
+                this.body = body;
+                this.etag = etag;
+                this.lastModified = lastModified;
             }
-            
-            // Update min/max ratings
-            if (rating < minRating) minRating = rating;
-            if (rating > maxRating) maxRating = rating;
-            
-            // Update latest rating based on date
-            updateLatestRating(rating, date);
-            
-            switch (resultLabel) {
-                case "(won)": won++; break;
-                case "(lost)": lost++; break;
-                case "(draw)": draw++; break;
+        }
+
+        // One watched user: the report filter, and the schedule and last archive seen
+        static class WatchedUser implements Delayed {
+            final String username;
+            final String filter;
+            volatile long dueAt;
+            volatile long intervalMillis = MIN_INTERVAL_MILLIS;
+            volatile YearMonth month;     // Month of the archive last seen, null before the first poll
+            volatile long fingerprint;    // Length and CRC-32 of that archive
+            volatile String etag;         // Validators of that archive, null when the server sent none
+            volatile String lastModified;
+
+            WatchedUser(String username, String filter) {
+                this.username = username;
+                this.filter = filter;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(dueAt, ((WatchedUser) other).dueAt);
             }
         }
-        
-        private void updateLatestRating(int rating, String date) {
-            if (date == null || date.equals("?")) return;
-            
-            if (dates.isEmpty()) {
-                latestRating = rating;
-            } else {
-                try {
-                    // Find the index of this date
-                    int currentIndex = dates.size() - 1;
-                    String currentDate = dates.get(currentIndex);
-                    
-                    if (isDateLater(date, currentDate)) {
-                        latestRating = rating;
-                    } else if (latestRating == 0) {
-                        latestRating = rating;
-                    }
-                } catch (Exception e) {
-                    // If date parsing fails, update anyway if no latest rating
-                    if (latestRating == 0) {
-                        latestRating = rating;
+
+        private final List<WatchedUser> users;
+        private final DelayQueue<WatchedUser> queue = new DelayQueue<>();
+        private final Fetcher fetcher;
+        private final Path stateFile;
+        private final int workerCount;
+        private final ExecutorService workers;
+        private final Semaphore idleWorkers;
+
+        private final AtomicInteger waiting = new AtomicInteger(); // Taken from the queue, waiting for a worker
+        private final AtomicInteger polling = new AtomicInteger();
+        private final LongAdder polls = new LongAdder();
+        private final LongAdder changed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder lagMillis = new LongAdder();   // Since the last status line
+        private final LongAdder lagCount = new LongAdder();
+        private final LongAccumulator maxLagMillis = new LongAccumulator(Math::max, 0);
+
+        WatchDaemon(Path usersFile, Fetcher fetcher, int workerCount) throws IOException {
+            this.users = readUsers(usersFile);
+            this.fetcher = fetcher;
+            this.stateFile = Paths.get(usersFile + ".state");
+            this.workerCount = workerCount;
+            this.workers = Executors.newFixedThreadPool(workerCount);
+            this.idleWorkers = new Semaphore(workerCount);
+            if (users.isEmpty()) throw new IllegalArgumentException("No users to watch in " + usersFile);
+            loadState();
+
+            // Spread the first polls over the shortest interval
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < users.size(); i++) {
+                WatchedUser user = users.get(i);
+                user.dueAt = now + MIN_INTERVAL_MILLIS * i / users.size();
+                queue.add(user);
+            }
+        }
+
+        static void watch(Path usersFile) throws IOException, InterruptedException {
+            int workers = Math.max(1, Integer.getInteger("chess.watch.workers", 8));
+            new WatchDaemon(usersFile, WatchDaemon::fetchArchive, workers).run();
+        }
+
+        // Conditional GET of an archive; the body is left open for the caller to stream
+        static Archive fetchArchive(String url, String etag, String lastModified) throws IOException, InterruptedException {
+            HttpRequest.Builder builder = requestBuilder(url);
+            if (etag != null) builder.header("If-None-Match", etag);
+            if (lastModified != null) builder.header("If-Modified-Since", lastModified);
+            HttpResponse<InputStream> response = REQUEST_SCHEDULER.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+
+            int status = response.statusCode();
+            if (status != 200) {
+                response.body().close();
+            }
+            if (status == 304) {
+                return new Archive(null, etag, lastModified);
+            }
+            if (status == 404) {
+                return new Archive(null, null, null);
+            }
+            if (status != 200) {
+                throw new IOException("HTTP Error: " + status + " for URL: " + url);
+            }
+            return new Archive(response.body(), response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null));
+        }
+
+        // One user per non-empty line that is not a # comment: <username> [filter]
+        private static List<WatchedUser> readUsers(Path usersFile) throws IOException {
+            Map<String, WatchedUser> users = new LinkedHashMap<>();
+            for (String line : Files.readAllLines(usersFile, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+", 2);
+                String filter = fields.length > 1 ? fields[1] : "0";
+                GameFilter.compile(filter);
+                users.putIfAbsent(fields[0].toLowerCase(Locale.ROOT), new WatchedUser(fields[0], filter));
+            }
+            return new ArrayList<>(users.values());
+        }
+
+        // Dispatch due users until interrupted
+        void run() throws InterruptedException {
+            System.out.println("Watching " + users.size() + " user(s) with " + workerCount + " worker(s)...");
+            ScheduledExecutorService status = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "watch-status");
+                thread.setDaemon(true);
+                return thread;
+            });
+            status.scheduleAtFixedRate(this::reportStatus, STATUS_MILLIS, STATUS_MILLIS, TimeUnit.MILLISECONDS);
+            Thread saveOnExit = new Thread(this::saveState);
+            Runtime.getRuntime().addShutdownHook(saveOnExit);
+
+            List<WatchedUser> due = new ArrayList<>();
+            try {
+                while (true) {
+                    due.add(queue.take());
+                    queue.drainTo(due);
+                    waiting.addAndGet(due.size());
+                    for (WatchedUser user : due) {
+                        idleWorkers.acquire();
+                        waiting.decrementAndGet();
+                        polling.incrementAndGet();
+                        workers.execute(() -> {
+                            try {
+                                poll(user);
+                            } finally {
+                                polling.decrementAndGet();
+                                idleWorkers.release();
+                                queue.add(user);
+                            }
+                        });
                     }
+                    due.clear();
+                }
+            } finally {
+                status.shutdownNow();
+                workers.shutdownNow();
+                saveState();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(saveOnExit);
+                } catch (IllegalStateException e) {
+                    // Already shutting down
                 }
             }
         }
-        
-        private boolean isDateLater(String date1, String date2) {
+
+        // Poll one user and set when they are due next
+        void poll(WatchedUser user) {
+            long started = System.currentTimeMillis();
+            long lag = Math.max(0, started - user.dueAt);
+            lagMillis.add(lag);
+            lagCount.increment();
+            maxLagMillis.accumulate(lag);
+            polls.increment();
+
+            long interval = user.intervalMillis;
             try {
-                String[] parts1 = date1.split("\\.");
-                String[] parts2 = date2.split("\\.");
-                
-                int year1 = Integer.parseInt(parts1[0]);
-                int month1 = Integer.parseInt(parts1[1]);
-                int day1 = Integer.parseInt(parts1[2]);
-                
-                int year2 = Integer.parseInt(parts2[0]);
-                int month2 = Integer.parseInt(parts2[1]);
-                int day2 = Integer.parseInt(parts2[2]);
-                
-                if (year1 > year2) return true;
-                if (year1 == year2 && month1 > month2) return true;
-                if (year1 == year2 && month1 == month2 && day1 > day2) return true;
-                return false;
-            } catch (Exception e) {
+                YearMonth month = YearMonth.now(ZoneOffset.UTC);
+                boolean updated = false;
+                if (user.month != null && !user.month.equals(month)) {
+                    // Games finished just before the month ended land in the previous archive
+                    updated = refresh(user, user.month);
+                    user.fingerprint = 0;
+                }
+                updated |= refresh(user, month);
+                if (updated) changed.increment();
+                interval = updated ? interval / 2 : interval * 3 / 2;
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                System.err.println("Watch: polling " + user.username + " failed: " + e.getMessage());
+                interval *= 2;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            user.intervalMillis = Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, interval));
+            // A little jitter keeps users that were due together from staying in lockstep
+            user.dueAt = System.currentTimeMillis() + user.intervalMillis
+                    + ThreadLocalRandom.current().nextLong(user.intervalMillis / 10 + 1);
+        }
+
+        // Fetch a month's archive and rebuild its report when it changed; true if it did
+        private boolean refresh(WatchedUser user, YearMonth month) throws IOException, InterruptedException {
+            String year = String.valueOf(month.getYear());
+            String monthNumber = String.format("%02d", month.getMonthValue());
+            String pgnUrl = "https://api.chess.com/pub/player/" + user.username + "/games/" + year + "/" + monthNumber + "/pgn";
+            boolean sameMonth = month.equals(user.month);
+            Archive archive = fetcher.fetch(pgnUrl, sameMonth ? user.etag : null, sameMonth ? user.lastModified : null);
+            if (archive.body == null) {
+                user.month = month;
+                user.etag = archive.etag;
+                user.lastModified = archive.lastModified;
                 return false;
             }
+
+            // A server without validators sends the whole archive every time. It is
+            // spooled to a temporary file while its checksum is taken, and neither
+            // the report nor the store is touched when it matches the last copy.
+            Path spool = Files.createTempFile("chess-watch-", ".pgn");
+            try {
+                CRC32 checksum = new CRC32();
+                long length;
+                try (InputStream in = new CheckedInputStream(archive.body, checksum);
+                     OutputStream out = Files.newOutputStream(spool)) {
+                    length = in.transferTo(out);
+                }
+                if (length == 0) {
+                    user.month = month;
+                    return false;
+                }
+                long fingerprint = length << 32 | checksum.getValue();
+                boolean changed = !sameMonth || fingerprint != user.fingerprint;
+                if (changed) {
+                    String fileName = reportFileName(user.username, year, monthNumber);
+                    List<ReportView> views = ReportView.parse(user.filter, fileName);
+                    try (InputStream in = Files.newInputStream(spool);
+                         GameProcessor processor = new GameProcessor(user.username, views, PARALLEL_PARSING)) {
+                        GameStore.SegmentWriter segment = GAME_STORE != null ? GAME_STORE.newSegment(user.username, pgnUrl) : null;
+                        processor.processArchive(in, segment);
+                        if (processor.getGameCount() == 0) {
+                            user.month = month;
+                            return false;
+                        }
+                        if (segment != null) segment.commit();
+                        processor.writeStatistics(user.username, reportPeriod(year, monthNumber));
+                    }
+                }
+                // The validators are kept only once the report is written, so a failed rebuild is retried
+                user.month = month;
+                user.fingerprint = fingerprint;
+                user.etag = archive.etag;
+                user.lastModified = archive.lastModified;
+                return changed;
+            } finally {
+                Files.deleteIfExists(spool);
+            }
         }
-        
-        public double getWinRate() {
-            return total > 0 ? (double) won / total * 100 : 0;
+
+        // Users that are due and not being polled yet
+        int getQueueDepth() {
+            int due = 0;
+            for (WatchedUser user : queue) {
+                if (user.getDelay(TimeUnit.MILLISECONDS) <= 0) due++;
+            }
+            return due + waiting.get();
         }
-        
-        public double getLossRate() {
-            return total > 0 ? (double) lost / total * 100 : 0;
+
+        private void reportStatus() {
+            long count = lagCount.sumThenReset();
+            long averageLag = count > 0 ? lagMillis.sumThenReset() / count : 0;
+            long maxLag = maxLagMillis.getThenReset();
+            int depth = getQueueDepth();
+            System.out.printf("Watch: %d user(s) | queue depth %d, polling %d | lag avg %d ms, max %d ms"
+                            + " | %d poll(s), %d changed, %d failed%n",
+                    users.size(), depth, polling.get(), averageLag, maxLag, polls.sum(), changed.sum(), failed.sum());
+
+            String target = System.getProperty("chess.watch.status", "");
+            if (!target.isEmpty()) {
+                String json = "{\"users\": " + users.size() + ", \"queueDepth\": " + depth + ", \"polling\": " + polling.get()
+                        + ", \"lagAvgMillis\": " + averageLag + ", \"lagMaxMillis\": " + maxLag + ", \"polls\": " + polls.sum()
+                        + ", \"changed\": " + changed.sum() + ", \"failed\": " + failed.sum() + "}\n";
+                try {
+                    Files.writeString(Paths.get(target), json, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    System.err.println("Could not write watch status to " + target + ": " + e.getMessage());
+                }
+            }
+            saveState();
         }
-        
-        public double getDrawRate() {
-            return total > 0 ? (double) draw / total * 100 : 0;
+
+        private void loadState() {
+            if (!Files.exists(stateFile)) return;
+            Properties props = new Properties();
+            try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            } catch (IOException e) {
+                System.err.println("Ignoring watch state " + stateFile + ": " + e.getMessage());
+                return;
+            }
+            for (WatchedUser user : users) {
+                String key = user.username.toLowerCase(Locale.ROOT);
+                String value = props.getProperty(key);
+                if (value == null) continue;
+                user.etag = props.getProperty(key + ".etag");
+                user.lastModified = props.getProperty(key + ".lastModified");
+                String[] fields = value.split(",");
+                try {
+                    user.month = YearMonth.parse(fields[0]);
+                    user.fingerprint = Long.parseLong(fields[1]);
+                    user.intervalMillis = Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, Long.parseLong(fields[2])));
+                } catch (RuntimeException e) {
+                    user.month = null; // Start this user afresh
+                }
+            }
         }
-        
-        public double getAverageMoves() {
-            return total > 0 ? (double) totalMoves / total : 0;
+
+        // <username> = <month>,<fingerprint>,<interval>
+        private synchronized void saveState() {
+            Properties props = new Properties();
+            for (WatchedUser user : users) {
+                YearMonth month = user.month;
+                if (month != null) {
+                    String key = user.username.toLowerCase(Locale.ROOT);
+                    props.setProperty(key, month + "," + user.fingerprint + "," + user.intervalMillis);
+                    // Validators are quoted strings and dates that may hold commas, so they get keys of their own
+                    if (user.etag != null) props.setProperty(key + ".etag", user.etag);
+                    if (user.lastModified != null) props.setProperty(key + ".lastModified", user.lastModified);
+                }
+            }
+            try {
+                Path absolute = stateFile.toAbsolutePath();
+                Path part = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".part");
+                try {
+                    try (Writer writer = Files.newBufferedWriter(part, StandardCharsets.UTF_8)) {
+                        props.store(writer, "ChessMoveExtractor watch state");
+                    }
+                    Files.move(part, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(part);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not save watch state to " + stateFile + ": " + e.getMessage());
+            }
         }
-        
-        public int getRatingRange() {
-            if (minRating == Integer.MAX_VALUE || maxRating == 0) return 0;
-            return maxRating - minRating;
+    }
+
+    // Recompute the statistics report for a username and date range from the
+    // game store alone: no download and no PGN parsing. Dates are YYYY, YYYY.MM
+    // or YYYY.MM.DD and both ends are inclusive. Games without a usable date
+    // count when their archive's month is in range.
+    private static void runQuery(String username, String from, String to, String timeControlFilter)
+            throws IOException {
+        if (GAME_STORE == null) {
+            System.err.println("The game store is disabled (-Dchess.store.dir=)");
+            return;
         }
-        
-        public int getAverageRating() {
-            if (ratings.isEmpty()) return 0;
-            return (int) ratings.stream().mapToInt(Integer::intValue).average().orElse(0);
+        long started = System.nanoTime();
+        int lower = parseDateBound(from, false);
+        int upper = parseDateBound(to, true);
+        List<ReportView> views = ReportView.parse(timeControlFilter, "");
+
+        List<GameStore.Segment> segments = GAME_STORE.segments(username, lower / 100, upper / 100);
+        PlayerDictionary players = new PlayerDictionary();
+        int total = 0;
+        for (ReportView view : views) {
+            for (GameStore.Segment segment : segments) {
+                segment.addTo(view.stats, segment.size(), lower, upper, view.filter, players);
+            }
+            total += view.stats.getTotalGames();
         }
-        
-        // Getters
-        public String getGameType() { return gameType; }
-        public int getTotal() { return total; }
-        public int getWon() { return won; }
-        public int getLost() { return lost; }
-        public int getDraw() { return draw; }
-        public int getMinRating() { return minRating == Integer.MAX_VALUE ? 0 : minRating; }
-        public int getMaxRating() { return maxRating; }
-        public int getLatestRating() { return latestRating; }
+
+        if (total == 0) {
+            System.out.println("No stored games for " + username + " between " + from + " and " + to
+                    + " (" + segments.size() + " archive(s) in range). Run a report for that period first.");
+            return;
+        }
+
+        // One document per view; in the data formats the filter tells them apart,
+        // and several JSON documents are the elements of one array
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        boolean text = REPORT_FORMAT == ReportFormat.TEXT;
+        boolean jsonArray = REPORT_FORMAT == ReportFormat.JSON && views.size() > 1;
+        if (jsonArray) out.write('[');
+        for (int i = 0; i < views.size(); i++) {
+            ReportView view = views.get(i);
+            if (views.size() > 1 && text) {
+                out.write("\n### " + view.name + ": " + view.filterText + " ###\n");
+            }
+            if (jsonArray && i > 0) out.write(',');
+            ReportRenderer renderer = REPORT_FORMAT.open(out);
+            renderer.begin(i > 0);
+            renderer.statistics(view.stats, username, from + " to " + to, view.filterText);
+            renderer.end();
+            if (text) out.write("\n");
+        }
+        if (jsonArray) out.write("]\n");
+        out.flush();
+        System.out.printf("%nQueried %d game(s) from %d stored archive(s) in %.1f ms%n",
+                total, segments.size(), (System.nanoTime() - started) / 1e6);
     }
 
-    // Main method to process all games in the PGN data
-    private static GameStats extractAndSaveGames(String pgnData, String targetUsername, String fileName, String timeControlFilter) throws IOException {
-        // Split the large PGN into individual game blocks
-        String[] rawGameBlocks = pgnData.split("\\n\\s*\\n(?=\\[)");
+    // Explore the openings of a username's stored games: the position after
+    // `line` (SAN move text, the start position when empty) for each color the
+    // user reached it with, and every move the games went on with from there.
+    private static void runOpenings(String username, String from, String to, String line) throws IOException {
+        if (GAME_STORE == null) {
+            System.err.println("The game store is disabled (-Dchess.store.dir=)");
+            return;
+        }
+        GameReplayer replayer = new GameReplayer();
+        if (!replayer.replay(line, null)) {
+            throw new IllegalArgumentException("Cannot play \"" + line + "\": ply " + (replayer.getPlies() + 1) + " is not a legal move");
+        }
+        Board board = replayer.getBoard();
+        long started = System.nanoTime();
+        int lower = parseDateBound(from, false);
+        int upper = parseDateBound(to, true);
+
         GameStats stats = new GameStats();
+        List<GameStore.Segment> segments = GAME_STORE.segments(username, lower / 100, upper / 100);
+        PlayerDictionary players = new PlayerDictionary();
+        for (GameStore.Segment segment : segments) {
+            segment.addTo(stats, segment.size(), lower, upper, GameFilter.ALL, players);
+        }
+        OpeningTree tree = stats.getOpenings();
+        if (replayer.getPlies() >= tree.getPlies()) {
+            System.out.println("Note: only the first " + tree.getPlies() + " plies of each game are explored (-Dchess.openings.plies)");
+        }
+
+        DecimalFormat df = new DecimalFormat("#.#");
+        System.out.println("Position: " + board.toFen());
+        boolean found = false;
+        for (int color = 0; color < 2; color++) {
+            int slot = tree.find(board.getHash(), color);
+            if (slot < 0) continue;
+            found = true;
+            System.out.println("\nAs " + GameStore.COLORS[color] + ": " + formatOpeningPosition(tree, slot, df));
+            for (int[] child : openingMoves(tree, board, color, 1)) {
+                StringBuilder label = new StringBuilder("  ");
+                board.appendSan(child[0], label);
+                System.out.printf("%-10s %s%n", label, formatOpeningPosition(tree, child[1], df));
+            }
+        }
+        if (!found) {
+            System.out.println("No stored games of " + username + " between " + from + " and " + to
+                    + " reached this position (" + segments.size() + " archive(s) in range).");
+        }
+        System.out.printf("%nExplored %d game(s), %d position(s) in %.1f ms%n",
+                stats.getTotalGames(), tree.size(), (System.nanoTime() - started) / 1e6);
+    }
+
+    // List every stored game of a username that reached the position of a FEN,
+    // by any move order, through the position index of each monthly segment.
+    // Segments stored before the index existed are indexed on first use.
+    private static void runPosition(String username, String fen) throws IOException {
+        if (GAME_STORE == null) {
+            System.err.println("The game store is disabled (-Dchess.store.dir=)");
+            return;
+        }
+        Board board = new Board(fen);
+        long hash = board.getHash();
+        long started = System.nanoTime();
+
+        List<GameStore.Segment> segments = GAME_STORE.segments(username, 0, 999912);
+        int found = 0;
+        System.out.println("Position: " + board.toFen());
+        for (GameStore.Segment segment : segments) {
+            PositionIndex index = segment.positions(true);
+            for (int entry = index.first(hash); entry >= 0 && entry < index.size() && index.getHash(entry) == hash; entry++) {
+                int row = index.getRow(entry);
+                int ply = index.getPly(entry);
+                int date = segment.get(GameStore.DATE, row);
+                System.out.printf("%s #%-5d %s  %-5s vs %-20s %-6s %-8s at ply %d%n",
+                        segment.getMonth(), row + 1,
+                        date > 0 ? String.format("%04d.%02d.%02d", date / 10000, date / 100 % 100, date % 100) : "????.??.??",
+                        GameStore.COLORS[segment.get(GameStore.COLOR, row)],
+                        segment.getString(GameStore.OPPONENT, row),
+                        GameStore.RESULT_LABELS[segment.get(GameStore.RESULT, row)],
+                        segment.getString(GameStore.GAME_TYPE, row),
+                        ply);
+                found++;
+            }
+        }
+        System.out.printf("%nFound %d game(s) in %d stored archive(s) in %.1f ms%n",
+                found, segments.size(), (System.nanoTime() - started) / 1e6);
+    }
+
+    // Parse YYYY[.MM[.DD]] (or with '-') into yyyymmdd, filling the missing
+    // parts with the start or the end of the period
+    private static int parseDateBound(String text, boolean end) {
+        String[] parts = text.trim().split("[.-]");
+        if (parts.length > 3 || parts[0].length() != 4) {
+            throw new IllegalArgumentException("Invalid date: " + text + " (expected YYYY, YYYY.MM or YYYY.MM.DD)");
+        }
+        int year = Integer.parseInt(parts[0]);
+        int month = parts.length > 1 ? Integer.parseInt(parts[1]) : (end ? 12 : 1);
+        int day = parts.length > 2 ? Integer.parseInt(parts[2]) : (end ? 31 : 1);
+        return year * 10000 + month * 100 + day;
+    }
+
+    // Serves report statistics as JSON from the JDK's HttpServer (--serve):
+    //   GET /stats?user=<name>&year=<yyyy>[&month=<m>][&filter=<filter>]
+    //   GET /status   cache counters
+    // Every request runs on its own virtual thread. Results are kept in a
+    // bounded LRU cache, each entry with its own expiry: long for a period whose
+    // months have all ended, short for one that can still gain games. Requests
+    // for a key that is already being computed wait for that computation
+    // instead of starting another one. The server has no authentication, so it
+    // listens on the loopback interface unless -Dchess.server.bind names another
+    // address (0.0.0.0 for all), and its requests never write to the game store.
+    static class StatsServer {
+        private static final String BIND_ADDRESS = System.getProperty("chess.server.bind", "");
+        private static final int CACHE_ENTRIES = Integer.getInteger("chess.server.cacheEntries", 1000);
+        private static final long CLOSED_TTL_MILLIS = Long.getLong("chess.server.closedTtlMs", 24 * 60 * 60 * 1000L);
+        private static final long OPEN_TTL_MILLIS = Long.getLong("chess.server.openTtlMs", 5 * 60 * 1000L);
+
+        private final ResultCache cache = new ResultCache(CACHE_ENTRIES);
+        private final HttpServer server;
+
+        StatsServer(int port) throws IOException {
+            InetAddress address = BIND_ADDRESS.isEmpty()
+                    ? InetAddress.getLoopbackAddress() : InetAddress.getByName(BIND_ADDRESS);
+            server = HttpServer.create(new InetSocketAddress(address, port), 0);
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.createContext("/stats", exchange -> respond(exchange, this::stats));
+            server.createContext("/status", exchange -> respond(exchange, parameters -> cache.statusJson()));
+        }
+
+        // Serve until the process is stopped
+        static void serve(int port) throws IOException, InterruptedException {
+            StatsServer stats = new StatsServer(port);
+            stats.server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stats.server.stop(1)));
+            InetSocketAddress address = stats.server.getAddress();
+            String host = address.getHostString();
+            if (host.contains(":")) host = "[" + host + "]"; // IPv6 literal
+            System.out.println("Serving statistics on http://" + host + ":" + address.getPort() + "/stats");
+            if (!address.getAddress().isLoopbackAddress()) {
+                System.out.println("Warning: the server is reachable from other hosts and has no authentication");
+            }
+            Thread.currentThread().join();
+        }
+
+        private String stats(Map<String, String> parameters) throws IOException, InterruptedException {
+            String username = parameters.getOrDefault("user", "");
+            String year = parameters.getOrDefault("year", "");
+            String monthText = parameters.getOrDefault("month", "0");
+            String filter = parameters.getOrDefault("filter", "0").trim();
+            if (!username.matches("[A-Za-z0-9_-]{1,50}")) {
+                throw new IllegalArgumentException("user must be a Chess.com username");
+            }
+            if (!year.matches("\\d{4}") || !monthText.matches("\\d{1,2}") || Integer.parseInt(monthText) > 12) {
+                throw new IllegalArgumentException("year must be YYYY and month 1-12 (0 or none for the whole year)");
+            }
+            int month = Integer.parseInt(monthText);
+            GameFilter.compile(filter); // Reject a bad filter before anything is fetched
+
+            YearMonth lastMonth = YearMonth.of(Integer.parseInt(year), month == 0 ? 12 : month);
+            long ttl = monthEnded(lastMonth, System.currentTimeMillis()) ? CLOSED_TTL_MILLIS : OPEN_TTL_MILLIS;
+            String monthArgument = month == 0 ? "0" : String.format("%02d", month);
+            String key = username.toLowerCase(Locale.ROOT) + "/" + year + "/" + month + "/" + filter;
+            return cache.get(key, ttl, () -> {
+                ReportView view = new ReportView("1", filter, null);
+                String period = month == 0 ? year : year + "-" + monthArgument;
+                List<String> pgnUrls = listArchives(username, year, monthArgument);
+                if (!pgnUrls.isEmpty()) {
+                    extractAndSaveGames(pgnUrls, month == 0, username, period, List.of(view), null, false);
+                }
+                return statisticsJson(view.getStats(), username, period, filter);
+            });
+        }
+
+        private static void respond(HttpExchange exchange, Handler handler) throws IOException {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    status = 405;
+                    body = errorJson("Only GET is supported");
+                } else {
+                    body = handler.handle(queryParameters(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = errorJson(e.getMessage());
+            } catch (IOException e) {
+                status = 502;
+                body = errorJson(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                status = 503;
+                body = errorJson("Interrupted");
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private static String errorJson(String message) {
+            return "{\"error\": " + jsonString(message == null ? "" : message) + "}\n";
+        }
+
+        private static Map<String, String> queryParameters(String rawQuery) {
+            Map<String, String> parameters = new HashMap<>();
+            if (rawQuery == null) return parameters;
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+                String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                parameters.putIfAbsent(name, value);
+            }
+            return parameters;
+        }
+
+        @FunctionalInterface
+        interface Handler {
+            String handle(Map<String, String> parameters) throws IOException, InterruptedException;
+        }
+
+        @FunctionalInterface
+        interface Loader {
+            String load() throws IOException, InterruptedException;
+        }
+
+        // LRU map of results with per-entry expiry. An entry goes in as soon as
+        // its computation starts, so later requests for the key find it and
+        // wait on its future; failures are handed to those waiters and dropped.
+        // Only computed entries are evicted, so the map can run over its size by
+        // the entries still being computed.
+        static class ResultCache {
+            private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+            private final int maxEntries;
+            private long hits = 0;
+            private long misses = 0;
+            private long coalesced = 0; // Hits on an entry still being computed
+
+            ResultCache(int maxEntries) {
+                this.maxEntries = maxEntries;
+            }
+
+            // Drop the least recently used computed entries while over the size
+            private void evict() {
+                Iterator<Entry> eldest = entries.values().iterator();
+                while (entries.size() > maxEntries && eldest.hasNext()) {
+                    if (eldest.next().result.isDone()) eldest.remove();
+                }
+            }
+
+            String get(String key, long ttlMillis, Loader loader) throws IOException, InterruptedException {
+                Entry entry;
+                boolean owner = false;
+                synchronized (this) {
+                    entry = entries.get(key);
+                    if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+                        entry = new Entry();
+                        entries.put(key, entry);
+                        evict();
+                        owner = true;
+                        misses++;
+                    } else if (entry.result.isDone()) {
+                        hits++;
+                    } else {
+                        coalesced++;
+                    }
+                }
+
+                if (owner) {
+                    try {
+                        String value = loader.load();
+                        entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+                        entry.result.complete(value);
+                        synchronized (this) {
+                            evict();
+                        }
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        synchronized (this) {
+                            entries.remove(key, entry);
+                        }
+                        entry.result.completeExceptionally(e);
+                        throw e;
+                    }
+                }
+
+                try {
+                    return entry.result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException io) throw new IOException(io.getMessage(), io);
+                    if (cause instanceof RuntimeException runtime) throw runtime;
+                    throw new IOException(cause.getMessage(), cause);
+                }
+            }
+
+            synchronized String statusJson() {
+                int computing = 0;
+                for (Entry entry : entries.values()) {
+                    if (!entry.result.isDone()) computing++;
+                }
+                return "{\"entries\": " + entries.size() + ", \"computing\": " + computing + ", \"hits\": " + hits
+                        + ", \"misses\": " + misses + ", \"coalesced\": " + coalesced + "}\n";
+            }
+
+            private static class Entry {
+                final CompletableFuture<String> result = new CompletableFuture<>();
+                volatile long expiresAt = Long.MAX_VALUE; // Until computed
+            }
+        }
+    }
+
+    // Build a GET request with the headers every Chess.com call uses
+    private static HttpRequest.Builder requestBuilder(String urlString) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(urlString))
+                .header("User-Agent", "ChessMoveExtractor/3.0 (Java 25)")
+                .header("Accept", "text/plain, application/json")
+                .timeout(java.time.Duration.ofSeconds(15))
+                .GET();
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            int gameCount = 0;
-            int filteredCount = 0;
+    // Sends requests on the shared httpClient at a pace Chess.com accepts. A
+    // token bucket spaces requests out; each 429 halves its rate and each
+    // success wins a little of it back, so it settles near the highest rate
+    // that is not throttled. 429 and 5xx responses are retried after the
+    // Retry-After delay when there is one, otherwise after an exponential
+    // backoff with full jitter. A Retry-After also holds back every other
+    // request. Retries come out of a budget shared by the whole run so a
+    // struggling server cannot stall it indefinitely.
+    static class RequestScheduler {
+        private static final long BASE_BACKOFF_MILLIS = 500;
+        private static final long MAX_BACKOFF_MILLIS = 30_000;
+        private static final long MAX_RETRY_AFTER_MILLIS = 120_000;
+
+        private final double maxRate;   // Requests per second
+        private final double minRate;
+        private final double burst;
+        private final int maxRetries;   // Per request
+        private final AtomicInteger retryBudget;
+
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil = 0;   // System.nanoTime() before which nothing is sent
+
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger throttled = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+
+        public RequestScheduler(double maxRate, double burst, int maxRetries, int retryBudget) {
+            if (!(maxRate > 0) || Double.isInfinite(maxRate)) {
+                throw new IllegalArgumentException("the request rate must be a positive number of requests per second, not " + maxRate);
+            }
+            this.maxRate = maxRate;
+            this.minRate = Math.min(maxRate, 0.5);
+            this.burst = Math.max(1, burst);
+            this.maxRetries = maxRetries;
+            this.retryBudget = new AtomicInteger(retryBudget);
+            this.rate = maxRate;
+            this.tokens = this.burst;
+        }
+
+        // -Dchess.http.rate=<requests/s> -Dchess.http.burst=<requests>
+        // -Dchess.http.retries=<per request> -Dchess.http.retryBudget=<per run>
+        // A rate or burst that is not a positive number falls back to its default
+        // here, so loading the class never fails; main rejects it first.
+        static RequestScheduler fromSystemProperties() {
+            double rate = positiveProperty("chess.http.rate", 10);
+            double burst = positiveProperty("chess.http.burst", FETCH_PARALLELISM);
+            return new RequestScheduler(Double.isNaN(rate) ? 10 : rate, Double.isNaN(burst) ? FETCH_PARALLELISM : burst,
+                    Integer.getInteger("chess.http.retries", 5), Integer.getInteger("chess.http.retryBudget", 50));
+        }
+
+        // Reject a rate or burst that is not a positive number
+        static void checkSystemProperties() {
+            if (Double.isNaN(positiveProperty("chess.http.rate", 10))) {
+                throw new IllegalArgumentException("-Dchess.http.rate must be a positive number of requests per second, not \""
+                        + System.getProperty("chess.http.rate") + "\"");
+            }
+            if (Double.isNaN(positiveProperty("chess.http.burst", FETCH_PARALLELISM))) {
+                throw new IllegalArgumentException("-Dchess.http.burst must be a positive number of requests, not \""
+                        + System.getProperty("chess.http.burst") + "\"");
+            }
+        }
+
+        // A property as a positive finite number, its default when unset, or NaN
+        private static double positiveProperty(String name, double defaultValue) {
+            String text = System.getProperty(name);
+            if (text == null) return defaultValue;
+            try {
+                double value = Double.parseDouble(text.trim());
+                return value > 0 && !Double.isInfinite(value) ? value : Double.NaN;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
 
-            for (String gameBlock : rawGameBlocks) {
-                gameBlock = gameBlock.trim();
-                if (gameBlock.isEmpty()) continue;
+        public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+                throws IOException, InterruptedException {
+            for (int attempt = 0; ; attempt++) {
+                acquire();
+                requests.incrementAndGet();
+
+                // Decide on a retry as soon as the status is known, so the body of a
+                // response that will be retried is discarded instead of handed out
+                boolean mayRetry = attempt < maxRetries;
+                boolean[] retry = {false};
+                HttpResponse<T> response = httpClient.send(request, info -> {
+                    if (mayRetry && isRetryable(info.statusCode()) && claimRetry()) {
+                        retry[0] = true;
+                        return HttpResponse.BodySubscribers.replacing(null);
+                    }
+                    return handler.apply(info);
+                });
+
+                int status = response.statusCode();
+                if (status == 429) {
+                    throttled.incrementAndGet();
+                    slowDown();
+                } else if (status < 500) {
+                    speedUp();
+                }
+                if (!retry[0]) return response;
+
+                retried.incrementAndGet();
+                long delay = retryAfterMillis(response);
+                if (delay >= 0) {
+                    pause(delay);
+                } else {
+                    long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+                    delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+                }
+                System.out.println("HTTP " + status + " for " + request.uri() + ", retrying in "
+                        + String.format("%.1f", delay / 1000.0) + " s (attempt " + (attempt + 2) + ")");
+                Thread.sleep(delay);
+            }
+        }
+
+        private static boolean isRetryable(int status) {
+            return status == 429 || status >= 500 && status <= 599;
+        }
+
+        private boolean claimRetry() {
+            return retryBudget.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+        }
+
+        // Take a token, waiting for the bucket to refill and for any Retry-After pause
+        private void acquire() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+                lastRefill = now;
+                tokens -= 1; // Reserve now; a negative balance is the queue ahead of us
+                waitNanos = Math.max(tokens < 0 ? (long) (-tokens / rate * 1e9) : 0, pausedUntil - now);
+            }
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            }
+        }
+
+        private synchronized void slowDown() {
+            rate = Math.max(minRate, rate / 2);
+        }
+
+        private synchronized void speedUp() {
+            rate = Math.min(maxRate, rate + maxRate / 20);
+        }
+
+        private synchronized void pause(long millis) {
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + millis * 1_000_000);
+        }
+
+        // Retry-After as delta-seconds or an HTTP date, or -1 when absent or unreadable
+        private static long retryAfterMillis(HttpResponse<?> response) {
+            Optional<String> header = response.headers().firstValue("Retry-After");
+            if (header.isEmpty()) return -1;
+            String value = header.get().trim();
+            try {
+                long millis;
+                if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+                    millis = Long.parseLong(value) * 1000;
+                } else {
+                    millis = java.time.ZonedDateTime.parse(value, java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME)
+                            .toInstant().toEpochMilli() - System.currentTimeMillis();
+                }
+                return Math.max(0, Math.min(MAX_RETRY_AFTER_MILLIS, millis));
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+
+        public int getRequestCount() { return requests.get(); }
+        public int getThrottledCount() { return throttled.get(); }
+        public int getRetryCount() { return retried.get(); }
+
+        // One line for the end of a run, or null when nothing was throttled or retried
+        public String summary() {
+            if (throttled.get() == 0 && retried.get() == 0) return null;
+            return "HTTP: " + requests.get() + " request(s), " + throttled.get() + " throttled (429), "
+                    + retried.get() + " retried, " + retryBudget.get() + " retries left in budget";
+        }
+    }
+
+    // Time and volume per pipeline stage for the whole run, summed over all
+    // threads (so parallel stages can add up to more than the wall time).
+    // Stages record laps with System.nanoTime(), which costs little next to
+    // the work they time, so the counters are always on. At the end of the run
+    // the JSON summary goes to the file named by -Dchess.metrics, or to
+    // standard output for -Dchess.metrics=-. Only the most recently read
+    // archives are listed (-Dchess.metrics.archives), so that --serve and
+    // --watch do not collect an entry for every archive they ever fetch.
+    static class PipelineMetrics {
+        private static final int MAX_ARCHIVES = Integer.getInteger("chess.metrics.archives", 1000);
+
+        static final int FETCH = 0;   // Waiting for archive bodies
+        static final int SPLIT = 1;   // Cutting the stream into game blocks
+        static final int HEADERS = 2; // Header lines and the values derived from them
+        static final int MOVES = 3;   // Cleaning and counting the move text
+        static final int FILTER = 4;  // Report filters, user color and rating
+        static final int STATS = 5;   // GameStats updates and merges
+        static final int WRITE = 6;   // Formatting games into the report file
+        private static final String[] STAGE_NAMES = {"fetch", "split", "headers", "moves", "filter", "stats", "write"};
+
+        private final long started = System.nanoTime();
+        private final LongAdder[] nanos = new LongAdder[STAGE_NAMES.length];
+        private final LongAdder[] counts = new LongAdder[STAGE_NAMES.length];
+        private final LongAdder bytes = new LongAdder(); // Of every archive, listed or not
+        private final Map<String, ArchiveMetric> archives = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArchiveMetric> eldest) {
+                return size() > MAX_ARCHIVES;
+            }
+        };
+
+        // Per archive: bytes read by the parser, time to fetch, and time the pipeline waited for it
+        static class ArchiveMetric {
+            final LongAdder bytes = new LongAdder();
+            volatile long fetchNanos = -1;
+            volatile long waitNanos = 0;
+        }
+
+        PipelineMetrics() {
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                nanos[i] = new LongAdder();
+                counts[i] = new LongAdder();
+            }
+        }
+
+        // Count one event of the stage that began at `since`; returns the current time for the next lap
+        long lap(int stage, long since) {
+            long now = System.nanoTime();
+            nanos[stage].add(now - since);
+            counts[stage].increment();
+            return now;
+        }
+
+        // Add time to a stage without counting an event
+        void addTime(int stage, long since) {
+            nanos[stage].add(System.nanoTime() - since);
+        }
+
+        private synchronized ArchiveMetric archive(String url) {
+            return archives.computeIfAbsent(url, key -> new ArchiveMetric());
+        }
+
+        void archiveFetched(String url, long since) {
+            archive(url).fetchNanos = System.nanoTime() - since;
+        }
+
+        // Record the wait for an archive body and count the bytes read from it
+        InputStream meterArchive(String url, InputStream in, long waitStarted) {
+            ArchiveMetric metric = archive(url);
+            metric.waitNanos = lap(FETCH, waitStarted) - waitStarted;
+            if (metric.fetchNanos < 0) metric.fetchNanos = metric.waitNanos;
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        metric.bytes.increment();
+                        bytes.increment();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        metric.bytes.add(n);
+                        bytes.add(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        synchronized String toJson() {
+            StringBuilder json = new StringBuilder("{\n");
+            double wallMillis = (System.nanoTime() - started) / 1e6;
+            long games = counts[SPLIT].sum();
+            json.append("  \"wallMillis\": ").append(String.format(Locale.ROOT, "%.1f", wallMillis)).append(",\n");
+            json.append("  \"games\": ").append(games).append(",\n");
+            json.append("  \"gamesAccepted\": ").append(counts[STATS].sum()).append(",\n");
+
+            json.append("  \"stages\": {\n");
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                json.append("    \"").append(STAGE_NAMES[i]).append("\": {\"count\": ").append(counts[i].sum())
+                        .append(", \"millis\": ").append(String.format(Locale.ROOT, "%.3f", nanos[i].sum() / 1e6));
+                if (i == FETCH) json.append(", \"bytes\": ").append(bytes.sum());
+                json.append(i + 1 < STAGE_NAMES.length ? "},\n" : "}\n");
+            }
+            json.append("  },\n");
+
+            json.append("  \"archives\": [");
+            int index = 0;
+            for (Map.Entry<String, ArchiveMetric> entry : archives.entrySet()) {
+                ArchiveMetric metric = entry.getValue();
+                json.append(index++ == 0 ? "\n" : ",\n")
+                        .append("    {\"url\": ").append(jsonString(entry.getKey()))
+                        .append(", \"bytes\": ").append(metric.bytes.sum())
+                        .append(", \"fetchMillis\": ").append(String.format(Locale.ROOT, "%.3f", Math.max(0, metric.fetchNanos) / 1e6))
+                        .append(", \"waitMillis\": ").append(String.format(Locale.ROOT, "%.3f", metric.waitNanos / 1e6))
+                        .append("}");
+            }
+            json.append(index > 0 ? "\n  ],\n" : "],\n");
+
+            json.append("  \"http\": {\"requests\": ").append(REQUEST_SCHEDULER.getRequestCount())
+                    .append(", \"throttled\": ").append(REQUEST_SCHEDULER.getThrottledCount())
+                    .append(", \"retried\": ").append(REQUEST_SCHEDULER.getRetryCount()).append("}\n");
+            return json.append("}\n").toString();
+        }
+
+        // Write the summary where -Dchess.metrics points, if anywhere
+        void writeSummary() {
+            String target = System.getProperty("chess.metrics", "");
+            if (target.isEmpty()) return;
+            String json = toJson();
+            if (target.equals("-")) {
+                System.out.print(json);
+                return;
+            }
+            try {
+                Files.writeString(Paths.get(target), json, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + target + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Prints a progress line at a fixed rate (-Dchess.progress.intervalMs,
+    // default 1000) from a background thread, instead of a console line per
+    // game. Nothing is printed for runs shorter than one interval.
+    static class ProgressReporter implements AutoCloseable {
+        private final GameProcessor processor;
+        private final ScheduledExecutorService timer;
+        private final long startedNanos = System.nanoTime();
+        private int lastReported = -1;
+        private volatile int archive = 0;
+        private volatile int archiveCount = 0;
+
+        ProgressReporter(GameProcessor processor) {
+            this.processor = processor;
+            long interval = Math.max(50, Long.getLong("chess.progress.intervalMs", 1000));
+            this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        private void report() {
+            int games = processor.getGameCount();
+            if (games == lastReported) return; // Waiting on a download, nothing new to say
+            lastReported = games;
+            double seconds = (System.nanoTime() - startedNanos) / 1e9;
+            System.out.printf("Processed %,d game(s), %,d added (%,.0f games/s)%s%n",
+                    games, processor.getFilteredCount(), games / seconds,
+                    archiveCount > 1 ? " | archive " + archive + " of " + archiveCount : "");
+        }
+
+        void setArchive(int archive, int archiveCount) {
+            this.archive = archive;
+            this.archiveCount = archiveCount;
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+        }
+    }
+
+    private static void printRequestSummary() {
+        String summary = REQUEST_SCHEDULER.summary();
+        if (summary != null) System.out.println(summary);
+    }
+
+    // Modes that bypass the interactive flow:
+    //   --batch <manifest>                         run many users in one JVM (-Dchess.batch.workers)
+    //   --query <username> <from> <to> [filter]    report on stored games only (-Dchess.store.dir)
+    //   --sync <username> <year> <month> [filter]  bring a report up to date with only the new games
+    //   --bench [games] [seed]                     run the benchmark suite on a synthetic corpus
+    //                                              (-Dchess.bench.warmup / -Dchess.bench.rounds)
+    //   --generate-pgn <games> <seed> <file>       write a synthetic Chess.com-style PGN archive
+    //   --openings <username> <from> <to> [line]   explore the openings of stored games after a line
+    //   --position <username> <fen>                list the stored games that reached a position
+    //   --serve [port]                             serve report statistics as JSON over HTTP
+    //   --watch <users file>                       keep the current-month reports of many users up to date
+    //   --perft [depth] [fen]                      verify the move generator against known node counts
+    //                                              (or count the nodes of one position)
+    private static void runToolMode(String[] args) {
+        try {
+            switch (args[0]) {
+                case "--batch":
+                    if (args.length < 2) {
+                        System.err.println("Usage: --batch <manifest>");
+                        return;
+                    }
+                    runBatch(Paths.get(args[1]));
+                    break;
+                case "--sync":
+                    if (args.length < 4) {
+                        System.err.println("Usage: --sync <username> <year> <month> [filter]");
+                        return;
+                    }
+                    runSync(args[1], args[2], args[3], args.length > 4 ? args[4] : "0");
+                    break;
+                case "--query":
+                    if (args.length < 4) {
+                        System.err.println("Usage: --query <username> <from YYYY[.MM[.DD]]> <to YYYY[.MM[.DD]]> [filter]");
+                        return;
+                    }
+                    runQuery(args[1], args[2], args[3], args.length > 4 ? args[4] : "0");
+                    break;
+                case "--openings":
+                    if (args.length < 4) {
+                        System.err.println("Usage: --openings <username> <from YYYY[.MM[.DD]]> <to YYYY[.MM[.DD]]> [SAN moves]");
+                        return;
+                    }
+                    runOpenings(args[1], args[2], args[3], String.join(" ", Arrays.asList(args).subList(4, args.length)));
+                    break;
+                case "--position":
+                    if (args.length < 3) {
+                        System.err.println("Usage: --position <username> <FEN>");
+                        return;
+                    }
+                    runPosition(args[1], String.join(" ", Arrays.asList(args).subList(2, args.length)));
+                    break;
+                case "--watch":
+                    if (args.length < 2) {
+                        System.err.println("Usage: --watch <users file>");
+                        return;
+                    }
+                    WatchDaemon.watch(Paths.get(args[1]));
+                    break;
+                case "--serve":
+                    StatsServer.serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                    break;
+                case "--bench":
+                    int games = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+                    long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+                    Benchmark.run(games, seed);
+                    break;
+                case "--generate-pgn":
+                    if (args.length < 4) {
+                        System.err.println("Usage: --generate-pgn <games> <seed> <file>");
+                        return;
+                    }
+                    SyntheticPgn.write(Paths.get(args[3]), SyntheticPgn.DEFAULT_USERNAME,
+                            Integer.parseInt(args[1]), Long.parseLong(args[2]));
+                    System.out.println("Wrote " + args[1] + " game(s) to " + args[3]);
+                    break;
+                case "--perft":
+                    int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+                    if (args.length > 2) {
+                        Perft.run(String.join(" ", Arrays.asList(args).subList(2, args.length)), depth);
+                    } else if (!Perft.run(depth)) {
+                        System.err.println("Perft suite failed");
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[0]);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted");
+        }
+        METRICS.writeSummary();
+    }
+
+    // Method to download PGN data from the web (monthly endpoint)
+    private static String fetchDataFromUrl(String urlString) throws IOException, InterruptedException {
+        HttpRequest request = requestBuilder(urlString).build();
+
+        HttpResponse<String> response = REQUEST_SCHEDULER.send(request, HttpResponse.BodyHandlers.ofString());
+
+        int status = response.statusCode();
+        if (status == 404) {
+            System.out.println("No games found at: " + urlString);
+            return "";
+        }
+        if (status != 200) {
+            throw new IOException("HTTP Error: " + status + " for URL: " + urlString);
+        }
+
+        return response.body();
+    }
+
+    // Method to open a streaming response for a PGN archive (monthly endpoint)
+    private static InputStream openArchiveStream(String urlString) throws IOException, InterruptedException {
+        if (ARCHIVE_CACHE != null) {
+            return ARCHIVE_CACHE.open(urlString);
+        }
+
+        HttpRequest request = requestBuilder(urlString).build();
+
+        HttpResponse<InputStream> response = REQUEST_SCHEDULER.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        int status = response.statusCode();
+        if (status != 200) {
+            response.body().close();
+        }
+        if (status == 404) {
+            System.out.println("No games found at: " + urlString);
+            return InputStream.nullInputStream();
+        }
+        if (status != 200) {
+            throw new IOException("HTTP Error: " + status + " for URL: " + urlString);
+        }
+
+        return response.body();
+    }
+
+    // Persistent cache of archive bodies keyed by URL. An archive whose month had
+    // already ended when it was cached can never change, so it is served from disk
+    // without a request. Anything else is revalidated with a conditional GET and a
+    // 304 reuses the cached body. Once the cache outgrows its size cap the least
+    // recently used archives are evicted.
+    static class ArchiveCache {
+        private final Path directory;
+        private final long maxBytes;
+
+        public ArchiveCache(Path directory, long maxBytes) throws IOException {
+            this.directory = Files.createDirectories(directory);
+            this.maxBytes = maxBytes;
+        }
+
+        // -Dchess.cache.dir=<dir> (empty disables), -Dchess.cache.maxMB=<size cap>
+        static ArchiveCache fromSystemProperties() {
+            String dir = System.getProperty("chess.cache.dir",
+                    Paths.get(System.getProperty("user.home"), ".chessextractor", "cache").toString());
+            if (dir.isEmpty()) return null;
+            try {
+                return new ArchiveCache(Paths.get(dir), Long.getLong("chess.cache.maxMB", 512) * 1024 * 1024);
+            } catch (IOException e) {
+                System.err.println("Archive cache disabled: " + e.getMessage());
+                return null;
+            }
+        }
+
+        // Returns the archive body, from disk when possible
+        public InputStream open(String urlString) throws IOException, InterruptedException {
+            String key = cacheKey(urlString);
+            Path body = directory.resolve(key + ".pgn");
+            Path metaFile = directory.resolve(key + ".meta");
+            Properties meta = readMeta(metaFile);
+            boolean cached = meta != null && Files.exists(body);
+
+            if (cached && isFinal(urlString, meta)) {
+                try {
+                    return openCached(body);
+                } catch (NoSuchFileException e) {
+                    cached = false; // Evicted by another download in the meantime
+                }
+            }
+
+            HttpRequest.Builder builder = requestBuilder(urlString);
+            if (cached) {
+                String etag = meta.getProperty("etag");
+                String lastModified = meta.getProperty("lastModified");
+                if (etag != null) builder.header("If-None-Match", etag);
+                if (lastModified != null) builder.header("If-Modified-Since", lastModified);
+            }
+
+            Path part = Files.createTempFile(directory, key, ".part");
+            try {
+                HttpResponse<Path> response = REQUEST_SCHEDULER.send(builder.build(), info -> info.statusCode() == 200
+                        ? HttpResponse.BodySubscribers.ofFile(part)
+                        : HttpResponse.BodySubscribers.replacing(part));
+
+                int status = response.statusCode();
+                if (status == 304 && cached) {
+                    meta.setProperty("fetchedAt", String.valueOf(System.currentTimeMillis()));
+                    try {
+                        InputStream in = openCached(body);
+                        writeMeta(metaFile, meta);
+                        return in;
+                    } catch (NoSuchFileException e) {
+                        // Evicted while revalidating, so fetch it again without conditions
+                        Files.deleteIfExists(metaFile);
+                        return open(urlString);
+                    }
+                }
+                if (status == 404) {
+                    System.out.println("No games found at: " + urlString);
+                    return InputStream.nullInputStream();
+                }
+                if (status != 200) {
+                    throw new IOException("HTTP Error: " + status + " for URL: " + urlString);
+                }
+
+                Properties fresh = new Properties();
+                fresh.setProperty("url", urlString);
+                fresh.setProperty("fetchedAt", String.valueOf(System.currentTimeMillis()));
+                response.headers().firstValue("ETag").ifPresent(v -> fresh.setProperty("etag", v));
+                response.headers().firstValue("Last-Modified").ifPresent(v -> fresh.setProperty("lastModified", v));
+
+                // Open before publishing so a concurrent eviction cannot pull the file away
+                InputStream in = new BufferedInputStream(Files.newInputStream(part), 64 * 1024);
+                Files.move(part, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeMeta(metaFile, fresh);
+                evictIfNeeded(body);
+                return in;
+            } finally {
+                Files.deleteIfExists(part);
+            }
+        }
+
+        // A monthly archive is final once it was fetched after its month ended (UTC)
+        private static boolean isFinal(String urlString, Properties meta) {
+            try {
+                return monthEnded(archiveMonth(urlString), Long.parseLong(meta.getProperty("fetchedAt", "0")));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        // Reading an archive counts as a use for LRU eviction
+        private InputStream openCached(Path body) throws IOException {
+            Files.setLastModifiedTime(body, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
+            return new BufferedInputStream(Files.newInputStream(body), 64 * 1024);
+        }
+
+        private synchronized void evictIfNeeded(Path justWritten) throws IOException {
+            List<Path> bodies = new ArrayList<>();
+            long totalBytes = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.pgn")) {
+                for (Path path : stream) {
+                    bodies.add(path);
+                    totalBytes += Files.size(path);
+                }
+            }
+            if (totalBytes <= maxBytes) return;
+
+            Map<Path, Long> lastUsed = new HashMap<>();
+            for (Path path : bodies) {
+                lastUsed.put(path, Files.getLastModifiedTime(path).toMillis());
+            }
+            bodies.sort(Comparator.comparingLong(lastUsed::get));
+
+            for (Path path : bodies) {
+                if (totalBytes <= maxBytes) break;
+                if (path.equals(justWritten)) continue;
+                totalBytes -= Files.size(path);
+                String name = path.getFileName().toString();
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(directory.resolve(name.substring(0, name.length() - 4) + ".meta"));
+            }
+        }
+
+        private static Properties readMeta(Path metaFile) {
+            if (!Files.exists(metaFile)) return null;
+            Properties meta = new Properties();
+            try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+                meta.load(reader);
+                return meta;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static void writeMeta(Path metaFile, Properties meta) throws IOException {
+            try (Writer writer = Files.newBufferedWriter(metaFile, StandardCharsets.UTF_8)) {
+                meta.store(writer, null);
+            }
+        }
+
+        private static String cacheKey(String urlString) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(urlString.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    hex.append(String.format("%02x", digest[i]));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Month of a ".../games/<year>/<month>[/pgn]" archive URL, or null if it has none
+    private static YearMonth archiveMonth(String urlString) {
+        try {
+            String path = URI.create(urlString).getPath();
+            if (path.endsWith("/pgn")) path = path.substring(0, path.length() - 4);
+            int monthSlash = path.lastIndexOf('/');
+            int yearSlash = path.lastIndexOf('/', monthSlash - 1);
+            int year = Integer.parseInt(path.substring(yearSlash + 1, monthSlash));
+            int month = Integer.parseInt(path.substring(monthSlash + 1));
+            return YearMonth.of(year, month);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // True when the archive month had ended (UTC) at the given time, so no more games can appear in it
+    private static boolean monthEnded(YearMonth month, long epochMillis) {
+        if (month == null) return false;
+        Instant monthEnd = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        return epochMillis >= monthEnd.toEpochMilli();
+    }
+
+    // Persistent columnar copy of every parsed game, kept per user with one
+    // segment per monthly archive, so reports over any date range can be
+    // recomputed without downloading or parsing PGN again. A segment is three
+    // files that are read through memory-mapped channels:
+    //   <yyyy-mm>.cols   header, string dictionary, then one int column per field
+    //   <yyyy-mm>.moves  the move text of every game back to back (UTF-8): cleaned
+    //                    when a report decoded the game, otherwise as in the archive;
+    //                    mapped only once a game's moves are first read
+    //   <yyyy-mm>.pos    the PositionIndex of its games, built while they are
+    //                    stored; games stored undecoded are added on first use
+    // A segment is replaced as a whole whenever its archive is processed again,
+    // by renaming new files over the old ones, so an open segment keeps reading
+    // the copy it mapped.
+    static class GameStore {
+        private static final int MAGIC = 0x434D5853; // "CMXS"
+        private static final int VERSION = 3;
+        private static final int VERSION_2 = 2;      // Read as well: no SET_UP column
+        private static final int VERSION_1 = 1;      // Read as well: no TIME and no SET_UP column
+
+        // Columns in file order
+        static final int DATE = 0;                   // dateKey of the game
+        static final int USER_RATING = 1;            // 0 when unknown
+        static final int OPPONENT_RATING = 2;        // 0 when unknown
+        static final int RESULT = 3;                 // index into RESULT_LABELS
+        static final int COLOR = 4;                  // index into COLORS
+        static final int TIME_CONTROL = 5;           // dictionary index of the raw time control
+        static final int FORMATTED_TIME_CONTROL = 6; // dictionary index
+        static final int GAME_TYPE = 7;              // dictionary index
+        static final int OPPONENT = 8;               // dictionary index of the opponent's name
+        static final int MOVE_COUNT = 9;             // UNDECODED when the game was stored undecoded
+        static final int TIME = 10;                  // minutes after midnight UTC, -1 when unknown
+        static final int SET_UP = 11;                // 1 when the game started from a FEN, 0 otherwise
+        static final int MOVE_OFFSET = 12;           // size + 1 byte offsets into the .moves file
+        private static final int COLUMNS = 13;
+
+        static final int UNDECODED = -1;
+
+        static final String[] RESULT_LABELS = {"(won)", "(lost)", "(draw)", "(?)"};
+        static final String[] COLORS = {"White", "Black", "Unknown"};
+
+        // The whole file mapped read-only; the mapping outlives the channel
+        static MappedByteBuffer map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        static boolean isDictionary(int column) {
+            return column == TIME_CONTROL || column == FORMATTED_TIME_CONTROL || column == GAME_TYPE || column == OPPONENT;
+        }
+
+        private final Path directory;
+
+        public GameStore(Path directory) throws IOException {
+            this.directory = Files.createDirectories(directory);
+        }
+
+        // -Dchess.store.dir=<dir> (empty disables)
+        static GameStore fromSystemProperties() {
+            String dir = System.getProperty("chess.store.dir",
+                    Paths.get(System.getProperty("user.home"), ".chessextractor", "store").toString());
+            if (dir.isEmpty()) return null;
+            try {
+                return new GameStore(Paths.get(dir));
+            } catch (IOException e) {
+                System.err.println("Game store disabled: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private Path userDirectory(String username) {
+            return directory.resolve(username.trim().toLowerCase(Locale.ROOT));
+        }
+
+        // The user's committed segment for one month, or null
+        public Segment segment(String username, YearMonth month) throws IOException {
+            return Segment.open(userDirectory(username), month.toString(), month);
+        }
+
+        // Games in the user's committed segment for one month, read from its
+        // header alone; -1 when there is no such segment
+        public int storedGames(String username, YearMonth month) throws IOException {
+            Path userDir = userDirectory(username);
+            String name = month.toString();
+            ByteBuffer header = ByteBuffer.allocate(20);
+            try (FileChannel channel = FileChannel.open(userDir.resolve(name + ".cols"), StandardOpenOption.READ)) {
+                while (header.hasRemaining() && channel.read(header) >= 0) { }
+                if (header.hasRemaining() || header.getInt(0) != MAGIC) return -1;
+                int version = header.getInt(4);
+                if (version != VERSION && version != VERSION_2 && version != VERSION_1) return -1;
+                if (header.getInt(12) != Files.size(userDir.resolve(name + ".moves"))) return -1;
+                return header.getInt(8);
+            } catch (NoSuchFileException e) {
+                return -1;
+            }
+        }
+
+        // Collects the games of one archive, or null when the URL names no month
+        public SegmentWriter newSegment(String username, String pgnUrl) {
+            YearMonth month = archiveMonth(pgnUrl);
+            return month == null ? null : new SegmentWriter(userDirectory(username), month, username);
+        }
+
+        // The user's committed segments overlapping [fromMonth, toMonth] (yyyymm), in month order
+        public List<Segment> segments(String username, int fromMonth, int toMonth) throws IOException {
+            Path userDir = userDirectory(username);
+            List<Segment> segments = new ArrayList<>();
+            if (!Files.isDirectory(userDir)) return segments;
+
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(userDir, "*.cols")) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    names.add(name.substring(0, name.length() - ".cols".length()));
+                }
+            }
+            Collections.sort(names);
+
+            for (String name : names) {
+                YearMonth month;
+                try {
+                    month = YearMonth.parse(name);
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                int key = month.getYear() * 100 + month.getMonthValue();
+                if (key < fromMonth || key > toMonth) continue;
+                Segment segment = Segment.open(userDir, name, month);
+                if (segment != null) segments.add(segment);
+            }
+            return segments;
+        }
+
+        // Games of one archive in archive order. Nothing is visible in the
+        // store until commit() publishes both files.
+        static class SegmentWriter {
+            private final Path userDir;
+            private final YearMonth month;
+            private final String username;
+            private final IntList[] columns = new IntList[COLUMNS];
+            private final Map<String, Integer> dictionary = new HashMap<>();
+            private final List<String> strings = new ArrayList<>();
+            private final ByteArrayOutputStream moves = new ByteArrayOutputStream();
+            private final PositionIndex.Builder positions = new PositionIndex.Builder();
+            private int completeRows = 0; // Leading rows whose games are all in the index
+
+            SegmentWriter(Path userDir, YearMonth month, String username) {
+                this.userDir = userDir;
+                this.month = month;
+                this.username = username;
+                for (int i = 0; i < COLUMNS; i++) {
+                    columns[i] = new IntList(256);
+                }
+                columns[MOVE_OFFSET].add(0);
+            }
+
+            // Games no report kept are stored without decoding their move text;
+            // the segment counts their moves and indexes their positions when first read
+            public void add(ProcessedGame game) {
+                GameData data = game.data;
+                int row = columns[DATE].size();
+                if (data.isDecoded()) {
+                    positions.addGame(row, game.positions != null ? game.positions : PositionIndex.positionsOf(game));
+                    if (completeRows == row) completeRows++;
+                }
+                columns[DATE].add(game.getDateKey());
+                columns[USER_RATING].add(game.userRating);
+                columns[OPPONENT_RATING].add(game.getOpponentRating());
+                columns[RESULT].add(game.getResult());
+                columns[COLOR].add(game.getColor());
+                columns[TIME_CONTROL].add(intern(data.getTimeControlRaw()));
+                columns[FORMATTED_TIME_CONTROL].add(intern(data.getFormattedTimeControl()));
+                columns[GAME_TYPE].add(intern(data.getGameType()));
+                columns[OPPONENT].add(intern(game.getOpponent()));
+                columns[MOVE_COUNT].add(data.isDecoded() ? data.getMoveCount() : UNDECODED);
+                columns[TIME].add(data.getTimeOfDay());
+                columns[SET_UP].add(data.isStandardStart() ? 0 : 1);
+                String moveText = data.isDecoded() ? data.getMoves() : data.getMoveSection();
+                moves.writeBytes(moveText.getBytes(StandardCharsets.UTF_8));
+                columns[MOVE_OFFSET].add(moves.size());
+            }
+
+            // Start with the first rows of an earlier copy of the same archive
+            public void copyRows(Segment stored, int rows) throws IOException {
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < MOVE_OFFSET; column++) {
+                        columns[column].add(isDictionary(column)
+                                ? intern(stored.getString(column, row))
+                                : stored.read(column, row));
+                    }
+                    columns[MOVE_OFFSET].add(stored.get(MOVE_OFFSET, row + 1));
+                }
+                byte[] bytes = new byte[stored.get(MOVE_OFFSET, rows)];
+                stored.moves().get(0, bytes);
+                moves.writeBytes(bytes);
+
+                // Past the rows its index covers in full, an index holds the decoded games only
+                PositionIndex storedPositions = stored.positions(false);
+                if (storedPositions != null) {
+                    positions.copy(storedPositions, rows);
+                    completeRows = Math.min(storedPositions.getCompleteRows(), rows);
+                }
+                for (int row = completeRows; row < rows; row++) {
+                    if (stored.read(MOVE_COUNT, row) == UNDECODED) continue;
+                    if (storedPositions == null) positions.addGame(row, stored.positionsOf(row));
+                    if (completeRows == row) completeRows++;
+                }
+            }
+
+            private int intern(String value) {
+                Integer index = dictionary.get(value);
+                if (index == null) {
+                    index = strings.size();
+                    dictionary.put(value, index);
+                    strings.add(value);
+                }
+                return index;
+            }
+
+            // Publish the segment, replacing an older copy of the same archive.
+            // A store that cannot be written never fails the report itself.
+            public void commit() {
+                String name = month.toString();
+                Path movesPart = null;
+                Path positionsPart = null;
+                Path colsPart = null;
+                try {
+                    Files.createDirectories(userDir);
+                    movesPart = Files.createTempFile(userDir, name, ".part");
+                    positionsPart = Files.createTempFile(userDir, name, ".part");
+                    colsPart = Files.createTempFile(userDir, name, ".part");
+                    Files.write(movesPart, moves.toByteArray());
+
+                    int size = columns[DATE].size();
+                    positions.write(positionsPart, size, moves.size(), completeRows);
+                    try (DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(colsPart), 64 * 1024))) {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeInt(size);
+                        out.writeInt(moves.size());
+                        out.writeInt(strings.size());
+                        for (String value : strings) {
+                            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                        }
+                        for (IntList column : columns) {
+                            for (int row = 0; row < column.size(); row++) {
+                                out.writeInt(column.get(row));
+                            }
+                        }
+                    }
+
+                    // The .cols file goes last; it and the index record the .moves length they belong to
+                    Files.move(movesPart, userDir.resolve(name + ".moves"),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Files.move(positionsPart, userDir.resolve(name + ".pos"),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Files.move(colsPart, userDir.resolve(name + ".cols"),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    System.err.println("Could not update game store for " + username + " " + name + ": " + e.getMessage());
+                } finally {
+                    try {
+                        if (movesPart != null) Files.deleteIfExists(movesPart);
+                        if (positionsPart != null) Files.deleteIfExists(positionsPart);
+                        if (colsPart != null) Files.deleteIfExists(colsPart);
+                    } catch (IOException ignored) {
+                        // Leftover .part files are harmless
+                    }
+                }
+            }
+        }
+
+        // Read-only view of one committed segment
+        static class Segment {
+            private final Path positionsFile;
+            private final Path movesFile;
+            private final YearMonth month;
+            private final MappedByteBuffer columns;
+            private final int movesLength;
+            private MappedByteBuffer moves; // Mapped when a game's moves are first read
+            private final String[] strings;
+            private final int size;
+            private final int columnsStart;
+            private final int version;
+            private int[] moveCounts; // Of the rows stored undecoded, counted when first read
+
+            private Segment(Path positionsFile, Path movesFile, YearMonth month, MappedByteBuffer columns, int movesLength,
+                            String[] strings, int size, int columnsStart, int version) {
+                this.positionsFile = positionsFile;
+                this.movesFile = movesFile;
+                this.month = month;
+                this.columns = columns;
+                this.movesLength = movesLength;
+                this.strings = strings;
+                this.size = size;
+                this.columnsStart = columnsStart;
+                this.version = version;
+            }
+
+            // Read a segment, or return null when it is missing, foreign or half-written
+            static Segment open(Path userDir, String name, YearMonth month) throws IOException {
+                Path movesFile = userDir.resolve(name + ".moves");
+                MappedByteBuffer columns;
+                long movesLength;
+                try {
+                    columns = map(userDir.resolve(name + ".cols"));
+                    movesLength = Files.size(movesFile);
+                } catch (NoSuchFileException e) {
+                    return null;
+                }
+                if (columns.limit() < 20 || columns.getInt(0) != MAGIC) return null;
+                int version = columns.getInt(4);
+                if (version != VERSION && version != VERSION_2 && version != VERSION_1) return null;
+                int columnCount = COLUMNS - (VERSION - version);
+                int size = columns.getInt(8);
+                if (columns.getInt(12) != movesLength) return null;
+
+                String[] strings = new String[columns.getInt(16)];
+                int position = 20;
+                for (int i = 0; i < strings.length; i++) {
+                    byte[] bytes = new byte[columns.getInt(position)];
+                    columns.get(position + 4, bytes);
+                    strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                    position += 4 + bytes.length;
+                }
+                if (columns.limit() != position + ((long) columnCount * size + 1) * 4) return null;
+                return new Segment(userDir.resolve(name + ".pos"), movesFile, month, columns, (int) movesLength, strings,
+                        size, position, version);
+            }
+
+            // The .moves file, mapped on first use; reports over the columns alone never map it
+            MappedByteBuffer moves() {
+                if (moves == null) {
+                    try {
+                        moves = map(movesFile);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot read " + movesFile, e);
+                    }
+                }
+                return moves;
+            }
+
+
+            public YearMonth getMonth() { return month; }
+            public int size() { return size; }
+
+            // The position index of the segment, or null when there is none for this
+            // copy of it. With `build` set it is completed first: the games stored
+            // undecoded are added to it, or all games when it is missing or was
+            // written by an older version.
+            public PositionIndex positions(boolean build) throws IOException {
+                PositionIndex index = PositionIndex.open(positionsFile, size, movesLength);
+                if (!build || index != null && index.getCompleteRows() == size) return index;
+
+                PositionIndex.Builder builder = new PositionIndex.Builder();
+                int from = 0;
+                if (index != null) {
+                    builder.copy(index, size);
+                    from = index.getCompleteRows();
+                }
+                for (int row = from; row < size; row++) {
+                    if (index == null || read(MOVE_COUNT, row) == UNDECODED) builder.addGame(row, positionsOf(row));
+                }
+                Path part = Files.createTempFile(positionsFile.getParent(), month.toString(), ".part");
+                try {
+                    builder.write(part, size, movesLength, size);
+                    Files.move(part, positionsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(part);
+                }
+                return PositionIndex.open(positionsFile, size, movesLength);
+            }
+
+            public int get(int column, int row) {
+                int value = read(column, row);
+                return column == MOVE_COUNT && value == UNDECODED ? countMoves(row) : value;
+            }
+
+            // A column value as stored
+            int read(int column, int row) {
+                if (version != VERSION) {
+                    // Older versions have no SET_UP (version 1 no TIME either); the
+                    // move offsets follow the last column they have
+                    if (column == SET_UP) return 0;
+                    if (column == TIME && version == VERSION_1) return -1;
+                    if (column == MOVE_OFFSET) column -= VERSION - version;
+                }
+                // In bounds, and so below 2 GB, once open() has checked the file length
+                return columns.getInt((int) (columnsStart + ((long) column * size + row) * 4));
+            }
+
+            private int countMoves(int row) {
+                if (moveCounts == null) {
+                    moveCounts = new int[size];
+                    Arrays.fill(moveCounts, UNDECODED);
+                }
+                if (moveCounts[row] == UNDECODED) {
+                    moveCounts[row] = MOVE_SCANNER.get().scan(moveText(row)) / 2;
+                }
+                return moveCounts[row];
+            }
+
+            // Position hashes of one stored game, none for a game set up from a FEN
+            long[] positionsOf(int row) {
+                return get(SET_UP, row) == 0 ? PositionIndex.positionsOf(moveText(row)) : PositionIndex.NO_POSITIONS;
+            }
+
+            // Value of a dictionary column
+            public String getString(int column, int row) {
+                return strings[get(column, row)];
+            }
+
+            // Add the first `rows` games to the statistics, keeping those dated within
+            // [fromDate, toDate] (undated games always count) that pass the filter.
+            // Opponents are numbered by `players`, each once per segment.
+            public void addTo(GameStats stats, int rows, int fromDate, int toDate, GameFilter filter,
+                              PlayerDictionary players) {
+                Row cursor = new Row(players);
+                for (int row = 0; row < rows; row++) {
+                    int date = get(DATE, row);
+                    if (date > 0 && (date < fromDate || date > toDate)) continue;
+                    cursor.moveTo(row);
+                    if (filter.test(cursor)) stats.addGame(cursor);
+                }
+            }
+
+            // Move text of one stored game read straight from the mapped file (it
+            // is ASCII apart from any comments). The view is shared, so it is only valid until the next call.
+            CharSequence moveText(int row) {
+                moveText.moveTo(row);
+                return moveText;
+            }
+
+            private final MoveText moveText = new MoveText();
+            private final MoveAnnotations annotations = new MoveAnnotations();
+
+            private class MoveText implements CharSequence {
+                private int row;
+                private int start;
+                private int length;
+
+                void moveTo(int row) {
+                    this.row = row;
+                    start = get(MOVE_OFFSET, row);
+                    length = get(MOVE_OFFSET, row + 1) - start;
+                }
+
+                @Override public int length() { return length; }
+                @Override public char charAt(int index) { return (char) (moves().get(start + index) & 0xFF); }
+                @Override public CharSequence subSequence(int from, int to) { return toString().subSequence(from, to); }
+                @Override public String toString() { return getMoves(row); }
+            }
+
+            // View of one stored game, moved from row to row without allocating.
+            // Annotations are read from the move text when first asked for.
+            private class Row implements GameRecord {
+                private final PlayerDictionary players;
+                private final int[] playerIds = new int[strings.length]; // By dictionary index: id + 1, 0 until interned
+                private int row;
+                private int annotatedRow = -1;
+
+                Row(PlayerDictionary players) {
+                    this.players = players;
+                }
+
+                void moveTo(int row) { this.row = row; }
+
+                @Override
+                public int getOpponentId() {
+                    if (getColor() > 1) return -1;
+                    int index = get(OPPONENT, row);
+                    if (playerIds[index] == 0) playerIds[index] = players.intern(strings[index]) + 1;
+                    return playerIds[index] - 1;
+                }
+
+                @Override public String getTimeControl() { return getString(TIME_CONTROL, row); }
+                @Override public String getGameType() { return getString(GAME_TYPE, row); }
+                @Override public int getColor() { return get(COLOR, row); }
+                @Override public int getResult() { return get(RESULT, row); }
+                @Override public int getDateKey() { return get(DATE, row); }
+                @Override public int getUserRating() { return get(USER_RATING, row); }
+                @Override public int getOpponentRating() { return get(OPPONENT_RATING, row); }
+                @Override public String getOpponent() { return getString(OPPONENT, row); }
+                @Override public int getMoveCount() { return get(MOVE_COUNT, row); }
+                @Override public int getTimeOfDay() { return get(TIME, row); }
+                @Override public CharSequence getMoveText() { return moveText(row); }
+                @Override public int[] getClocks() { return annotations().clocks(); }
+                @Override public short[] getEvals() { return annotations().evals(); }
+                @Override public int getAnnotatedPlies() { return annotations().getPlies(); }
+                @Override public boolean isStandardStart() { return get(SET_UP, row) == 0; }
+
+                private MoveAnnotations annotations() {
+                    if (annotatedRow != row) {
+                        annotations.read(moveText(row));
+                        annotatedRow = row;
+                    }
+                    return annotations;
+                }
+            }
+
+            public String getMoves(int row) {
+                int start = get(MOVE_OFFSET, row);
+                byte[] bytes = new byte[get(MOVE_OFFSET, row + 1) - start];
+                moves().get(start, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    // Inverted index from position hash to the games of one store segment that
+    // reached the position, kept next to the segment as <yyyy-mm>.pos and read
+    // through a memory-mapped channel:
+    //   header   magic, version, segment rows, .moves length, complete rows, entry count
+    //   hashes   one long per entry, sorted
+    //   refs     one int per entry in the same order: row << PLY_BITS | ply
+    // The header ties the index to the exact segment it was built from. A game
+    // that passes through a position more than once is listed at its first ply;
+    // games set up from a FEN and games whose moves do not replay are left out.
+    // Every game of the first `complete rows` rows is indexed; past them only the
+    // games that were decoded when the segment was written.
+    static class PositionIndex {
+        private static final int MAGIC = 0x434D5850; // "CMXP"
+        private static final int VERSION = 3;        // Older indexes are rebuilt: version 1 kept partly replayed
+                                                     // games, version 2 has no complete rows
+        private static final int HEADER_BYTES = 24;
+        static final int PLY_BITS = 11;
+        static final int MAX_PLY = (1 << PLY_BITS) - 1;     // Later plies are not indexed
+        static final int MAX_ROWS = 1 << (31 - PLY_BITS);   // Games per monthly segment
+
+        private static final ThreadLocal<HashRecorder> RECORDER = ThreadLocal.withInitial(HashRecorder::new);
+
+        static final long[] NO_POSITIONS = new long[0];
+
+        // Hashes of the positions of a game from the standard start, or none when
+        // one of its moves does not replay
+        static long[] positionsOf(CharSequence moveText) {
+            return RECORDER.get().record(moveText);
+        }
+
+        static long[] positionsOf(GameRecord game) {
+            return game.isStandardStart() ? positionsOf(game.getMoveText()) : NO_POSITIONS;
+        }
+
+        private final MappedByteBuffer buffer;
+        private final int completeRows;
+        private final int size;
+
+        private PositionIndex(MappedByteBuffer buffer, int completeRows, int size) {
+            this.buffer = buffer;
+            this.completeRows = completeRows;
+            this.size = size;
+        }
+
+        // Read an index, or return null when it is missing or belongs to another copy of the segment
+        static PositionIndex open(Path file, int rows, int movesLength) throws IOException {
+            MappedByteBuffer buffer;
+            try {
+                buffer = GameStore.map(file);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != rows || buffer.getInt(12) != movesLength) {
+                return null;
+            }
+            int size = buffer.getInt(20);
+            if (buffer.limit() != HEADER_BYTES + (long) size * 12) return null;
+            return new PositionIndex(buffer, buffer.getInt(16), size);
+        }
+
+        public int size() { return size; }
+        public int getCompleteRows() { return completeRows; }
+        public long getHash(int entry) { return buffer.getLong((int) (HEADER_BYTES + (long) entry * 8)); }
+        public int getRow(int entry) { return getRef(entry) >>> PLY_BITS; }
+        public int getPly(int entry) { return getRef(entry) & MAX_PLY; }
+
+        private int getRef(int entry) {
+            return buffer.getInt((int) (HEADER_BYTES + (long) size * 8 + (long) entry * 4));
+        }
+
+        // First entry of a hash, or -1 when no game reached the position
+        public int first(long hash) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getHash(middle) < hash) low = middle + 1;
+                else high = middle;
+            }
+            return low < size && getHash(low) == hash ? low : -1;
+        }
+
+        // Collects the entries of a segment while it is written
+        static class Builder {
+            private long[] hashes = new long[4096];
+            private int[] refs = new int[4096];
+            private int size = 0;
+
+            void addGame(int row, long[] positions) {
+                if (row >= MAX_ROWS) return;
+                int plies = Math.min(positions.length, MAX_PLY + 1);
+                for (int ply = 0; ply < plies; ply++) {
+                    add(positions[ply], row << PLY_BITS | ply);
+                }
+            }
+
+            // The entries of the first `rows` games of an earlier index of the segment
+            void copy(PositionIndex stored, int rows) {
+                for (int entry = 0; entry < stored.size(); entry++) {
+                    if (stored.getRow(entry) < rows) add(stored.getHash(entry), stored.getRef(entry));
+                }
+            }
+
+            private void add(long hash, int ref) {
+                if (size == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                    refs = Arrays.copyOf(refs, size * 2);
+                }
+                hashes[size] = hash;
+                refs[size++] = ref;
+            }
+
+            // Sort, drop repeated visits and write the index for a segment of `rows` games
+            void write(Path file, int rows, int movesLength, int completeRows) throws IOException {
+                sortByHash();
+                // Copied and added entries arrive in any row order; the games of one
+                // position are listed by row, each at its first ply
+                for (int start = 0, end; start < size; start = end) {
+                    end = start + 1;
+                    while (end < size && hashes[end] == hashes[start]) end++;
+                    if (end - start > 1) Arrays.sort(refs, start, end);
+                }
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    if (count > 0 && hashes[count - 1] == hashes[i] && refs[count - 1] >>> PLY_BITS == refs[i] >>> PLY_BITS) continue;
+                    hashes[count] = hashes[i];
+                    refs[count++] = refs[i];
+                }
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(rows);
+                    out.writeInt(movesLength);
+                    out.writeInt(completeRows);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) out.writeLong(hashes[i]);
+                    for (int i = 0; i < count; i++) out.writeInt(refs[i]);
+                }
+            }
+
+            // Stable LSD radix sort on the hash, 16 bits a pass
+            private void sortByHash() {
+                long[] keys = hashes;
+                int[] values = refs;
+                long[] keysOut = new long[size];
+                int[] valuesOut = new int[size];
+                int[] counts = new int[1 << 16];
+                for (int shift = 0; shift < 64; shift += 16) {
+                    Arrays.fill(counts, 0);
+                    for (int i = 0; i < size; i++) {
+                        counts[digit(keys[i], shift)]++;
+                    }
+                    int position = 0;
+                    for (int digit = 0; digit < counts.length; digit++) {
+                        int count = counts[digit];
+                        counts[digit] = position;
+                        position += count;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        int target = counts[digit(keys[i], shift)]++;
+                        keysOut[target] = keys[i];
+                        valuesOut[target] = values[i];
+                    }
+                    long[] swapKeys = keys;
+                    keys = keysOut;
+                    keysOut = swapKeys;
+                    int[] swapValues = values;
+                    values = valuesOut;
+                    valuesOut = swapValues;
+                }
+                hashes = keys;
+                refs = values;
+            }
+
+            // Digits of the hash read as signed, so the order matches getHash comparisons
+            private static int digit(long key, int shift) {
+                int digit = (int) (key >>> shift) & 0xFFFF;
+                return shift == 48 ? digit ^ 0x8000 : digit;
+            }
+        }
+
+        // Replays one game at a time into a reusable hash buffer
+        static class HashRecorder implements GameReplayer.PositionVisitor {
+            private final GameReplayer replayer = new GameReplayer();
+            private long[] hashes = new long[256];
+            private int count;
+
+            long[] record(CharSequence moveText) {
+                count = 0;
+                if (!replayer.replay(moveText, this)) return NO_POSITIONS;
+                return Arrays.copyOf(hashes, count);
+            }
+
+            @Override
+            public boolean position(int ply, Board board) {
+                if (count == hashes.length) hashes = Arrays.copyOf(hashes, count * 2);
+                hashes[count++] = board.getHash();
+                return ply < MAX_PLY;
+            }
+        }
+    }
+
+    // Method to fetch the annual archive list and return the monthly PGN URLs in order
+    private static List<String> fetchAndParseAnnualGames(String urlString, String username) throws IOException, InterruptedException {
+        System.out.println("Fetching annual game archives...");
+        List<String> pgnUrls = new ArrayList<>();
+        
+        try {
+            // First, fetch the JSON that contains monthly archive URLs
+            String jsonResponse = fetchDataFromUrl(urlString);
+            if (jsonResponse.isEmpty()) {
+                return pgnUrls;
+            }
+            
+            // Parse the JSON to get monthly archive URLs
+            List<String> monthlyUrls = extractMonthlyUrlsFromJson(jsonResponse);
+            
+            if (monthlyUrls.isEmpty()) {
+                System.out.println("No monthly archives found.");
+                return pgnUrls;
+            }
+            
+            System.out.println("Found " + monthlyUrls.size() + " monthly archive(s).");
+            
+            // Each monthly archive is streamed later, one after another
+            for (String monthlyUrl : monthlyUrls) {
+                pgnUrls.add(monthlyUrl + "/pgn");
+            }
+            
+        } catch (Exception e) {
+            System.err.println("Error parsing annual data: " + e.getMessage());
+            throw new IOException("Failed to fetch annual games: " + e.getMessage());
+        }
+        
+        return pgnUrls;
+    }
+
+    // Extract monthly archive URLs from JSON response
+    private static List<String> extractMonthlyUrlsFromJson(String jsonResponse) {
+        List<String> urls = new ArrayList<>();
+        
+        try {
+            // The JSON format is: {"archives":["url1","url2",...]}
+            // Simple parsing without external JSON library
+            if (jsonResponse.contains("\"archives\":[")) {
+                int start = jsonResponse.indexOf("\"archives\":[") + 12;
+                int end = jsonResponse.indexOf("]", start);
+                
+                if (start > 12 && end > start) {
+                    String archivesStr = jsonResponse.substring(start, end);
+                    // Split by comma and clean up
+                    String[] archiveArray = archivesStr.split(",");
+                    
+                    for (String archive : archiveArray) {
+                        String url = archive.trim()
+                            .replace("\"", "")
+                            .replace("\\/", "/"); // Unescape slashes
+                        if (!url.isEmpty() && url.startsWith("http")) {
+                            urls.add(url);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error parsing JSON: " + e.getMessage());
+        }
+        
+        return urls;
+    }
+
+    // One statistic of a report. Every game is fed to accumulate once, in
+    // archive order, and the whole set of aggregators is fed in the same pass.
+    // accumulate runs for every game and must not allocate beyond the first
+    // sight of a new key; merge folds in an aggregator that saw later games,
+    // with the same result as accumulating them here; render writes the
+    // report sections, if any, through the renderer of the report's format.
+    interface StatsAggregator<A extends StatsAggregator<A>> {
+        void accumulate(GameRecord game);
+        void merge(A other);
+        void render(ReportRenderer out) throws IOException;
+    }
+
+    // Statistics of one report: a fixed list of aggregators in report order.
+    // A new statistic is a new aggregator added to the list; the pass over the
+    // games, merging and rendering all go through it.
+    static class GameStats {
+        private final ResultStats results = new ResultStats();
+        private final GameTypeBreakdown gameTypes = new GameTypeBreakdown();
+        private final ColorStats colors = new ColorStats();
+        private final DistributionStats distribution = new DistributionStats();
+        private final StreakStats streaks = new StreakStats();
+        private final OpponentBandStats opponentBands = new OpponentBandStats();
+        private final HeadToHeadStats headToHead = new HeadToHeadStats();
+        private final TimeOfDayStats timeOfDay = new TimeOfDayStats();
+        private final AnnotationBreakdown annotations = new AnnotationBreakdown();
+        private final OpeningTree openings = new OpeningTree();
+
+        private final List<StatsAggregator<?>> aggregators = List.of(results, gameTypes, colors, distribution,
+                streaks, opponentBands, headToHead, timeOfDay, annotations, openings);
+
+        public void addGame(GameRecord game) {
+            for (int i = 0; i < aggregators.size(); i++) {
+                aggregators.get(i).accumulate(game);
+            }
+        }
+
+        // Fold in the statistics of games that came after this object's games.
+        // The result is the same as adding all of the games here one by one.
+        public void merge(GameStats other) {
+            for (int i = 0; i < aggregators.size(); i++) {
+                mergeInto(aggregators.get(i), other.aggregators.get(i));
+            }
+        }
+
+        // Both lists are built by the constructor, so the aggregators at one index share a class
+        @SuppressWarnings("unchecked")
+        private static <A extends StatsAggregator<A>> void mergeInto(StatsAggregator<A> target, StatsAggregator<?> other) {
+            target.merge((A) other);
+        }
+
+        // Every section of the report, in order
+        public void render(ReportRenderer out) throws IOException {
+            for (StatsAggregator<?> aggregator : aggregators) {
+                aggregator.render(out);
+            }
+        }
+
+        // Getters
+        public int getTotalGames() { return results.getTotalGames(); }
+        public int getWon() { return results.getWon(); }
+        public int getLost() { return results.getLost(); }
+        public int getDraw() { return results.getDraw(); }
+        public double getAverageMoves() { return results.getAverageMoves(); }
+
+        public int getWhiteGames() { return colors.getGames(0); }
+        public int getWhiteWon() { return colors.getWon(0); }
+        public int getWhiteLost() { return colors.getLost(0); }
+        public int getWhiteDraw() { return colors.getDraw(0); }
+
+        public int getBlackGames() { return colors.getGames(1); }
+        public int getBlackWon() { return colors.getWon(1); }
+        public int getBlackLost() { return colors.getLost(1); }
+        public int getBlackDraw() { return colors.getDraw(1); }
+
+        public Map<String, GameTypeStats> getGameTypeStats() { return gameTypes.getGameTypeStats(); }
+        public Map<String, RatingTracker> getRatingTrackers() { return gameTypes.getRatingTrackers(); }
+        public IntHistogram getMoveCounts() { return distribution.getMoveCounts(); }
+        public StreakStats getStreaks() { return streaks; }
+        public OpponentBandStats getOpponentBands() { return opponentBands; }
+        public HeadToHeadStats getHeadToHead() { return headToHead; }
+        public TimeOfDayStats getTimeOfDay() { return timeOfDay; }
+        public OpeningTree getOpenings() { return openings; }
+        public Map<String, AnnotationStats> getAnnotationStats() { return annotations.getByGameType(); }
+    }
+
+    // Overall results and game length
+    static class ResultStats implements StatsAggregator<ResultStats> {
+        private int totalGames = 0;
+        private int won = 0;
+        private int lost = 0;
+        private int draw = 0;
+        private long totalMoves = 0;
+
+        @Override
+        public void accumulate(GameRecord game) {
+            totalGames++;
+            totalMoves += game.getMoveCount();
+            switch (game.getResult()) {
+                case 0: won++; break;
+                case 1: lost++; break;
+                case 2: draw++; break;
+            }
+        }
+
+        @Override
+        public void merge(ResultStats other) {
+            totalGames += other.totalGames;
+            won += other.won;
+            lost += other.lost;
+            draw += other.draw;
+            totalMoves += other.totalMoves;
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            out.beginSection("OVERALL STATISTICS");
+            if (totalGames == 0) {
+                out.line("No games found.");
+            } else {
+                double wonPercent = (double) won / totalGames * 100;
+                double lostPercent = (double) lost / totalGames * 100;
+                double drawPercent = (double) draw / totalGames * 100;
+
+                out.line("Total Games: {games}\n", totalGames);
+                out.line("Won: {won} ({wonPercent:.2}%) | Lost: {lost} ({lostPercent:.2}%) | Draw: {draw} ({drawPercent:.2}%)\n",
+                        won, wonPercent, lost, lostPercent, draw, drawPercent);
+                out.line("Average Moves per Game: {averageMoves:.2}\n", getAverageMoves());
+                out.line("Win Rate: {winRate:.2}%", wonPercent);
+            }
+            out.endSection();
+        }
+
+        public int getTotalGames() { return totalGames; }
+        public int getWon() { return won; }
+        public int getLost() { return lost; }
+        public int getDraw() { return draw; }
+
+        public double getAverageMoves() {
+            return totalGames > 0 ? (double) totalMoves / totalGames : 0;
+        }
+    }
+
+    // Results and ratings per game type, for games with a known user rating
+    static class GameTypeBreakdown implements StatsAggregator<GameTypeBreakdown> {
+        private final Map<String, GameTypeStats> gameTypeStats = new HashMap<>();
+        private final Map<String, RatingTracker> ratingTrackers = new HashMap<>();
+
+        // Game types in the order they first appeared
+        private final List<String> gameTypeOrder = new ArrayList<>();
+
+        @Override
+        public void accumulate(GameRecord game) {
+            int userRating = game.getUserRating();
+            if (userRating <= 0) return;
+            String gameType = game.getGameType();
+            addGameType(gameType);
+            gameTypeStats.get(gameType).addGame(game.getResult(), game.getMoveCount(), userRating, game.getDateKey());
+
+            // Rating tracker keeps the date for chronological order
+            ratingTrackers.get(gameType).addRating(userRating, game.getDateKey());
+        }
+
+        // The report walks the hash maps, whose order for colliding keys depends on
+        // insertion order, so game types are always added in first-seen order
+        private void addGameType(String gameType) {
+            if (gameTypeStats.containsKey(gameType)) return;
+            gameTypeStats.put(gameType, new GameTypeStats(gameType));
+            ratingTrackers.put(gameType, new RatingTracker());
+            gameTypeOrder.add(gameType);
+        }
+
+        @Override
+        public void merge(GameTypeBreakdown other) {
+            for (String gameType : other.gameTypeOrder) {
+                addGameType(gameType);
+                gameTypeStats.get(gameType).merge(other.gameTypeStats.get(gameType));
+                ratingTrackers.get(gameType).merge(other.ratingTrackers.get(gameType));
+            }
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            out.beginSection("RATING CHANGES");
+            if (ratingTrackers.isEmpty()) out.line("No rating data available.");
+            for (Map.Entry<String, RatingTracker> entry : ratingTrackers.entrySet()) {
+                RatingTracker tracker = entry.getValue();
+                out.beginGroup("{type:-12}: {change:+} (Start: {start}, End: {end}, Avg: {average})\n", entry.getKey(),
+                        tracker.getRatingChange(), tracker.getStartingRating(), tracker.getLatestRating(),
+                        tracker.getAverageRating());
+                if (out.keepsFields()) {
+                    out.field("highest", tracker.getHighestRating());
+                    out.field("lowest", tracker.getLowestRating());
+                    IntList dates = new IntList();
+                    IntList ratings = new IntList();
+                    tracker.forEachDailyClose((date, rating) -> {
+                        dates.add(date);
+                        ratings.add(rating);
+                    });
+                    out.field("dailyCloseDates", dates.toArray());
+                    out.field("dailyCloseRatings", ratings.toArray());
+                }
+                out.endGroup();
+            }
+            out.endSection();
+
+            out.beginSection("PERFORMANCE BY GAME TYPE");
+            if (gameTypeStats.isEmpty()) out.line("No game type data available.");
+            for (GameTypeStats gtStats : gameTypeStats.values()) {
+                if (gtStats.getTotal() == 0) continue;
+
+                out.beginGroup("\n{type} (Total: {games}):\n", gtStats.getGameType(), gtStats.getTotal());
+                out.line("  Win: {won} ({winRate:.2}%) | Loss: {lost} ({lossRate:.2}%) | Draw: {draw} ({drawRate:.2}%)\n",
+                        gtStats.getWon(), gtStats.getWinRate(), gtStats.getLost(), gtStats.getLossRate(),
+                        gtStats.getDraw(), gtStats.getDrawRate());
+                out.line("  Avg Moves: {averageMoves:.2} | Avg Rating: {averageRating}\n",
+                        gtStats.getAverageMoves(), gtStats.getAverageRating());
+                out.line("  Rating Range: {ratingRange} ({minRating} - {maxRating}, Latest: {latestRating})\n",
+                        gtStats.getRatingRange(), gtStats.getMinRating(), gtStats.getMaxRating(), gtStats.getLatestRating());
+                out.endGroup();
+            }
+            out.endSection();
+        }
+
+        public Map<String, GameTypeStats> getGameTypeStats() { return gameTypeStats; }
+        public Map<String, RatingTracker> getRatingTrackers() { return ratingTrackers; }
+    }
+
+    // Games and results per color bucket. Like the report always has, games of
+    // an unknown color are counted as Black.
+    static class ColorStats implements StatsAggregator<ColorStats> {
+        private final ResultTable table = new ResultTable(2);
+
+        @Override
+        public void accumulate(GameRecord game) {
+            table.add(game.getColor() == 0 ? 0 : 1, game.getResult());
+        }
+
+        @Override
+        public void merge(ColorStats other) {
+            table.merge(other.table);
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            out.beginSection("RESULTS BY COLOR");
+            for (int color = 0; color < 2; color++) {
+                int total = table.getGames(color);
+                if (total == 0) continue;
+                out.beginGroup("\nAs {color} ({games} games):\n", GameStore.COLORS[color], total);
+                out.line("  Win: {won} ({winRate:.2}%) | Loss: {lost} ({lossRate:.2}%) | Draw: {draw} ({drawRate:.2}%)\n",
+                        table.getWon(color), (double) table.getWon(color) / total * 100,
+                        table.getLost(color), (double) table.getLost(color) / total * 100,
+                        table.getDraw(color), (double) table.getDraw(color) / total * 100);
+                out.endGroup();
+            }
+            out.endSection();
+        }
+
+        // Color 0 is White, 1 Black (unknown included)
+        public int getGames(int color) { return table.getGames(color); }
+        public int getWon(int color) { return table.getWon(color); }
+        public int getLost(int color) { return table.getLost(color); }
+        public int getDraw(int color) { return table.getDraw(color); }
+    }
+
+    // Distribution of game lengths, and of rated games over game types
+    static class DistributionStats implements StatsAggregator<DistributionStats> {
+        private int totalGames = 0;
+        private final IntHistogram moveCounts = new IntHistogram();
+        private final Map<String, int[]> typeGames = new HashMap<>();  // Same keys and order as GameTypeBreakdown's
+        private final List<String> typeOrder = new ArrayList<>();
+
+        @Override
+        public void accumulate(GameRecord game) {
+            totalGames++;
+            moveCounts.add(game.getMoveCount());
+            if (game.getUserRating() > 0) typeCount(game.getGameType())[0]++;
+        }
+
+        private int[] typeCount(String gameType) {
+            int[] count = typeGames.get(gameType);
+            if (count == null) {
+                count = new int[1];
+                typeGames.put(gameType, count);
+                typeOrder.add(gameType);
+            }
+            return count;
+        }
+
+        @Override
+        public void merge(DistributionStats other) {
+            totalGames += other.totalGames;
+            moveCounts.merge(other.moveCounts);
+            for (String gameType : other.typeOrder) {
+                typeCount(gameType)[0] += other.typeGames.get(gameType)[0];
+            }
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            out.beginSection("ADDITIONAL STATISTICS");
+            if (!moveCounts.isEmpty()) {
+                out.line("Shortest Game: {shortest} moves\n", moveCounts.getMin());
+                out.line("Longest Game: {longest} moves\n", moveCounts.getMax());
+                out.line("Median Game Length: {median} moves\n", moveCounts.getMedian());
+            }
+
+            if (!typeGames.isEmpty()) {
+                out.beginGroup("\nGame Type Distribution:\n");
+                for (Map.Entry<String, int[]> entry : typeGames.entrySet()) {
+                    int total = entry.getValue()[0];
+                    out.row("  {type:-12}: {games} games ({share:.2}%)\n", entry.getKey(), total,
+                            (double) total / totalGames * 100);
+                }
+                out.endGroup();
+            }
+            out.endSection();
+        }
+
+        public IntHistogram getMoveCounts() { return moveCounts; }
+    }
+
+    // Longest runs of wins and of losses, and the run the user is on now.
+    // Draws and unknown results end a run. To merge runs that span the split
+    // between two aggregators, each also keeps the runs it starts with.
+    static class StreakStats implements StatsAggregator<StreakStats> {
+        private int games = 0;
+        private int longestWins = 0;
+        private int longestLosses = 0;
+        private int leadingWins = 0;    // Run the games start with
+        private int leadingLosses = 0;
+        private int currentWins = 0;    // Run the games end with
+        private int currentLosses = 0;
+
+        @Override
+        public void accumulate(GameRecord game) {
+            int result = game.getResult();
+            if (result == 0) {
+                if (leadingWins == games) leadingWins++;
+                currentWins++;
+                currentLosses = 0;
+            } else if (result == 1) {
+                if (leadingLosses == games) leadingLosses++;
+                currentLosses++;
+                currentWins = 0;
+            } else {
+                currentWins = 0;
+                currentLosses = 0;
+            }
+            games++;
+            longestWins = Math.max(longestWins, currentWins);
+            longestLosses = Math.max(longestLosses, currentLosses);
+        }
+
+        @Override
+        public void merge(StreakStats other) {
+            longestWins = Math.max(Math.max(longestWins, other.longestWins), currentWins + other.leadingWins);
+            longestLosses = Math.max(Math.max(longestLosses, other.longestLosses), currentLosses + other.leadingLosses);
+            if (leadingWins == games) leadingWins += other.leadingWins;
+            if (leadingLosses == games) leadingLosses += other.leadingLosses;
+            currentWins = other.currentWins == other.games ? currentWins + other.currentWins : other.currentWins;
+            currentLosses = other.currentLosses == other.games ? currentLosses + other.currentLosses : other.currentLosses;
+            games += other.games;
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            if (games == 0) return;
+            out.beginSection("STREAKS");
+            out.line(longestWins == 1 ? "Longest Winning Streak: {longestWins} win\n"
+                    : "Longest Winning Streak: {longestWins} wins\n", longestWins);
+            out.line(longestLosses == 1 ? "Longest Losing Streak: {longestLosses} loss\n"
+                    : "Longest Losing Streak: {longestLosses} losses\n", longestLosses);
+            if (currentWins > 0) {
+                out.line(currentWins == 1 ? "Current Streak: {currentWins} win\n"
+                        : "Current Streak: {currentWins} wins\n", currentWins);
+            } else if (currentLosses > 0) {
+                out.line(currentLosses == 1 ? "Current Streak: {currentLosses} loss\n"
+                        : "Current Streak: {currentLosses} losses\n", currentLosses);
+            } else {
+                out.line("Current Streak: none\n");
+            }
+            out.endSection();
+        }
+
+        public int getLongestWins() { return longestWins; }
+        public int getLongestLosses() { return longestLosses; }
+        public int getCurrentWins() { return currentWins; }
+        public int getCurrentLosses() { return currentLosses; }
+    }
+
+    // Results against opponents rated below or above the user, in bands of the
+    // rating difference at the time of the game. Needs both ratings.
+    static class OpponentBandStats implements StatsAggregator<OpponentBandStats> {
+        private static final int[] LIMITS = {-200, -100, 0, 100, 200}; // Lower bounds of the bands after the first
+        static final String[] BANDS = {"Below -200", "-200 to -101", "-100 to -1", "0 to +99", "+100 to +199",
+                "+200 and above"};
+
+        private final ResultTable table = new ResultTable(BANDS.length);
+
+        @Override
+        public void accumulate(GameRecord game) {
+            if (game.getUserRating() <= 0 || game.getOpponentRating() <= 0) return;
+            table.add(band(game.getOpponentRating() - game.getUserRating()), game.getResult());
+        }
+
+        static int band(int difference) {
+            int band = 0;
+            while (band < LIMITS.length && difference >= LIMITS[band]) band++;
+            return band;
+        }
+
+        @Override
+        public void merge(OpponentBandStats other) {
+            table.merge(other.table);
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            if (table.getTotal() == 0) return;
+            out.beginSection("PERFORMANCE BY OPPONENT RATING");
+            out.line("Opponent rating minus yours:\n");
+            for (int band = 0; band < BANDS.length; band++) {
+                table.renderRow(out, BANDS[band], band);
+            }
+            out.endSection();
+        }
+
+        public ResultTable getTable() { return table; }
+    }
+
+    // Results against each opponent. Opponents are numbered in the order the
+    // aggregator meets them and counted in primitive arrays indexed by that
+    // number, about 44 bytes an opponent next to the name, so accounts with
+    // tens of thousands of opponents stay small. A game's opponent is found
+    // by the number the run's dictionary gave it, so no name is looked up
+    // again. Games the user did not play a known side of have no opponent.
+    static class HeadToHeadStats implements StatsAggregator<HeadToHeadStats> {
+        static final int REPORT_OPPONENTS = 10; // Most played opponents shown in the report
+        private static final String ROW = "  {opponent:-20}: {games:4} games  Score {score:5.1}%  (W {won} / L {lost} / D {draw})\n";
+        private static final String RATED_ROW = ROW.replace("\n", "  Rating Diff: {ratingDifference:+}\n");
+
+        private int[] opponentOf = new int[64];          // By dictionary id: opponent + 1, 0 when not met
+        private int[] playerIds = new int[64];           // By opponent: dictionary id
+        private String[] names = new String[64];         // By opponent
+        private int size = 0;
+        private final ResultTable table = new ResultTable(64);
+        private int[] ratedGames = new int[64];         // Games with both ratings known
+        private long[] ratingDifferences = new long[64]; // Sum of opponent minus user rating over those
+
+        @Override
+        public void accumulate(GameRecord game) {
+            if (game.getColor() > 1) return;
+            int opponent = opponent(game.getOpponentId(), game.getOpponent());
+            table.add(opponent, game.getResult());
+            if (game.getUserRating() > 0 && game.getOpponentRating() > 0) {
+                ratedGames[opponent]++;
+                ratingDifferences[opponent] += game.getOpponentRating() - game.getUserRating();
+            }
+        }
+
+        // The number of a dictionary id, given the next number when first met
+        private int opponent(int playerId, String name) {
+            if (playerId >= opponentOf.length) {
+                opponentOf = Arrays.copyOf(opponentOf, Math.max(opponentOf.length * 2, playerId + 1));
+            }
+            int opponent = opponentOf[playerId] - 1;
+            if (opponent >= 0) return opponent;
+
+            opponent = size++;
+            if (opponent == names.length) {
+                names = Arrays.copyOf(names, opponent * 2);
+                playerIds = Arrays.copyOf(playerIds, opponent * 2);
+                ratedGames = Arrays.copyOf(ratedGames, opponent * 2);
+                ratingDifferences = Arrays.copyOf(ratingDifferences, opponent * 2);
+            }
+            table.ensureBucket(opponent);
+            opponentOf[playerId] = opponent + 1;
+            playerIds[opponent] = playerId;
+            names[opponent] = name;
+            return opponent;
+        }
+
+        @Override
+        public void merge(HeadToHeadStats other) {
+            for (int id = 0; id < other.size; id++) {
+                int opponent = opponent(other.playerIds[id], other.names[id]);
+                table.add(opponent, other.table, id);
+                ratedGames[opponent] += other.ratedGames[id];
+                ratingDifferences[opponent] += other.ratingDifferences[id];
+            }
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            int count = size();
+            if (count == 0) return;
+            out.beginSection("HEAD TO HEAD");
+            out.line("{opponents} opponent(s), most played:\n", count);
+            for (int opponent : mostPlayed(REPORT_OPPONENTS)) {
+                out.row(ratedGames[opponent] > 0 ? RATED_ROW : ROW, names[opponent], table.getGames(opponent),
+                        table.getScore(opponent), table.getWon(opponent), table.getLost(opponent), table.getDraw(opponent),
+                        getAverageRatingDifference(opponent));
+            }
+            out.endSection();
+        }
+
+        // Up to `limit` opponents by games played, the first met first among equals
+        int[] mostPlayed(int limit) {
+            int count = size();
+            int[] top = new int[Math.min(limit, count)];
+            boolean[] taken = new boolean[count];
+            for (int rank = 0; rank < top.length; rank++) {
+                int best = -1;
+                for (int opponent = 0; opponent < count; opponent++) {
+                    if (!taken[opponent] && (best < 0 || table.getGames(opponent) > table.getGames(best))) best = opponent;
+                }
+                taken[best] = true;
+                top[rank] = best;
+            }
+            return top;
+        }
+
+        public int size() { return size; }
+        public String getName(int opponent) { return names[opponent]; }
+        public ResultTable getTable() { return table; }
+
+        // Average of the opponent's rating minus the user's, over games where both are known
+        public int getAverageRatingDifference(int opponent) {
+            return ratedGames[opponent] > 0 ? (int) Math.round((double) ratingDifferences[opponent] / ratedGames[opponent]) : 0;
+        }
+    }
+
+    // Results by day of the week and by time of day (UTC), from the date and
+    // UTCTime headers. The hours are grouped into blocks of four.
+    static class TimeOfDayStats implements StatsAggregator<TimeOfDayStats> {
+        static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+        static final int HOURS_PER_BLOCK = 4;
+        static final String[] HOUR_BLOCKS = {"00:00-03:59", "04:00-07:59", "08:00-11:59", "12:00-15:59",
+                "16:00-19:59", "20:00-23:59"};
+        private static final int[] MONTH_OFFSETS = {0, 3, 2, 5, 0, 3, 5, 1, 4, 6, 2, 4};
+
+        private final ResultTable days = new ResultTable(DAYS.length);
+        private final ResultTable hours = new ResultTable(HOUR_BLOCKS.length);
+
+        @Override
+        public void accumulate(GameRecord game) {
+            int day = dayOfWeek(game.getDateKey());
+            if (day >= 0) days.add(day, game.getResult());
+            int minute = game.getTimeOfDay();
+            if (minute >= 0) hours.add(minute / 60 / HOURS_PER_BLOCK, game.getResult());
+        }
+
+        // Day of a yyyymmdd date key, 0 for Monday, or -1 when there is no valid date
+        static int dayOfWeek(int dateKey) {
+            int year = dateKey / 10000;
+            int month = dateKey / 100 % 100;
+            int day = dateKey % 100;
+            if (year <= 0 || month < 1 || month > 12 || day < 1 || day > 31) return -1;
+            if (month < 3) year--;
+            int fromSunday = (year + year / 4 - year / 100 + year / 400 + MONTH_OFFSETS[month - 1] + day) % 7;
+            return (fromSunday + 6) % 7;
+        }
+
+        @Override
+        public void merge(TimeOfDayStats other) {
+            days.merge(other.days);
+            hours.merge(other.hours);
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            if (days.getTotal() == 0 && hours.getTotal() == 0) return;
+            out.beginSection("RESULTS BY DAY AND HOUR");
+            if (days.getTotal() > 0) {
+                out.beginGroup("By Day:\n");
+                for (int day = 0; day < DAYS.length; day++) {
+                    days.renderRow(out, DAYS[day], day);
+                }
+                out.endGroup();
+            }
+            if (hours.getTotal() > 0) {
+                out.beginGroup(days.getTotal() > 0 ? "\nBy Hour (UTC):\n" : "By Hour (UTC):\n");
+                for (int block = 0; block < HOUR_BLOCKS.length; block++) {
+                    hours.renderRow(out, HOUR_BLOCKS[block], block);
+                }
+                out.endGroup();
+            }
+            out.endSection();
+        }
+
+        public ResultTable getDays() { return days; }
+        public ResultTable getHours() { return hours; }
+    }
+
+    // Clock and eval annotations per game type, in the order they first appeared
+    static class AnnotationBreakdown implements StatsAggregator<AnnotationBreakdown> {
+        private final Map<String, AnnotationStats> byGameType = new LinkedHashMap<>();
+
+        @Override
+        public void accumulate(GameRecord game) {
+            short[] evals = game.getEvals();
+            int[] clocks = game.getClocks();
+            int baseSeconds = FilterParser.baseSeconds(game.getTimeControl());
+            if (evals == null && (clocks == null || baseSeconds <= 0)) return;
+            AnnotationStats stats = byGameType.get(game.getGameType());
+            if (stats == null) {
+                stats = new AnnotationStats();
+                byGameType.put(game.getGameType(), stats);
+            }
+            stats.addGame(game.getColor(), baseSeconds, FilterParser.incrementSeconds(game.getTimeControl()),
+                    clocks, evals, game.getAnnotatedPlies());
+        }
+
+        @Override
+        public void merge(AnnotationBreakdown other) {
+            for (Map.Entry<String, AnnotationStats> entry : other.byGameType.entrySet()) {
+                byGameType.computeIfAbsent(entry.getKey(), type -> new AnnotationStats()).merge(entry.getValue());
+            }
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            if (byGameType.isEmpty()) return;
+            out.beginSection("TIME AND ACCURACY");
+            for (Map.Entry<String, AnnotationStats> entry : byGameType.entrySet()) {
+                AnnotationStats annotations = entry.getValue();
+                out.beginGroup("{type}:\n", entry.getKey());
+                if (annotations.getClockedGames() > 0) {
+                    out.line("  Time Trouble: {timeTroubleRate:.1}% of {clockedGames} game(s) (under 10% of the base time left)\n",
+                            annotations.getTimeTroubleRate(), annotations.getClockedGames());
+                    out.line("  Time per Move (s): Opening {opening:.1} | Middlegame {middlegame:.1} | Endgame {endgame:.1}\n",
+                            moveSeconds(annotations, 0), moveSeconds(annotations, 1), moveSeconds(annotations, 2));
+                }
+                if (annotations.getEvalGames() > 0) {
+                    out.line("  Average Centipawn Loss: {averageCentipawnLoss:.1} over {evalGames} game(s)\n",
+                            annotations.getAverageCentipawnLoss(), annotations.getEvalGames());
+                }
+                out.endGroup();
+            }
+            out.endSection();
+        }
+
+        // Average seconds a move in one of AnnotationStats.PHASES, null when no move was clocked
+        private static Double moveSeconds(AnnotationStats annotations, int phase) {
+            return annotations.getPhaseMoves(phase) > 0 ? annotations.getAverageMoveSeconds(phase) : null;
+        }
+
+        public Map<String, AnnotationStats> getByGameType() { return byGameType; }
+    }
+
+    // Games and results counted into buckets, a fixed number of them unless the
+    // table is grown. Result codes follow the game store; unknown results
+    // count as games only.
+    static class ResultTable {
+        private int[] games;
+        private int[] won;
+        private int[] lost;
+        private int[] drawn;
+
+        ResultTable(int buckets) {
+            games = new int[buckets];
+            won = new int[buckets];
+            lost = new int[buckets];
+            drawn = new int[buckets];
+        }
+
+        void add(int bucket, int result) {
+            games[bucket]++;
+            if (result == 0) won[bucket]++;
+            else if (result == 1) lost[bucket]++;
+            else if (result == 2) drawn[bucket]++;
+        }
+
+        void merge(ResultTable other) {
+            for (int i = 0; i < games.length; i++) {
+                add(i, other, i);
+            }
+        }
+
+        // Add the counts of a bucket of another table to one of this table
+        void add(int bucket, ResultTable other, int otherBucket) {
+            games[bucket] += other.games[otherBucket];
+            won[bucket] += other.won[otherBucket];
+            lost[bucket] += other.lost[otherBucket];
+            drawn[bucket] += other.drawn[otherBucket];
+        }
+
+        // Make room for buckets up to `bucket`, for tables keyed by a growing dictionary
+        void ensureBucket(int bucket) {
+            if (bucket < games.length) return;
+            int capacity = Math.max(bucket + 1, games.length * 2);
+            games = Arrays.copyOf(games, capacity);
+            won = Arrays.copyOf(won, capacity);
+            lost = Arrays.copyOf(lost, capacity);
+            drawn = Arrays.copyOf(drawn, capacity);
+        }
+
+        public int size() { return games.length; }
+        public int getGames(int bucket) { return games[bucket]; }
+        public int getWon(int bucket) { return won[bucket]; }
+        public int getLost(int bucket) { return lost[bucket]; }
+        public int getDraw(int bucket) { return drawn[bucket]; }
+
+        public int getTotal() {
+            int total = 0;
+            for (int count : games) total += count;
+            return total;
+        }
+
+        // Points per game for the user in percent, a draw counting half
+        public double getScore(int bucket) {
+            return games[bucket] > 0 ? (won[bucket] + drawn[bucket] * 0.5) / games[bucket] * 100 : 0;
+        }
+
+        // One row of a report table; buckets without games are left out
+        void renderRow(ReportRenderer out, String label, int bucket) throws IOException {
+            if (games[bucket] == 0) return;
+            out.row("  {label:-15}: {games:4} games  Score {score:5.1}%  (W {won} / L {lost} / D {draw})\n", label,
+                    games[bucket], getScore(bucket), won[bucket], lost[bucket], drawn[bucket]);
+        }
+    }
+
+    // Growable list of primitive ints
+    static class IntList {
+        private int[] values;
+        private int size = 0;
+
+        public IntList() {
+            this(16);
+        }
+
+        public IntList(int initialCapacity) {
+            values = new int[Math.max(1, initialCapacity)];
+        }
+
+        public void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        public int get(int index) {
+            if (index >= size) throw new IndexOutOfBoundsException(index);
+            return values[index];
+        }
+
+        public void set(int index, int value) {
+            if (index >= size) throw new IndexOutOfBoundsException(index);
+            values[index] = value;
+        }
+
+        public void addAll(IntList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, size + other.size));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        public int size() { return size; }
+        public boolean isEmpty() { return size == 0; }
+
+        public int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // Counts of small non-negative ints (move counts, ratings) kept as a dense
+    // histogram, so min, max, median and average come straight from the counts
+    // instead of a sorted list of boxed values. Values outside the dense range
+    // are kept in a small overflow list.
+    static class IntHistogram {
+        private static final int DENSE_LIMIT = 1 << 16;
+
+        private int[] counts = new int[64];
+        private final IntList overflow = new IntList(4);
+        private int count = 0;
+        private long sum = 0;
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+
+        public void add(int value) {
+            if (value >= 0 && value < DENSE_LIMIT) {
+                if (value >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.min(DENSE_LIMIT, Integer.highestOneBit(value) << 1));
+                }
+                counts[value]++;
+            } else {
+                overflow.add(value);
+            }
+            count++;
+            sum += value;
+            if (value < min) min = value;
+            if (value > max) max = value;
+        }
+
+        public void merge(IntHistogram other) {
+            if (other.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, other.counts.length);
+            }
+            for (int value = 0; value < other.counts.length; value++) {
+                counts[value] += other.counts[value];
+            }
+            overflow.addAll(other.overflow);
+            count += other.count;
+            sum += other.sum;
+            if (other.min < min) min = other.min;
+            if (other.max > max) max = other.max;
+        }
+
+        public int getCount() { return count; }
+        public boolean isEmpty() { return count == 0; }
+        public int getMin() { return count > 0 ? min : 0; }
+        public int getMax() { return count > 0 ? max : 0; }
+
+        public double getAverage() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        // Value at position count / 2 of the sorted values (upper median)
+        public int getMedian() {
+            if (count == 0) return 0;
+            int target = count / 2;
+
+            int[] outliers = overflow.toArray();
+            Arrays.sort(outliers);
+            int negatives = 0;
+            while (negatives < outliers.length && outliers[negatives] < 0) negatives++;
+            if (target < negatives) return outliers[target];
+            target -= negatives;
+
+            for (int value = 0; value < counts.length; value++) {
+                if (target < counts[value]) return value;
+                target -= counts[value];
+            }
+            return outliers[negatives + target];
+        }
+    }
+
+    // Pack a "YYYY.MM.DD" date into an int yyyymmdd that sorts chronologically,
+    // or 0 when the date is missing or malformed
+    static int packDate(String date) {
+        if (date == null) return 0;
+        int[] parts = new int[3];
+        int part = 0;
+        int digits = 0;
+        for (int i = 0; i < date.length(); i++) {
+            char c = date.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || ++part == 3) break;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 9) {
+                parts[part] = parts[part] * 10 + (c - '0');
+                digits++;
+            } else {
+                return 0;
+            }
+        }
+        if (part < 2 || digits == 0 && part == 2) return 0;
+        return parts[0] * 10000 + parts[1] * 100 + parts[2];
+    }
+
+    // Date key of a game without a date header at all
+    static final int NO_DATE = -1;
+
+    // Like packDate, but a missing date ("?") maps to NO_DATE so it stays
+    // distinct from a malformed one (0)
+    static int dateKey(String date) {
+        return date == null || date.equals("?") ? NO_DATE : packDate(date);
+    }
+    
+    // RatingTracker keeps ratings next to their dates (packed yyyymmdd) in
+    // primitive arrays. The earliest and latest entries are tracked as they
+    // are added, so start/latest/change queries never sort. Among games on the
+    // same day, the first one is the start and the last one is the latest.
+    static class RatingTracker {
+        private final IntList dates = new IntList();
+        private final IntList ratings = new IntList();
+        private long ratingSum = 0;
+        private int highestRating = 0;
+        private int lowestRating = Integer.MAX_VALUE;
+        private int startIndex = -1;
+        private int latestIndex = -1;
+        private boolean inDateOrder = true; // True while every add was on or after the previous date
+        private long[] dateOrder;           // Cached time order, only needed when adds were out of order
+        
+        // Receives (yyyymmdd, rating) pairs in time order
+        interface RatingVisitor {
+            void visit(int date, int rating);
+        }
+        
+        // Date as packed by dateKey
+        public void addRating(int rating, int date) {
+            if (rating <= 0 || date == NO_DATE) return;
+            
+            int packed = date;
+            int index = ratings.size();
+            if (packed != 0 && latestIndex >= 0 && packed < dates.get(latestIndex)) {
+                inDateOrder = false;
+            }
+            dates.add(packed);
+            ratings.add(rating);
+            dateOrder = null;
+            
+            ratingSum += rating;
+            if (rating > highestRating) highestRating = rating;
+            if (rating < lowestRating) lowestRating = rating;
+            
+            // Entries with a malformed date still count for the rating aggregates
+            if (packed == 0) return;
+            if (startIndex < 0 || packed < dates.get(startIndex)) startIndex = index;
+            if (latestIndex < 0 || packed >= dates.get(latestIndex)) latestIndex = index;
+        }
+        
+        // Append the ratings of another tracker whose games came after this one's
+        public void merge(RatingTracker other) {
+            int offset = ratings.size();
+            if (other.startIndex >= 0 && latestIndex >= 0
+                    && other.dates.get(other.startIndex) < dates.get(latestIndex)) {
+                inDateOrder = false;
+            }
+            inDateOrder &= other.inDateOrder;
+            dates.addAll(other.dates);
+            ratings.addAll(other.ratings);
+            dateOrder = null;
+            
+            ratingSum += other.ratingSum;
+            if (other.highestRating > highestRating) highestRating = other.highestRating;
+            if (other.lowestRating < lowestRating) lowestRating = other.lowestRating;
+            
+            if (other.startIndex < 0) return;
+            if (startIndex < 0 || other.dates.get(other.startIndex) < dates.get(startIndex)) {
+                startIndex = other.startIndex + offset;
+            }
+            if (latestIndex < 0 || other.dates.get(other.latestIndex) >= dates.get(latestIndex)) {
+                latestIndex = other.latestIndex + offset;
+            }
+        }
+        
+        public int getRatingChange() {
+            if (startIndex < 0) return 0;
+            return ratings.get(latestIndex) - ratings.get(startIndex);
+        }
+        
+        public int getLatestRating() {
+            return latestIndex >= 0 ? ratings.get(latestIndex) : 0;
+        }
+        
+        public int getStartingRating() {
+            return startIndex >= 0 ? ratings.get(startIndex) : 0;
+        }
+        
+        public int getHighestRating() {
+            return highestRating;
+        }
+        
+        public int getLowestRating() {
+            return lowestRating == Integer.MAX_VALUE ? 0 : lowestRating;
+        }
+        
+        public int getAverageRating() {
+            if (ratings.isEmpty()) return 0;
+            return (int) ((double) ratingSum / ratings.size());
+        }
+        
+        // Visit every dated rating in time order (same-day games in the order they were played)
+        public void forEachChronological(RatingVisitor visitor) {
+            if (inDateOrder) {
+                for (int i = 0; i < ratings.size(); i++) {
+                    if (dates.get(i) != 0) visitor.visit(dates.get(i), ratings.get(i));
+                }
+                return;
+            }
+            
+            if (dateOrder == null) {
+                // Sort once on (date, insertion index) packed into a long
+                long[] order = new long[ratings.size()];
+                int size = 0;
+                for (int i = 0; i < ratings.size(); i++) {
+                    if (dates.get(i) != 0) order[size++] = ((long) dates.get(i) << 32) | i;
+                }
+                dateOrder = Arrays.copyOf(order, size);
+                Arrays.sort(dateOrder);
+            }
+            for (long entry : dateOrder) {
+                int i = (int) entry;
+                visitor.visit(dates.get(i), ratings.get(i));
+            }
+        }
+        
+        // Visit the closing rating of each day on which games were played
+        public void forEachDailyClose(RatingVisitor visitor) {
+            int[] pendingDay = {0};
+            int[] pendingRating = {0};
+            forEachChronological((date, rating) -> {
+                if (pendingDay[0] != 0 && date != pendingDay[0]) {
+                    visitor.visit(pendingDay[0], pendingRating[0]);
+                }
+                pendingDay[0] = date;
+                pendingRating[0] = rating;
+            });
+            if (pendingDay[0] != 0) {
+                visitor.visit(pendingDay[0], pendingRating[0]);
+            }
+        }
+    }
+    
+    // Time management and accuracy of one game type, from the clock and eval
+    // annotations of the user's moves. Phases go by move number: the opening
+    // is moves 1-10, the middlegame 11-30 and the endgame the rest.
+    static class AnnotationStats {
+        static final int OPENING = 0;
+        static final int MIDDLEGAME = 1;
+        static final int ENDGAME = 2;
+        static final String[] PHASES = {"Opening", "Middlegame", "Endgame"};
+        private static final int CLOCKED_PHASES = 3;
+        private static final int TIME_TROUBLE_PERCENT = 10; // Of the base time left on the user's clock
+        private static final int EVAL_CAP = 1000;           // Centipawns; bigger swings count as this much
+
+        private int clockedGames = 0;
+        private int timeTroubleGames = 0;
+        private final long[] phaseCentis = new long[CLOCKED_PHASES];
+        private final int[] phaseMoves = new int[CLOCKED_PHASES];
+        private int evalGames = 0;
+        private int evalMoves = 0;
+        private long centipawnLoss = 0;
+
+        // Color is a game store code. Base and increment are -1 for daily games,
+        // which have no clock to manage.
+        void addGame(int color, int baseSeconds, int incrementSeconds, int[] clocks, short[] evals, int plies) {
+            if (color > 1) return;
+            if (clocks != null && baseSeconds > 0) {
+                addClocks(color, baseSeconds * 100, Math.max(0, incrementSeconds) * 100, clocks, plies);
+            }
+            if (evals != null) {
+                addEvals(color, evals, plies);
+            }
+        }
+
+        private void addClocks(int color, int baseCentis, int incrementCentis, int[] clocks, int plies) {
+            int previous = baseCentis;
+            int lowest = Integer.MAX_VALUE;
+            boolean clocked = false;
+            for (int ply = color; ply < plies; ply += 2) {
+                int clock = clocks[ply];
+                if (clock == MoveAnnotations.NO_CLOCK) {
+                    previous = -1;
+                    continue;
+                }
+                clocked = true;
+                lowest = Math.min(lowest, clock);
+                if (previous >= 0) {
+                    int phase = phase(ply / 2 + 1);
+                    phaseCentis[phase] += Math.max(0, previous - clock + incrementCentis);
+                    phaseMoves[phase]++;
+                }
+                previous = clock;
+            }
+            if (!clocked) return;
+            clockedGames++;
+            if ((long) lowest * 100 < (long) baseCentis * TIME_TROUBLE_PERCENT) timeTroubleGames++;
+        }
+
+        // Loss of each user move against the eval before it, from the user's side.
+        // Eval i follows ply i, so White's moves are the even plies and Black's the
+        // odd ones; White's first move has no eval before it and is skipped.
+        private void addEvals(int color, short[] evals, int plies) {
+            int sign = color == 0 ? 1 : -1;
+            int moves = 0;
+            long loss = 0;
+            for (int ply = color == 0 ? 2 : 1; ply < plies; ply += 2) {
+                if (evals[ply - 1] == MoveAnnotations.NO_EVAL || evals[ply] == MoveAnnotations.NO_EVAL) continue;
+                int before = clampEval(evals[ply - 1]);
+                int after = clampEval(evals[ply]);
+                loss += Math.max(0, sign * (before - after));
+                moves++;
+            }
+            if (moves == 0) return;
+            evalGames++;
+            evalMoves += moves;
+            centipawnLoss += loss;
+        }
+
+        private static int clampEval(short eval) {
+            return Math.max(-EVAL_CAP, Math.min(EVAL_CAP, eval));
+        }
+
+        static int phase(int moveNumber) {
+            return moveNumber <= 10 ? OPENING : moveNumber <= 30 ? MIDDLEGAME : ENDGAME;
+        }
+
+        void merge(AnnotationStats other) {
+            clockedGames += other.clockedGames;
+            timeTroubleGames += other.timeTroubleGames;
+            for (int phase = 0; phase < CLOCKED_PHASES; phase++) {
+                phaseCentis[phase] += other.phaseCentis[phase];
+                phaseMoves[phase] += other.phaseMoves[phase];
+            }
+            evalGames += other.evalGames;
+            evalMoves += other.evalMoves;
+            centipawnLoss += other.centipawnLoss;
+        }
+
+        public int getClockedGames() { return clockedGames; }
+        public int getTimeTroubleGames() { return timeTroubleGames; }
+        public int getEvalGames() { return evalGames; }
+
+        public double getTimeTroubleRate() {
+            return clockedGames > 0 ? (double) timeTroubleGames / clockedGames * 100 : 0;
+        }
+
+        // Average seconds spent per user move in a phase, increment included
+        public double getAverageMoveSeconds(int phase) {
+            return phaseMoves[phase] > 0 ? phaseCentis[phase] / 100.0 / phaseMoves[phase] : 0;
+        }
+
+        public int getPhaseMoves(int phase) { return phaseMoves[phase]; }
+
+        public double getAverageCentipawnLoss() {
+            return evalMoves > 0 ? (double) centipawnLoss / evalMoves : 0;
+        }
+    }
+    
+    // Modified GameTypeStats class
+    static class GameTypeStats {
+        private String gameType;
+        private int total = 0;
+        private int won = 0;
+        private int lost = 0;
+        private int draw = 0;
+        private int totalMoves = 0;
+        private int minRating = Integer.MAX_VALUE;
+        private int maxRating = 0;
+        private int latestRating = 0;
+        private int latestDate = 0; // yyyymmdd of the game that set latestRating
+        private long ratingSum = 0;
+        
+        public GameTypeStats(String gameType) {
+            this.gameType = gameType;
+        }
+        
+        // Result as a game store code, date as packed by dateKey
+        public void addGame(int result, int moveCount, int rating, int date) {
+            if (rating <= 0) return; // Skip invalid ratings
+            
+            total++;
+            totalMoves += moveCount;
+            ratingSum += rating;
+            
+            // Update min/max ratings
+            if (rating < minRating) minRating = rating;
+            if (rating > maxRating) maxRating = rating;
+            
+            // Update latest rating based on date
+            updateLatestRating(rating, date);
+            
+            switch (result) {
+                case 0: won++; break;
+                case 1: lost++; break;
+                case 2: draw++; break;
+            }
+        }
+        
+        // Games arrive in archive order, so a game on the same day replaces the previous one
+        private void updateLatestRating(int rating, int date) {
+            if (date == NO_DATE) return;
+            
+            int packed = date;
+            if (packed == 0) {
+                // If date parsing fails, update anyway if no latest rating
+                if (latestRating == 0) {
+                    latestRating = rating;
+                }
+            } else if (packed >= latestDate) {
+                latestRating = rating;
+                latestDate = packed;
+            }
+        }
+        
+        // Fold in the games of another GameTypeStats that came after this one's
+        public void merge(GameTypeStats other) {
+            total += other.total;
+            won += other.won;
+            lost += other.lost;
+            draw += other.draw;
+            totalMoves += other.totalMoves;
+            ratingSum += other.ratingSum;
+            if (other.minRating < minRating) minRating = other.minRating;
+            if (other.maxRating > maxRating) maxRating = other.maxRating;
+            
+            if (other.latestDate != 0 && other.latestDate >= latestDate) {
+                latestRating = other.latestRating;
+                latestDate = other.latestDate;
+            } else if (other.latestDate == 0 && latestRating == 0) {
+                latestRating = other.latestRating;
+            }
+        }
+        
+        public double getWinRate() {
+            return total > 0 ? (double) won / total * 100 : 0;
+        }
+        
+        public double getLossRate() {
+            return total > 0 ? (double) lost / total * 100 : 0;
+        }
+        
+        public double getDrawRate() {
+            return total > 0 ? (double) draw / total * 100 : 0;
+        }
+        
+        public double getAverageMoves() {
+            return total > 0 ? (double) totalMoves / total : 0;
+        }
+        
+        public int getRatingRange() {
+            if (minRating == Integer.MAX_VALUE || maxRating == 0) return 0;
+            return maxRating - minRating;
+        }
+        
+        public int getAverageRating() {
+            if (total == 0) return 0;
+            return (int) ((double) ratingSum / total);
+        }
+        
+        // Getters
+        public String getGameType() { return gameType; }
+        public int getTotal() { return total; }
+        public int getWon() { return won; }
+        public int getLost() { return lost; }
+        public int getDraw() { return draw; }
+        public int getMinRating() { return minRating == Integer.MAX_VALUE ? 0 : minRating; }
+        public int getMaxRating() { return maxRating; }
+        public int getLatestRating() { return latestRating; }
+    }
+
+    // Main method to stream all games from the PGN archives into the file of
+    // every view, followed by its statistics for the period label, and into the
+    // store when one is given. Returns null when the archives did not contain a
+    // single game.
+    private static List<ReportView> extractAndSaveGames(List<String> pgnUrls, boolean skipFailedArchives, String targetUsername,
+                                                        String period, List<ReportView> views, GameStore store,
+                                                        boolean verbose)
+            throws IOException, InterruptedException {
+        try (GameProcessor processor = new GameProcessor(targetUsername, views, PARALLEL_PARSING);
+             ArchivePrefetcher prefetcher = new ArchivePrefetcher(pgnUrls, FETCH_PARALLELISM);
+             ProgressReporter progress = verbose ? new ProgressReporter(processor) : null) {
+            int archiveCount = 0;
+            for (String pgnUrl : pgnUrls) {
+                archiveCount++;
+                if (pgnUrls.size() > 1) {
+                    System.out.println("Processing archive " + archiveCount + " of " + pgnUrls.size() + "...");
+                }
+                if (progress != null) progress.setArchive(archiveCount, pgnUrls.size());
+
+                GameStore.SegmentWriter segment = store != null ? store.newSegment(targetUsername, pgnUrl) : null;
+                long waitStarted = System.nanoTime();
+                try (InputStream in = METRICS.meterArchive(pgnUrl, prefetcher.next(), waitStarted)) {
+                    processor.processArchive(in, segment);
+                    if (segment != null) segment.commit();
+                } catch (IOException | InterruptedException e) {
+                    if (!skipFailedArchives) throw e;
+                    String monthlyUrl = pgnUrl.substring(0, pgnUrl.length() - "/pgn".length());
+                    System.out.println("Skipping archive: " + monthlyUrl + " (Error: " + e.getMessage() + ")");
+                }
+            }
+
+            if (processor.getGameCount() == 0) {
+                return null;
+            }
+            if (views.size() == 1) {
+                System.out.println("\nFinished processing " + processor.getFilteredCount() + " of " + processor.getGameCount() + " game(s).");
+            } else {
+                System.out.println("\nFinished processing " + processor.getGameCount() + " game(s) into " + views.size() + " reports:");
+                for (ReportView view : views) {
+                    System.out.println("  " + view.name + ": " + view.getFilteredCount() + " game(s) match " + view.filterText);
+                }
+            }
+            processor.writeStatistics(targetUsername, period);
+            return views;
+        }
+    }
+
+    // Hands out archive bodies in archive order while downloading up to
+    // `parallelism` archives ahead of the consumer on virtual threads. Archives
+    // downloaded ahead land in the archive cache, or without one in a temporary
+    // file that is deleted once its stream is closed, so none is held in
+    // memory; with a parallelism of 1 each archive is streamed straight off the
+    // response instead.
+    static class ArchivePrefetcher implements AutoCloseable {
+        private final List<String> pgnUrls;
+        private final int parallelism;
+        private final ExecutorService executor;
+        private final Deque<Future<InputStream>> inFlight = new ArrayDeque<>();
+        private int nextToSubmit = 0;
+        private int nextToConsume = 0;
+
+        public ArchivePrefetcher(List<String> pgnUrls, int parallelism) {
+            this.pgnUrls = pgnUrls;
+            this.parallelism = Math.max(1, parallelism);
+            this.executor = this.parallelism > 1 ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        }
+
+        // Returns the body of the next archive, rethrowing that archive's own fetch error
+        public InputStream next() throws IOException, InterruptedException {
+            String pgnUrl = pgnUrls.get(nextToConsume++);
+            if (executor == null) {
+                long started = System.nanoTime();
+                InputStream in = openArchiveStream(pgnUrl);
+                METRICS.archiveFetched(pgnUrl, started);
+                return in;
+            }
+
+            while (nextToSubmit < pgnUrls.size() && inFlight.size() < parallelism) {
+                String url = pgnUrls.get(nextToSubmit++);
+                inFlight.add(executor.submit(() -> {
+                    long started = System.nanoTime();
+                    InputStream in = openArchiveStream(url);
+                    if (ARCHIVE_CACHE != null) {
+                        METRICS.archiveFetched(url, started);
+                        return in; // Already downloaded in full to the cache file
+                    }
+                    Path spool = Files.createTempFile("chess-archive-", ".pgn");
+                    try (in) {
+                        Files.copy(in, spool, StandardCopyOption.REPLACE_EXISTING);
+                        InputStream body = Files.newInputStream(spool, StandardOpenOption.DELETE_ON_CLOSE);
+                        METRICS.archiveFetched(url, started);
+                        return body;
+                    } catch (IOException | RuntimeException e) {
+                        Files.deleteIfExists(spool);
+                        throw e;
+                    }
+                }));
+            }
+
+            try {
+                return inFlight.poll().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (executor == null) return;
+            executor.shutdownNow();
+            // Release (and so delete) any files that were prefetched but never consumed
+            for (Future<InputStream> future : inFlight) {
+                try {
+                    if (future.isDone() && !future.isCancelled()) future.get().close();
+                } catch (Exception ignored) {
+                    // The fetch failed, so there is nothing to close
+                }
+            }
+        }
+    }
+
+    // Reads one game block at a time off a PGN stream. A new game starts at a
+    // line beginning with '[' that follows a blank line, same as the old
+    // whole-archive split on "\n\s*\n(?=\[)".
+    static class PgnGameReader implements Closeable {
+        private final BufferedReader reader;
+        private final StringBuilder block = new StringBuilder();
+        private String pendingLine;
+        private String lastGame;
+        private int gamesRead = 0;
+
+        public PgnGameReader(InputStream in) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        // Returns the next trimmed, non-empty game block, or null at end of stream
+        public String nextGame() throws IOException {
+            while (true) {
+                block.setLength(0);
+                if (pendingLine != null) {
+                    block.append(pendingLine);
+                    pendingLine = null;
+                }
+
+                boolean sawBlankLine = false;
+                boolean endOfStream = true;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (sawBlankLine && line.startsWith("[")) {
+                        pendingLine = line;
+                        endOfStream = false;
+                        break;
+                    }
+                    sawBlankLine = line.isBlank();
+                    if (block.length() > 0) block.append('\n');
+                    block.append(line);
+                }
+
+                String gameBlock = block.toString().trim();
+                if (!gameBlock.isEmpty()) {
+                    gamesRead++;
+                    return lastGame = gameBlock;
+                }
+                if (endOfStream) return null;
+            }
+        }
+
+        public int getGamesRead() { return gamesRead; }
+        public String getLastGame() { return lastGame; }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // Parses, filters and writes games as they arrive while keeping the statistics.
+    // Every game is parsed once and then tested against each report view, so
+    // several filtered reports come out of a single pass. In parallel mode each
+    // archive is cut into batches of games that are parsed and tallied on the
+    // fork/join pool, one set of partial statistics per split, and the partials
+    // are merged back in archive order. The files are then written
+    // sequentially, so they are identical to a sequential run.
+    static class GameProcessor implements Closeable {
+        private static final int PARALLEL_BATCH_GAMES = 2048;
+
+        private final PlayerDictionary players = new PlayerDictionary();
+        private final int userId;
+        private final List<ReportView> views;
+        private final boolean parallel;
+        private boolean filesOpened = false; // Opened on the first game so empty runs leave no file behind
+        private GameStore.SegmentWriter segment; // Store copy of the archive being processed, if any
+        private boolean append = false;
+        private volatile int gameCount = 0;     // Volatile for the progress reporter
+
+        public GameProcessor(String targetUsername, String fileName, String timeControlFilter, boolean parallel) {
+            this(targetUsername, List.of(new ReportView("", timeControlFilter, fileName)), parallel);
+        }
+
+        public GameProcessor(String targetUsername, List<ReportView> views, boolean parallel) {
+            if (views.isEmpty() || views.size() > 64) {
+                throw new IllegalArgumentException("Between 1 and 64 report views are supported");
+            }
+            this.userId = players.intern(targetUsername);
+            this.views = views;
+            this.parallel = parallel;
+        }
+
+        public void processArchive(InputStream in) throws IOException {
+            processArchive(in, null);
+        }
+
+        // Also hands every game of the archive, filtered or not, to the store segment
+        public void processArchive(InputStream in, GameStore.SegmentWriter segment) throws IOException {
+            processArchive(new PgnGameReader(in), segment);
+        }
+
+        // Process the rest of the games of a reader
+        public void processArchive(PgnGameReader reader, GameStore.SegmentWriter segment) throws IOException {
+            this.segment = segment;
+            try {
+                readGames(reader);
+            } finally {
+                this.segment = null;
+            }
+        }
+
+        // Continue numbering after games an earlier run already wrote, appending to its file
+        public void resume(int gameCount, int filteredCount) {
+            if (views.size() != 1) throw new IllegalStateException("Only a single view can be resumed");
+            this.gameCount = gameCount;
+            views.get(0).filteredCount = filteredCount;
+            this.append = true;
+        }
+
+        private void readGames(PgnGameReader reader) throws IOException {
+            String gameBlock;
+            long started = System.nanoTime();
+            if (!parallel) {
+                while ((gameBlock = reader.nextGame()) != null) {
+                    METRICS.lap(PipelineMetrics.SPLIT, started);
+                    processGame(gameBlock);
+                    started = System.nanoTime();
+                }
+                return;
+            }
+
+            List<String> blocks = new ArrayList<>(PARALLEL_BATCH_GAMES);
+            while ((gameBlock = reader.nextGame()) != null) {
+                started = METRICS.lap(PipelineMetrics.SPLIT, started);
+                blocks.add(gameBlock);
+                if (blocks.size() == PARALLEL_BATCH_GAMES) {
+                    processBatch(blocks);
+                    blocks.clear();
+                }
+            }
+            if (!blocks.isEmpty()) {
+                processBatch(blocks);
+            }
+        }
+
+        public void processGame(String gameBlock) throws IOException {
+            ProcessedGame game = evaluate(gameBlock);
+            for (int i = 0; i < views.size(); i++) {
+                if (game.isAccepted(i)) game.addTo(views.get(i).stats);
+            }
+            write(game);
+        }
+
+        // Parse and tally a run of consecutive games in parallel, then write them in order
+        private void processBatch(List<String> blocks) throws IOException {
+            GameBatch batch = blocks.parallelStream().collect(() -> new GameBatch(views.size()),
+                    (partial, gameBlock) -> partial.add(evaluate(gameBlock)), GameBatch::merge);
+            for (ProcessedGame game : batch.games) {
+                write(game);
+            }
+            long started = System.nanoTime();
+            for (int i = 0; i < views.size(); i++) {
+                views.get(i).stats.merge(batch.stats[i]);
+            }
+            METRICS.addTime(PipelineMetrics.STATS, started);
+        }
+
+        // Parse one game and work out what it means for the target user (thread-safe).
+        // Filters see the header values first, so rejected games skip the move text.
+        private ProcessedGame evaluate(String gameBlock) {
+            // Parse this single game
+            GameData gameData = parseSingleGame(gameBlock, players, userId);
+            long started = System.nanoTime();
+            ProcessedGame game = new ProcessedGame(gameData);
+            
+            // Apply the filter of every view
+            for (int i = 0; i < views.size(); i++) {
+                if (views.get(i).filter.test(game)) game.accept(i);
+            }
+            METRICS.lap(PipelineMetrics.FILTER, started);
+
+            // Only games that are written somewhere need their move text; the
+            // store takes the others undecoded and indexes only the kept ones
+            if (game.isAcceptedByAny()) {
+                gameData.decodeMoves();
+                if (segment != null) game.positions = PositionIndex.positionsOf(game);
+            }
+            return game;
+        }
+
+        // Count the game and write the formatted output for it to every view that kept it
+        private void write(ProcessedGame game) throws IOException {
+            long started = System.nanoTime();
+            openFiles();
+
+            gameCount++;
+            if (segment != null) segment.add(game);
+
+            for (int i = 0; i < views.size(); i++) {
+                if (game.isAccepted(i)) views.get(i).write(game);
+            }
+            METRICS.lap(PipelineMetrics.WRITE, started);
+        }
+
+        // Open the report of every view, after the games of a resumed run
+        private void openFiles() throws IOException {
+            if (filesOpened) return;
+            for (ReportView view : views) {
+                view.open(append);
+            }
+            filesOpened = true;
+        }
+
+        // Write the statistics of every view that kept a game after its games
+        public void writeStatistics(String username, String period) throws IOException {
+            for (ReportView view : views) {
+                if (view.stats.getTotalGames() > 0) view.writeStatistics(view.stats, username, period);
+            }
+        }
+
+        // Write statistics gathered elsewhere (from the store) to the report of the single view
+        public void writeStatistics(GameStats stats, String username, String period) throws IOException {
+            openFiles();
+            views.get(0).writeStatistics(stats, username, period);
+        }
+
+        // Push what was written so far to the files, which stay open
+        public void flush() throws IOException {
+            for (ReportView view : views) {
+                view.flush();
+            }
+        }
+
+        public List<ReportView> getViews() { return views; }
+        public GameStats getStats() { return views.get(0).stats; }
+        public int getGameCount() { return gameCount; }
+        public int getFilteredCount() { return views.get(0).filteredCount; }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (ReportView view : views) {
+                try {
+                    view.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    // One filtered report produced by a pass over the games: its compiled
+    // filter, output file (none when the file name is null) and statistics
+    static class ReportView {
+        final String name;
+        final String filterText;
+        final GameFilter filter;
+        final String fileName;
+        final GameStats stats = new GameStats();
+        private ReportRenderer renderer;
+        private volatile int filteredCount = 0;
+
+        ReportView(String name, String filterText, String fileName) {
+            this.name = name;
+            this.filterText = filterText;
+            this.filter = GameFilter.compile(filterText);
+            this.fileName = fileName;
+        }
+
+        // The views of a filter argument: one per ';'-separated filter, each
+        // optionally named as "name: filter". A single view writes to the base
+        // file name; with several, each file gets "_<name>" (or "_<n>") added.
+        static List<ReportView> parse(String filterArgument, String baseFileName) {
+            String[] parts = filterArgument.split(";");
+            List<ReportView> views = new ArrayList<>();
+            for (String part : parts) {
+                part = part.trim();
+                if (part.isEmpty()) continue;
+                String name = String.valueOf(views.size() + 1);
+                int colon = part.indexOf(':');
+                if (colon > 0 && part.substring(0, colon).trim().matches("[A-Za-z0-9_-]+")) {
+                    name = part.substring(0, colon).trim();
+                    part = part.substring(colon + 1).trim();
+                }
+                views.add(new ReportView(name, part, baseFileName));
+            }
+            if (views.isEmpty()) {
+                views.add(new ReportView("1", "0", baseFileName));
+            }
+            if (views.size() == 1) {
+                return views;
+            }
+
+            List<ReportView> named = new ArrayList<>();
+            int dot = baseFileName.lastIndexOf('.');
+            for (ReportView view : views) {
+                String fileName = dot < 0 ? baseFileName + "_" + view.name
+                        : baseFileName.substring(0, dot) + "_" + view.name + baseFileName.substring(dot);
+                named.add(new ReportView(view.name, view.filterText, fileName));
+            }
+            return named;
+        }
+
+        // Start the report file, or continue the one whose games an earlier run wrote
+        private void open(boolean append) throws IOException {
+            if (fileName == null) return; // Statistics only
+            boolean resumed = append && new File(fileName).length() > 0;
+            renderer = REPORT_FORMAT.open(new BufferedWriter(new FileWriter(fileName, append)));
+            renderer.begin(resumed);
+        }
+
+        private void write(ProcessedGame game) throws IOException {
+            filteredCount++;
+            if (renderer != null) renderer.game(filteredCount, game);
+        }
+
+        private void writeStatistics(GameStats stats, String username, String period) throws IOException {
+            if (renderer != null) renderer.statistics(stats, username, period, filterText);
+        }
+
+        private void flush() throws IOException {
+            if (renderer != null) renderer.flush();
+        }
+
+        private void close() throws IOException {
+            if (renderer == null) return;
+            ReportRenderer closing = renderer;
+            renderer = null;
+            closing.close();
+        }
+
+        public GameStats getStats() { return stats; }
+        public int getFilteredCount() { return filteredCount; }
+    }
+
+    // A parsed game with the target user's side of it and the views that kept it
+    static class ProcessedGame implements GameRecord {
+        final GameData data;
+        final String userColor;
+        final int userRating;
+        private final int dateKey;
+        private long acceptedViews = 0; // Bit i is set when view i kept the game
+        long[] positions;               // Position hashes for the store's index, when it records the game
+
+        ProcessedGame(GameData data) {
+            this.data = data;
+            this.userColor = GameStore.COLORS[data.getColor()];
+            this.userRating = data.getUserRating();
+            this.dateKey = dateKey(data.getDate());
+        }
+
+        void accept(int view) { acceptedViews |= 1L << view; }
+        boolean isAccepted(int view) { return (acceptedViews & (1L << view)) != 0; }
+        boolean isAcceptedByAny() { return acceptedViews != 0; }
+
+        void addTo(GameStats stats) {
+            long started = System.nanoTime();
+            stats.addGame(this);
+            METRICS.lap(PipelineMetrics.STATS, started);
+        }
+
+        @Override public String getTimeControl() { return data.getTimeControlRaw(); }
+        @Override public String getGameType() { return data.getGameType(); }
+        @Override public int getColor() { return data.getColor(); }
+        @Override public int getResult() { return data.getResult(); }
+        @Override public int getDateKey() { return dateKey; }
+        @Override public int getUserRating() { return userRating; }
+        @Override public int getMoveCount() { return data.getMoveCount(); }
+        @Override public String getOpponent() { return data.getOpponent(); }
+        @Override public int getOpponentId() { return data.getOpponentId(); }
+        @Override public int getOpponentRating() { return data.getOpponentRating(); }
+        @Override public int getTimeOfDay() { return data.getTimeOfDay(); }
+        @Override public CharSequence getMoveText() { return data.getMoves(); }
+        @Override public int[] getClocks() { return data.getClocks(); }
+        @Override public short[] getEvals() { return data.getEvals(); }
+        @Override public int getAnnotatedPlies() { return data.getAnnotatedPlies(); }
+        @Override public boolean isStandardStart() { return data.isStandardStart(); }
+    }
+
+    // Games of one parallel split in archive order, with per-view statistics of the ones each view kept
+    static class GameBatch {
+        final List<ProcessedGame> games = new ArrayList<>();
+        final GameStats[] stats;
+
+        GameBatch(int views) {
+            stats = new GameStats[views];
+            for (int i = 0; i < views; i++) {
+                stats[i] = new GameStats();
+            }
+        }
+
+        void add(ProcessedGame game) {
+            games.add(game);
+            for (int i = 0; i < stats.length; i++) {
+                if (game.isAccepted(i)) game.addTo(stats[i]);
+            }
+        }
+
+        // Append a batch holding the games that directly follow this one's
+        void merge(GameBatch following) {
+            games.addAll(following.games);
+            for (int i = 0; i < stats.length; i++) {
+                stats[i].merge(following.stats[i]);
+            }
+        }
+    }
+
+    // Check if game time control matches filter. A filter without an increment
+    // is a base time: "600" matches "600" and "600+5" but not "6000".
+    private static boolean matchesTimeControl(String gameTimeControl, String filter) {
+        if (gameTimeControl == null || gameTimeControl.equals("?") || gameTimeControl.equals("-")) {
+            return false;
+        }
+        
+        // Normalize both to compare
+        String normalizedGame = gameTimeControl.trim();
+        String normalizedFilter = filter.trim();
+        
+        // Exact match
+        if (normalizedGame.equals(normalizedFilter)) {
+            return true;
+        }
+        
+        // If filter is just base time (e.g., "600"), check if game starts with it and an increment
+        if (!normalizedFilter.contains("+") && normalizedGame.startsWith(normalizedFilter + "+")) {
+            return true;
+        }
+        
+        return false;
+    }
+
+    // What a filter can see of a game, for the target user. Codes follow the
+    // game store: color 0 = White, 1 = Black, 2 = unknown; result 0 = won,
+    // 1 = lost, 2 = draw, 3 = unknown; ratings are 0 and dates NO_DATE when unknown.
+    interface FilterFields {
+        String getTimeControl();
+        String getGameType();
+        int getColor();
+        int getResult();
+        int getDateKey();
+        int getUserRating();
+        int getOpponentRating();
+        String getOpponent();
+        int getMoveCount();
+    }
+
+    // Everything the statistics read of a game. Implementations are views that
+    // hand out what the game already holds, so feeding a game allocates nothing.
+    // Opponent numbers come from the PlayerDictionary of the run; the records
+    // fed to one GameStats, and the statistics merged into it, share it.
+    interface GameRecord extends FilterFields {
+        int getOpponentId();         // -1 when the user did not play
+        CharSequence getMoveText();
+        int getTimeOfDay();          // Minutes after midnight UTC, -1 when unknown
+        int[] getClocks();           // As in GameData, null when the game has none
+        short[] getEvals();
+        int getAnnotatedPlies();
+        boolean isStandardStart();   // False for a game set up from a FEN, whose moves are not replayed
+    }
+
+    // A compiled filter expression. The text is parsed once into a tree of
+    // predicates, so testing a game does no parsing or allocation.
+    //
+    //   filter     := or
+    //   or         := and { ("or" | "||") and }
+    //   and        := unary { ("and" | "&&") unary }
+    //   unary      := ("not" | "!") unary | "(" or ")" | field op value | timecontrol
+    //
+    // Fields: tc, type, color, result, opponent (= and !=), base, inc, rating,
+    // opprating, moves (= != < <= > >=) and date (YYYY[.MM[.DD]], where "="
+    // means within that year, month or day). A bare time control such as
+    // "600" or "180+2" keeps its old meaning, and "0" matches every game.
+    @FunctionalInterface
+    interface GameFilter {
+        GameFilter ALL = game -> true;
+
+        boolean test(FilterFields game);
+
+        static GameFilter compile(String text) {
+            if (text == null || text.isBlank() || text.trim().equals("0")) {
+                return ALL;
+            }
+            return new FilterParser(text).parse();
+        }
+    }
+
+    // Recursive-descent parser behind GameFilter.compile
+    static class FilterParser {
+        private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+        private static final String[] OPERATORS = {"=", "!=", "<", "<=", ">", ">="};
+
+        private final String text;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int position = 0;
+
+        FilterParser(String text) {
+            this.text = text;
+            tokenize();
+        }
+
+        GameFilter parse() {
+            GameFilter filter = parseOr();
+            if (position < tokens.size()) {
+                throw error("unexpected '" + tokens.get(position) + "'");
+            }
+            return filter;
+        }
+
+        private GameFilter parseOr() {
+            GameFilter filter = parseAnd();
+            while (accept("or") || accept("||")) {
+                GameFilter left = filter;
+                GameFilter right = parseAnd();
+                filter = game -> left.test(game) || right.test(game);
+            }
+            return filter;
+        }
+
+        private GameFilter parseAnd() {
+            GameFilter filter = parseUnary();
+            while (accept("and") || accept("&&")) {
+                GameFilter left = filter;
+                GameFilter right = parseUnary();
+                filter = game -> left.test(game) && right.test(game);
+            }
+            return filter;
+        }
+
+        private GameFilter parseUnary() {
+            if (accept("not") || accept("!")) {
+                GameFilter inner = parseUnary();
+                return game -> !inner.test(game);
+            }
+            if (accept("(")) {
+                GameFilter inner = parseOr();
+                if (!accept(")")) throw error("missing ')'");
+                return inner;
+            }
+
+            String word = next("a condition");
+            int operator = position < tokens.size() && !quoted.get(position)
+                    ? Arrays.asList(OPERATORS).indexOf(tokens.get(position)) : -1;
+            if (operator < 0) {
+                // A bare time control, as the filter used to be
+                if (!word.matches("[0-9/+]+")) throw error("expected a comparison after '" + word + "'");
+                return game -> matchesTimeControl(game.getTimeControl(), word);
+            }
+            position++;
+            return comparison(word.toLowerCase(Locale.ROOT), operator, next("a value after '" + word + "'"));
+        }
+
+        private GameFilter comparison(String field, int operator, String value) {
+            switch (field) {
+                case "tc":
+                    return equality(field, operator, game -> value.equals(game.getTimeControl()));
+                case "type":
+                    return equality(field, operator, game -> value.equalsIgnoreCase(game.getGameType()));
+                case "opponent":
+                    return equality(field, operator, game -> value.equalsIgnoreCase(game.getOpponent()));
+                case "color": {
+                    int color = code(value, GameStore.COLORS, field);
+                    return equality(field, operator, game -> game.getColor() == color);
+                }
+                case "result": {
+                    String label = value.toLowerCase(Locale.ROOT);
+                    label = label.equals("win") ? "won" : label.equals("loss") ? "lost" : label;
+                    int result = code("(" + label + ")", GameStore.RESULT_LABELS, field);
+                    return equality(field, operator, game -> game.getResult() == result);
+                }
+                case "base": {
+                    int target = number(value);
+                    return game -> {
+                        int base = baseSeconds(game.getTimeControl());
+                        return base >= 0 && compare(base, operator, target);
+                    };
+                }
+                case "inc": {
+                    int target = number(value);
+                    return game -> {
+                        int increment = incrementSeconds(game.getTimeControl());
+                        return increment >= 0 && compare(increment, operator, target);
+                    };
+                }
+                case "rating": {
+                    int target = number(value);
+                    return game -> game.getUserRating() > 0 && compare(game.getUserRating(), operator, target);
+                }
+                case "opprating": {
+                    int target = number(value);
+                    return game -> game.getOpponentRating() > 0 && compare(game.getOpponentRating(), operator, target);
+                }
+                case "moves": {
+                    int target = number(value);
+                    return game -> compare(game.getMoveCount(), operator, target);
+                }
+                case "date":
+                    return date(operator, value);
+                default:
+                    throw error("unknown field '" + field + "'");
+            }
+        }
+
+        private GameFilter equality(String field, int operator, GameFilter equals) {
+            if (operator == EQ) return equals;
+            if (operator == NE) return game -> !equals.test(game);
+            throw error("'" + field + "' only supports = and !=");
+        }
+
+        // A date names a whole period, so each operator compares against its first or last day
+        private GameFilter date(int operator, String value) {
+            int first;
+            int last;
+            try {
+                first = parseDateBound(value, false);
+                last = parseDateBound(value, true);
+            } catch (IllegalArgumentException e) {
+                throw error("invalid date '" + value + "' (expected YYYY, YYYY.MM or YYYY.MM.DD)");
+            }
+            switch (operator) {
+                case EQ: return game -> game.getDateKey() >= first && game.getDateKey() <= last;
+                case NE: return game -> game.getDateKey() != NO_DATE && (game.getDateKey() < first || game.getDateKey() > last);
+                case LT: return game -> game.getDateKey() != NO_DATE && game.getDateKey() < first;
+                case LE: return game -> game.getDateKey() != NO_DATE && game.getDateKey() <= last;
+                case GT: return game -> game.getDateKey() > last;
+                default: return game -> game.getDateKey() >= first;
+            }
+        }
+
+        private static boolean compare(int value, int operator, int target) {
+            switch (operator) {
+                case EQ: return value == target;
+                case NE: return value != target;
+                case LT: return value < target;
+                case LE: return value <= target;
+                case GT: return value > target;
+                default: return value >= target;
+            }
+        }
+
+        // Seconds of the base time, or -1 for daily ("1/86400") and unknown time controls
+        static int baseSeconds(String timeControl) {
+            if (timeControl == null) return -1;
+            int plus = timeControl.indexOf('+');
+            return digits(timeControl, 0, plus < 0 ? timeControl.length() : plus);
+        }
+
+        // Seconds of increment (0 without one), or -1 for daily and unknown time controls
+        static int incrementSeconds(String timeControl) {
+            if (baseSeconds(timeControl) < 0) return -1;
+            int plus = timeControl.indexOf('+');
+            return plus < 0 ? 0 : digits(timeControl, plus + 1, timeControl.length());
+        }
+
+        // Value of the decimal digits text[from, to), or -1; read in place as it runs once per game
+        static int digits(String text, int from, int to) {
+            if (to <= from || to - from > 9) return -1;
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') return -1;
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private int number(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw error("'" + value + "' is not a number");
+            }
+        }
+
+        private int code(String value, String[] labels, String field) {
+            for (int i = 0; i < labels.length - 1; i++) {
+                if (labels[i].equalsIgnoreCase(value)) return i;
+            }
+            throw error("unknown " + field + " '" + value + "'");
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && !quoted.get(position) && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private String next(String expected) {
+            if (position >= tokens.size()) throw error("expected " + expected);
+            return tokens.get(position++);
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"' || c == '\'') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) throw error("unterminated quote");
+                    add(text.substring(i + 1, end), true);
+                    i = end + 1;
+                } else if (c == '(' || c == ')') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if (text.startsWith("&&", i) || text.startsWith("||", i)
+                        || text.startsWith("<=", i) || text.startsWith(">=", i) || text.startsWith("!=", i)) {
+                    add(text.substring(i, i + 2), false);
+                    i += 2;
+                } else if (text.startsWith("==", i)) {
+                    add("=", false);
+                    i += 2;
+                } else if ("!<>=".indexOf(c) >= 0) {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                            && "()!<>=&|\"'".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    if (i == start) throw error("unexpected '" + c + "'");
+                    add(text.substring(start, i), false);
+                }
+            }
+            if (tokens.isEmpty()) throw error("empty filter");
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid filter \"" + text.trim() + "\": " + message);
+        }
+    }
+
+    // Parsed data for a single game. The header values are decoded up front;
+    // the move text is cleaned and counted the first time it is asked for, so a
+    // game that no report keeps never pays for it. Used by one thread at a time.
+    static class GameData {
+        private String block;            // Raw game text, dropped once the moves are decoded
+        private final int moveTextStart; // Offset of the first line after the header block
+        private String moves;
+        private int moveCount;
+        private int[] clocks;            // Per ply, from the same scan; null when the game has none
+        private short[] evals;
+        private int annotatedPlies;
+        private final byte color;        // The target user's side and result, as game store codes
+        private final byte result;
+        private final int userRating;    // 0 when unknown
+        private final int opponentRating;
+        private final int opponentId;    // Number of the opponent in the run's PlayerDictionary, -1 when the user did not play
+        private final String opponent;   // Dictionary spelling of the opponent's name, "?" when the user did not play
+        private String formattedTimeControl;
+        private GameType gameType;
+        private final String timeControlRaw;
+        private final String event;
+        private final String date;
+        private final int timeOfDay;     // Minutes after midnight UTC, -1 when unknown
+        private final boolean standardStart;
+
+        public GameData(String block, int moveTextStart, int color, int result, int userRating, int opponentRating,
+                        int opponentId, String opponent, String timeControlRaw, String event, String date, int timeOfDay,
+                        boolean standardStart) {
+            this.block = block;
+            this.moveTextStart = moveTextStart;
+            this.color = (byte) color;
+            this.result = (byte) result;
+            this.userRating = userRating;
+            this.opponentRating = opponentRating;
+            this.opponentId = opponentId;
+            this.opponent = opponent;
+            this.timeControlRaw = timeControlRaw;
+            this.event = event;
+            this.date = date;
+            this.timeOfDay = timeOfDay;
+            this.standardStart = standardStart;
+        }
+
+        public String getMoves() {
+            decodeMoves();
+            return moves;
+        }
+
+        public int getMoveCount() {
+            decodeMoves();
+            return moveCount;
+        }
+
+        // Centiseconds left on the mover's clock after each ply (MoveAnnotations.NO_CLOCK when missing)
+        public int[] getClocks() {
+            decodeMoves();
+            return clocks;
+        }
+
+        // Centipawns from White's side after each ply (MoveAnnotations.NO_EVAL when missing)
+        public short[] getEvals() {
+            decodeMoves();
+            return evals;
+        }
+
+        public int getAnnotatedPlies() {
+            decodeMoves();
+            return annotatedPlies;
+        }
+
+        public String getFormattedTimeControl() {
+            if (formattedTimeControl == null) {
+                formattedTimeControl = formatTimeControl(timeControlRaw);
+            }
+            return formattedTimeControl;
+        }
+
+        public GameType getType() {
+            if (gameType == null) {
+                gameType = GameType.of(timeControlRaw, event);
+            }
+            return gameType;
+        }
+
+        public String getGameType() { return getType().label; }
+        public int getColor() { return color; }
+        public int getResult() { return result; }
+        public String getResultLabel() { return GameStore.RESULT_LABELS[result]; }
+        public int getUserRating() { return userRating; }
+        public int getOpponentRating() { return opponentRating; }
+        public int getOpponentId() { return opponentId; }
+        public String getOpponent() { return opponent; }
+        public String getTimeControlRaw() { return timeControlRaw; }
+        public String getDate() { return date; }
+        public int getTimeOfDay() { return timeOfDay; }
+        public boolean isStandardStart() { return standardStart; }
+
+        boolean isDecoded() { return moves != null; }
+
+        // The move text as the scanner reads it, for a game that was not decoded
+        String getMoveSection() {
+            if (moves != null) return moves;
+            StringBuilder moveSection = new StringBuilder(block.length() - moveTextStart);
+            appendMoveSection(moveSection);
+            return moveSection.toString();
+        }
+
+        // Clean the move text and count its moves in one pass, once
+        void decodeMoves() {
+            if (moves != null) return;
+            long started = System.nanoTime();
+            MoveTextScanner scanner = MOVE_SCANNER.get();
+            appendMoveSection(scanner.input());
+            moveCount = scanner.scan() / 2; // Each move has white and black
+            moves = scanner.cleaned();
+            MoveAnnotations annotations = scanner.annotations();
+            clocks = annotations.copyClocks();
+            evals = annotations.copyEvals();
+            annotatedPlies = clocks != null || evals != null ? annotations.getPlies() : 0;
+            block = null;
+            METRICS.lap(PipelineMetrics.MOVES, started);
+        }
+
+        // Every trimmed line of the move section; stray header lines there are dropped
+        private void appendMoveSection(StringBuilder moveSection) {
+            int length = block.length();
+            int lineStart = moveTextStart;
+            while (lineStart <= length) {
+                int lineEnd = block.indexOf('\n', lineStart);
+                if (lineEnd < 0) lineEnd = length;
+
+                int start = lineStart;
+                int end = lineEnd;
+                while (start < end && block.charAt(start) <= ' ') start++;
+                while (end > start && block.charAt(end - 1) <= ' ') end--;
+
+                if (start < end && block.charAt(start) != '[') {
+                    moveSection.append(block, start, end).append(' ');
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+    }
+
+    // Decode the header block of a game for the player numbered userId in the
+    // dictionary. The move text is left in place for GameData to scan only if
+    // the game turns out to be needed.
+    private static GameData parseSingleGame(String gameBlock, PlayerDictionary players, int userId) {
+        long started = System.nanoTime();
+
+        // Header lines up to the first line that is not one, which starts the move section
+        PgnHeaders headers = new PgnHeaders();
+        int length = gameBlock.length();
+        int lineStart = 0;
+        while (lineStart <= length) {
+            int lineEnd = gameBlock.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = length;
+
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && gameBlock.charAt(start) <= ' ') start++;
+            while (end > start && gameBlock.charAt(end - 1) <= ' ') end--;
+
+            if (start >= end || gameBlock.charAt(start) != '[') {
+                break;
+            }
+            headers.parseLine(gameBlock, start, end);
+            lineStart = lineEnd + 1;
+        }
+
+        // The user is matched in place and only the opponent's name is interned
+        String white = headers.get(PgnHeaders.WHITE);
+        String black = headers.get(PgnHeaders.BLACK);
+        int color = players.is(userId, white) ? 0 : players.is(userId, black) ? 1 : 2;
+        int opponentId = color == 2 ? -1 : players.intern(color == 0 ? black : white);
+
+        // Prefer the UTC date, falling back to the local one
+        String date = headers.get(PgnHeaders.UTC_DATE);
+        if (date.equals("?")) {
+            date = headers.get(PgnHeaders.DATE);
+        }
+
+        int whiteRating = rating(headers.get(PgnHeaders.WHITE_ELO));
+        int blackRating = rating(headers.get(PgnHeaders.BLACK_ELO));
+        int userRating = color == 0 ? whiteRating : color == 1 ? blackRating : 0;
+        int opponentRating = color == 0 ? blackRating : color == 1 ? whiteRating : 0;
+        String opponent = color == 2 ? "?" : players.name(opponentId);
+
+        // Games set up from a FEN, Chess960 among them, do not start from the standard position
+        String variant = headers.get(PgnHeaders.VARIANT);
+        boolean standardStart = headers.get(PgnHeaders.FEN).equals("?") && !headers.get(PgnHeaders.SET_UP).equals("1")
+                && (variant.equals("?") || variant.equalsIgnoreCase("Standard"));
+        METRICS.lap(PipelineMetrics.HEADERS, started);
+
+        return new GameData(gameBlock, Math.min(lineStart, length), color,
+                userResult(color, headers.get(PgnHeaders.RESULT)), userRating, opponentRating, opponentId, opponent,
+                headers.get(PgnHeaders.TIME_CONTROL), headers.get(PgnHeaders.EVENT), date,
+                minuteOfDay(headers.get(PgnHeaders.UTC_TIME)), standardStart);
+    }
+
+    // Result code of a PGN result for the user's color (unknown when the user did not play)
+    private static int userResult(int color, String pgnResult) {
+        if (color == 2) return 3;
+        switch (pgnResult) {
+            case "1-0": return color == 0 ? 0 : 1;
+            case "0-1": return color == 1 ? 0 : 1;
+            case "1/2-1/2": return 2;
+            default: return 3;
+        }
+    }
+
+    // Elo header value, 0 when it is missing or not a number
+    private static int rating(String elo) {
+        return Math.max(0, FilterParser.digits(elo, 0, elo.length()));
+    }
+
+    // Minutes after midnight of an "hh:mm:ss" time, or -1 when it is missing or malformed
+    static int minuteOfDay(String time) {
+        if (time.length() < 5 || time.charAt(2) != ':') return -1;
+        int hours = FilterParser.digits(time, 0, 2);
+        int minutes = FilterParser.digits(time, 3, 5);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return -1;
+        return hours * 60 + minutes;
+    }
+
+    // Values of the PGN headers we use, filled in by a single pass over the
+    // header lines. Missing or empty headers read as "?" and the first
+    // occurrence of a key wins.
+    static class PgnHeaders {
+        static final int WHITE = 0;
+        static final int BLACK = 1;
+        static final int RESULT = 2;
+        static final int TIME_CONTROL = 3;
+        static final int EVENT = 4;
+        static final int WHITE_ELO = 5;
+        static final int BLACK_ELO = 6;
+        static final int UTC_DATE = 7;
+        static final int DATE = 8;
+        static final int UTC_TIME = 9;
+        static final int SET_UP = 10;
+        static final int FEN = 11;
+        static final int VARIANT = 12;
+        private static final int KEY_COUNT = 13;
+
+        private final String[] values = new String[KEY_COUNT];
+
+        public String get(int key) {
+            String value = values[key];
+            return value != null ? value : "?";
+        }
+
+        // Read one trimmed [Key "Value"] line spanning text[start, end)
+        void parseLine(String text, int start, int end) {
+            int keyStart = start + 1;
+            int keyEnd = keyStart;
+            while (keyEnd < end && text.charAt(keyEnd) != ' ') keyEnd++;
+
+            // Expect a space, a quoted non-empty value and the closing ']'
+            int valueStart = keyEnd + 2;
+            if (valueStart >= end || text.charAt(keyEnd + 1) != '"') return;
+            int valueEnd = text.indexOf('"', valueStart);
+            if (valueEnd <= valueStart || valueEnd + 1 >= end || text.charAt(valueEnd + 1) != ']') return;
+
+            int key = keyOf(text, keyStart, keyEnd - keyStart);
+            if (key >= 0 && values[key] == null) {
+                values[key] = text.substring(valueStart, valueEnd);
+            }
+        }
+
+        // Match the key in place so that no String is built for it
+        private static int keyOf(String text, int keyStart, int keyLength) {
+            switch (keyLength) {
+                case 3:
+                    return text.startsWith("FEN", keyStart) ? FEN : -1;
+                case 4:
+                    return text.startsWith("Date", keyStart) ? DATE : -1;
+                case 5:
+                    if (text.startsWith("White", keyStart)) return WHITE;
+                    if (text.startsWith("Black", keyStart)) return BLACK;
+                    if (text.startsWith("Event", keyStart)) return EVENT;
+                    if (text.startsWith("SetUp", keyStart)) return SET_UP;
+                    return -1;
+                case 6:
+                    return text.startsWith("Result", keyStart) ? RESULT : -1;
+                case 7:
+                    if (text.startsWith("UTCDate", keyStart)) return UTC_DATE;
+                    if (text.startsWith("UTCTime", keyStart)) return UTC_TIME;
+                    if (text.startsWith("Variant", keyStart)) return VARIANT;
+                    return -1;
+                case 8:
+                    if (text.startsWith("WhiteElo", keyStart)) return WHITE_ELO;
+                    if (text.startsWith("BlackElo", keyStart)) return BLACK_ELO;
+                    return -1;
+                case 11:
+                    return text.startsWith("TimeControl", keyStart) ? TIME_CONTROL : -1;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    // Player names of one run, each normalized once (trimmed, quotes dropped,
+    // compared ignoring case like equalsIgnoreCase) and numbered in the order
+    // they are first seen. Names are matched in place, so looking up a known
+    // one allocates nothing. Games are parsed on several threads: lookups read
+    // the current probe table without locking, and only adding a name takes
+    // the lock. A slot is published after the name it points to, and a grown
+    // table replaces the old one as a whole.
+    static class PlayerDictionary {
+        private volatile AtomicIntegerArray table = new AtomicIntegerArray(64); // Open addressing: id + 1, 0 when empty
+        private volatile int[] hashes = new int[32];      // By id
+        private volatile String[] names = new String[32]; // By id, normalized
+        private volatile int size = 0;
+
+        int intern(String name) {
+            int start = 0;
+            int end = name.length();
+            while (start < end && name.charAt(start) <= ' ') start++;
+            while (end > start && name.charAt(end - 1) <= ' ') end--;
+            int hash = hash(name, start, end);
+
+            int id = find(table, hash, name, start, end);
+            return id >= 0 ? id : add(hash, name, start, end);
+        }
+
+        private synchronized int add(int hash, String name, int start, int end) {
+            AtomicIntegerArray slots = table;
+            int mask = slots.length() - 1;
+            int slot = (hash ^ hash >>> 16) & mask;
+            for (; slots.get(slot) != 0; slot = (slot + 1) & mask) {
+                int id = slots.get(slot) - 1;
+                if (hashes[id] == hash && matches(names[id], name, start, end)) return id;
+            }
+
+            int id = size;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+                hashes = Arrays.copyOf(hashes, id * 2);
+            }
+            names[id] = name.substring(start, end).replace("\"", "");
+            hashes[id] = hash;
+            slots.set(slot, id + 1);
+            size = id + 1;
+            if (size * 4 > slots.length() * 3) rehash();
+            return id;
+        }
+
+        // Whether a name is the one numbered id, compared in place
+        boolean is(int id, String name) {
+            int start = 0;
+            int end = name.length();
+            while (start < end && name.charAt(start) <= ' ') start++;
+            while (end > start && name.charAt(end - 1) <= ' ') end--;
+            return matches(names[id], name, start, end);
+        }
+
+        String name(int id) { return names[id]; }
+        int size() { return size; }
+
+        private int find(AtomicIntegerArray slots, int hash, String name, int start, int end) {
+            int mask = slots.length() - 1;
+            for (int slot = (hash ^ hash >>> 16) & mask; ; slot = (slot + 1) & mask) {
+                int entry = slots.get(slot);
+                if (entry == 0) return -1;
+                int id = entry - 1;
+                if (hashes[id] == hash && matches(names[id], name, start, end)) return id;
+            }
+        }
+
+        private static int hash(String name, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                char c = name.charAt(i);
+                if (c != '"') hash = 31 * hash + fold(c);
+            }
+            return hash;
+        }
+
+        // Case folding that agrees with String.equalsIgnoreCase
+        private static char fold(char c) {
+            if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        private static boolean matches(String normalized, String name, int start, int end) {
+            int j = 0;
+            for (int i = start; i < end; i++) {
+                char c = name.charAt(i);
+                if (c == '"') continue;
+                if (j == normalized.length() || fold(normalized.charAt(j)) != fold(c)) return false;
+                j++;
+            }
+            return j == normalized.length();
+        }
+
+        private void rehash() {
+            AtomicIntegerArray slots = new AtomicIntegerArray(table.length() * 2);
+            int mask = slots.length() - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = (hashes[id] ^ hashes[id] >>> 16) & mask;
+                while (slots.get(slot) != 0) slot = (slot + 1) & mask;
+                slots.set(slot, id + 1);
+            }
+            table = slots;
+        }
+    }
+
+    // Convert time control from "600" or "300+5" format to "X|Y" format
+    private static String formatTimeControl(String timeControlRaw) {
+        if (timeControlRaw == null || timeControlRaw.equals("?") || timeControlRaw.equals("-")) {
+            return "?|?";
+        }
+
+        try {
+            if (!timeControlRaw.contains("+")) {
+                int totalSeconds = Integer.parseInt(timeControlRaw);
+                int minutes = totalSeconds / 60;
+                return minutes + "|0";
+            } else {
+                String[] parts = timeControlRaw.split("\\+");
+                int baseSeconds = Integer.parseInt(parts[0]);
+                int incrementSeconds = Integer.parseInt(parts[1]);
+                int baseMinutes = baseSeconds / 60;
+                return baseMinutes + "|" + incrementSeconds;
+            }
+        } catch (NumberFormatException e) {
+            return "?|?";
+        }
+    }
+
+    // Game type by the base time of the time control, or Daily by the event.
+    // Time controls that are missing or not in seconds ("1/86400") are Unknown.
+    enum GameType {
+        BULLET("Bullet"), BLITZ("Blitz"), RAPID("Rapid"), CLASSICAL("Classical"),
+        CORRESPONDENCE("Correspondence"), DAILY("Daily"), UNKNOWN("Unknown");
+
+        final String label; // As reports, filters and the store name it
+
+        GameType(String label) {
+            this.label = label;
+        }
+
+        static GameType of(String timeControlRaw, String event) {
+            int totalTime = FilterParser.baseSeconds(timeControlRaw);
+            if (totalTime < 0) return UNKNOWN;
+
+            int minutes = totalTime / 60;
+            if (event != null && event.contains("Daily")) return DAILY;
+            if (minutes <= 1) return BULLET;
+            if (minutes <= 3) return BLITZ;
+            if (minutes <= 10) return RAPID;
+            if (minutes <= 30) return CLASSICAL;
+            return CORRESPONDENCE;
+        }
+    }
+
+    private static final ThreadLocal<MoveTextScanner> MOVE_SCANNER = ThreadLocal.withInitial(MoveTextScanner::new);
+
+    // Cleans the move text and counts its move tokens with plain character
+    // loops over reusable buffers, producing exactly what the old regex
+    // pipeline did:
+    //   remove \{\[%clk [^}]*\}\}, then \{\[%eval [^}]*\}\}
+    //   remove a trailing result marker (1-0, 0-1, 1/2-1/2)
+    //   collapse whitespace runs into one space and trim
+    // and then counting every token that is not a move number ("12." /
+    // "12...") or a result marker. Note that the comment patterns need a double
+    // closing brace, so Chess.com's usual {[%clk 0:02:59.9]} comments are kept.
+    // The first pass also reads the clock and eval annotations into annotations().
+    static class MoveTextScanner {
+        private static final String CLOCK_PREFIX = "{[%clk ";
+        private static final String EVAL_PREFIX = "{[%eval ";
+
+        private final StringBuilder input = new StringBuilder(1024);
+        private final MoveAnnotations annotations = new MoveAnnotations();
+        private char[] stage = new char[1024];
+        private char[] output = new char[1024];
+        private int length;
+
+        // Cleared buffer to collect the raw move text into
+        public StringBuilder input() {
+            input.setLength(0);
+            return input;
+        }
+
+        // Clean the collected input and return the number of move tokens (plies)
+        public int scan() {
+            return scan(input);
+        }
+
+        public int scan(CharSequence text) {
+            int n = text.length();
+            if (stage.length < n) {
+                stage = new char[Math.max(n, stage.length * 2)];
+                output = new char[stage.length];
+            }
+
+            // Pass 1: drop clock comments, reading the annotations of every comment
+            MoveAnnotations notes = annotations;
+            notes.reset();
+            int commentEnd = 0;
+            char[] staged = stage;
+            int stagedLength = 0;
+            for (int i = 0; i < n; ) {
+                char c = text.charAt(i);
+                if (i >= commentEnd) {
+                    if (c == '{') commentEnd = notes.comment(text, n, i);
+                    else notes.next(c);
+                }
+                if (c == '{') {
+                    int skipTo = commentEnd(text, n, i, CLOCK_PREFIX);
+                    if (skipTo >= 0) {
+                        i = skipTo;
+                        continue;
+                    }
+                }
+                staged[stagedLength++] = c;
+                i++;
+            }
+
+            // Pass 2: drop eval comments while collapsing whitespace
+            char[] out = output;
+            int len = 0;
+            boolean pendingSpace = false;
+            for (int i = 0; i < stagedLength; ) {
+                char c = staged[i];
+                if (c == '{') {
+                    int skipTo = commentEnd(staged, stagedLength, i, EVAL_PREFIX);
+                    if (skipTo >= 0) {
+                        i = skipTo;
+                        continue;
+                    }
+                }
+                if (isWhitespace(c)) {
+                    pendingSpace = true;
+                } else if (len > 0 || c > ' ') { // Leading control characters are trimmed
+                    if (pendingSpace && len > 0) out[len++] = ' ';
+                    pendingSpace = false;
+                    out[len++] = c;
+                }
+                i++;
+            }
+
+            // Drop a trailing result marker, then trim what is left
+            len = stripResultMarker(out, len);
+            while (len > 0 && out[len - 1] <= ' ') len--;
+            this.length = len;
+
+            int plies = 0;
+            int tokenStart = 0;
+            for (int i = 0; i <= len; i++) {
+                if (i == len || out[i] == ' ') {
+                    if (isPly(out, tokenStart, i)) plies++;
+                    tokenStart = i + 1;
+                }
+            }
+            return plies;
+        }
+
+        public String cleaned() {
+            return new String(output, 0, length);
+        }
+
+        // Clock and eval annotations of the last scan
+        public MoveAnnotations annotations() {
+            return annotations;
+        }
+
+        // End index of a {[%clk ...}} / {[%eval ...}} comment starting at i, or -1
+        private static int commentEnd(CharSequence text, int n, int i, String prefix) {
+            if (n - i < prefix.length()) return -1;
+            for (int k = 1; k < prefix.length(); k++) {
+                if (text.charAt(i + k) != prefix.charAt(k)) return -1;
+            }
+            for (int j = i + prefix.length(); j < n; j++) {
+                if (text.charAt(j) == '}') {
+                    return j + 1 < n && text.charAt(j + 1) == '}' ? j + 2 : -1;
+                }
+            }
+            return -1;
+        }
+
+        private static int commentEnd(char[] text, int n, int i, String prefix) {
+            if (n - i < prefix.length()) return -1;
+            for (int k = 1; k < prefix.length(); k++) {
+                if (text[i + k] != prefix.charAt(k)) return -1;
+            }
+            for (int j = i + prefix.length(); j < n; j++) {
+                if (text[j] == '}') {
+                    return j + 1 < n && text[j + 1] == '}' ? j + 2 : -1;
+                }
+            }
+            return -1;
+        }
+
+        private static int stripResultMarker(char[] out, int len) {
+            int end;
+            if (endsWith(out, len, "1/2-1/2")) end = len - 7;
+            else if (endsWith(out, len, "1-0") || endsWith(out, len, "0-1")) end = len - 3;
+            else return len;
+            while (end > 0 && out[end - 1] == ' ') end--;
+            return end;
+        }
+
+        private static boolean endsWith(char[] out, int len, String suffix) {
+            int start = len - suffix.length();
+            if (start < 0) return false;
+            for (int k = 0; k < suffix.length(); k++) {
+                if (out[start + k] != suffix.charAt(k)) return false;
+            }
+            return true;
+        }
+
+        // A token is a move unless it is a move number or a result marker
+        private static boolean isPly(char[] out, int from, int to) {
+            if (from >= to) return false;
+            int digitsEnd = from;
+            while (digitsEnd < to && out[digitsEnd] >= '0' && out[digitsEnd] <= '9') digitsEnd++;
+            if (digitsEnd > from) {
+                int dots = to - digitsEnd;
+                if ((dots == 1 || dots == 3) && allDots(out, digitsEnd, to)) return false;
+            }
+            int tokenLength = to - from;
+            if (tokenLength == 3) {
+                return !(regionEquals(out, from, "1-0") || regionEquals(out, from, "0-1"));
+            }
+            return !(tokenLength == 7 && regionEquals(out, from, "1/2-1/2"));
+        }
+
+        private static boolean allDots(char[] out, int from, int to) {
+            for (int k = from; k < to; k++) {
+                if (out[k] != '.') return false;
+            }
+            return true;
+        }
+
+        private static boolean regionEquals(char[] out, int from, String value) {
+            for (int k = 0; k < value.length(); k++) {
+                if (out[from + k] != value.charAt(k)) return false;
+            }
+            return true;
+        }
+
+        // Same set as the regex \s
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
+    }
+
+    // Clock and engine evaluation annotations of a game's move text, one slot
+    // per ply in primitive arrays: {[%clk 0:02:59.9]} as centiseconds left on
+    // the mover's clock and {[%eval 0.17]} as centipawns from White's side
+    // (mates as +-MATE). Plies are found the way GameReplayer finds moves:
+    // tokens starting with a letter once move numbers are skipped, outside of
+    // comments and variations. Reused from game to game.
+    static class MoveAnnotations {
+        static final int NO_CLOCK = -1;
+        static final short NO_EVAL = Short.MIN_VALUE;
+        static final short MATE = 30_000;
+
+        private int[] clocks = new int[256];
+        private short[] evals = new short[256];
+        private int plies;
+        private boolean hasClocks;
+        private boolean hasEvals;
+
+        // Token state between calls to next
+        private boolean inToken;
+        private boolean inMoveNumber;
+        private int variationDepth;
+
+        void reset() {
+            plies = 0;
+            hasClocks = false;
+            hasEvals = false;
+            inToken = false;
+            inMoveNumber = false;
+            variationDepth = 0;
+        }
+
+        // Annotate a whole move text
+        void read(CharSequence text) {
+            reset();
+            int n = text.length();
+            for (int i = 0; i < n; ) {
+                if (text.charAt(i) == '{') {
+                    i = comment(text, n, i);
+                } else {
+                    next(text.charAt(i++));
+                }
+            }
+        }
+
+        // Feed one character of the move text that is outside of a comment
+        void next(char c) {
+            if (c <= ' ') {
+                inToken = false;
+            } else if (c == '(') {
+                variationDepth++;
+                inToken = false;
+            } else if (c == ')') {
+                if (variationDepth > 0) variationDepth--;
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                inMoveNumber = c >= '0' && c <= '9';
+                if (!inMoveNumber) startToken(c);
+            } else if (inMoveNumber && !(c >= '0' && c <= '9' || c == '.')) {
+                inMoveNumber = false; // "12.e4"
+                startToken(c);
+            }
+        }
+
+        private void startToken(char c) {
+            if (variationDepth == 0 && (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+                if (plies == clocks.length) {
+                    clocks = Arrays.copyOf(clocks, plies * 2);
+                    evals = Arrays.copyOf(evals, plies * 2);
+                }
+                clocks[plies] = NO_CLOCK;
+                evals[plies] = NO_EVAL;
+                plies++;
+            }
+        }
+
+        // Read the annotations of the {...} comment at `open` into the last ply and
+        // return the index after it (the end of the text when it is not closed)
+        int comment(CharSequence text, int n, int open) {
+            inToken = false;
+            int close = open + 1;
+            while (close < n && text.charAt(close) != '}') close++;
+            if (plies > 0 && variationDepth == 0) {
+                for (int i = open + 1; i + 1 < close; i++) {
+                    if (text.charAt(i) != '[' || text.charAt(i + 1) != '%') continue;
+                    if (regionMatches(text, i + 2, close, "clk ")) {
+                        int clock = parseClock(text, i + 6, close);
+                        if (clock != NO_CLOCK) {
+                            clocks[plies - 1] = clock;
+                            hasClocks = true;
+                        }
+                    } else if (regionMatches(text, i + 2, close, "eval ")) {
+                        short eval = parseEval(text, i + 7, close);
+                        if (eval != NO_EVAL) {
+                            evals[plies - 1] = eval;
+                            hasEvals = true;
+                        }
+                    }
+                }
+            }
+            return Math.min(close + 1, n);
+        }
+
+        public int getPlies() { return plies; }
+        public boolean hasClocks() { return hasClocks; }
+        public boolean hasEvals() { return hasEvals; }
+        public int getClock(int ply) { return clocks[ply]; }
+        public short getEval(int ply) { return evals[ply]; }
+
+        // The reused arrays, valid for getPlies() plies until the next read; null when the game has none
+        int[] clocks() { return hasClocks ? clocks : null; }
+        short[] evals() { return hasEvals ? evals : null; }
+
+        // Copies for a game to keep, null when the game has none of them
+        int[] copyClocks() { return hasClocks ? Arrays.copyOf(clocks, plies) : null; }
+        short[] copyEvals() { return hasEvals ? Arrays.copyOf(evals, plies) : null; }
+
+        // [h:]mm:ss[.f] up to the closing ']' as centiseconds
+        private static int parseClock(CharSequence text, int start, int end) {
+            int seconds = 0;
+            int field = 0;
+            int centis = 0;
+            int i = start;
+            boolean digits = false;
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    field = field * 10 + (c - '0');
+                    digits = true;
+                    if (field > 1_000_000) return NO_CLOCK;
+                } else if (c == ':') {
+                    seconds = (seconds + field) * 60;
+                    field = 0;
+                } else {
+                    break;
+                }
+            }
+            if (!digits) return NO_CLOCK;
+            seconds += field;
+            if (i < end && text.charAt(i) == '.') {
+                int scale = 10;
+                for (i++; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                    centis += (text.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            if (i >= end || text.charAt(i) != ']' || seconds > 21_000_000) return NO_CLOCK;
+            return seconds * 100 + centis;
+        }
+
+        // Pawns ("-1.25") or a mate ("#3", "#-2") up to ']' or ',' as centipawns
+        private static short parseEval(CharSequence text, int start, int end) {
+            int i = start;
+            boolean mate = i < end && text.charAt(i) == '#';
+            if (mate) i++;
+            boolean negative = i < end && text.charAt(i) == '-';
+            if (negative || i < end && text.charAt(i) == '+') i++;
+            int whole = 0;
+            int centis = 0;
+            boolean digits = false;
+            for (; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                whole = Math.min(whole * 10 + (text.charAt(i) - '0'), MATE);
+                digits = true;
+            }
+            if (!mate && i < end && text.charAt(i) == '.') {
+                int scale = 10;
+                for (i++; i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+                    centis += (text.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            if (!digits || i >= end || text.charAt(i) != ']' && text.charAt(i) != ',') return NO_EVAL;
+            int value = mate ? MATE : Math.min(whole * 100 + centis, MATE - 1);
+            return (short) (negative ? -value : value);
+        }
+
+        private static boolean regionMatches(CharSequence text, int start, int end, String value) {
+            if (end - start < value.length()) return false;
+            for (int k = 0; k < value.length(); k++) {
+                if (text.charAt(start + k) != value.charAt(k)) return false;
+            }
+            return true;
+        }
+    }
+
+    // Bitboard position with legal move generation, make/unmake and an
+    // incrementally maintained Zobrist hash. Squares run 0 = a1 .. 63 = h8;
+    // pieces are 0-5 (white pawn, knight, bishop, rook, queen, king) and 6-11
+    // the same for black. Moves are packed ints and every buffer belongs to the
+    // board, so generating, making and unmaking moves allocates nothing.
+    static class Board {
+        static final int WHITE = 0;
+        static final int BLACK = 1;
+        static final int PAWN = 0;
+        static final int KNIGHT = 1;
+        static final int BISHOP = 2;
+        static final int ROOK = 3;
+        static final int QUEEN = 4;
+        static final int KING = 5;
+        static final int NO_PIECE = -1;
+        static final int NO_SQUARE = -1;
+        static final int NO_MOVE = 0;     // from == to never happens in a real move
+        static final int MAX_MOVES = 256; // More than any legal position has
+        static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+        // Move layout: from | to << 6 | promotion piece type << 12 | flag << 15
+        static final int FLAG_DOUBLE_PUSH = 1;
+        static final int FLAG_EN_PASSANT = 2;
+        static final int FLAG_CASTLE = 3;
+
+        static int move(int from, int to, int promotion, int flag) { return from | to << 6 | promotion << 12 | flag << 15; }
+        static int from(int move) { return move & 63; }
+        static int to(int move) { return move >>> 6 & 63; }
+        static int promotion(int move) { return move >>> 12 & 7; }
+        static int flag(int move) { return move >>> 15 & 3; }
+
+        private static final String PIECE_LETTERS = "PNBRQKpnbrqk";
+
+        // Castling rights are bits: 1 = white king side, 2 = white queen side,
+        // 4 = black king side, 8 = black queen side. A move keeps the rights in
+        // the masks of both its squares.
+        private static final int[] CASTLING_MASK = new int[64];
+
+        private static final long[] KNIGHT_ATTACKS = new long[64];
+        private static final long[] KING_ATTACKS = new long[64];
+        private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+        // Rays from a square, without it. Directions 0-3 (N, NE, E, NW) grow
+        // upwards, so their nearest blocker is the lowest bit; 4-7 (S, SW, W, SE)
+        // grow downwards. Odd directions are diagonals.
+        private static final int[][] DIRECTIONS = {{0, 1}, {1, 1}, {1, 0}, {-1, 1}, {0, -1}, {-1, -1}, {-1, 0}, {1, -1}};
+        private static final long[][] RAYS = new long[8][64];
+
+        // Fixed seed, so hashes are the same in every run and can be persisted
+        private static final long[][] PIECE_KEYS = new long[12][64];
+        private static final long[] CASTLING_KEYS = new long[16];
+        private static final long[] EN_PASSANT_KEYS = new long[8];
+        private static final long SIDE_KEY;
+
+        static {
+            int[][] knightJumps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+            for (int square = 0; square < 64; square++) {
+                int file = square & 7;
+                int rank = square >>> 3;
+                for (int[] jump : knightJumps) {
+                    KNIGHT_ATTACKS[square] |= bit(file + jump[0], rank + jump[1]);
+                }
+                for (int d = 0; d < 8; d++) {
+                    KING_ATTACKS[square] |= bit(file + DIRECTIONS[d][0], rank + DIRECTIONS[d][1]);
+                    long ray = 0;
+                    for (int f = file + DIRECTIONS[d][0], r = rank + DIRECTIONS[d][1];
+                         f >= 0 && f < 8 && r >= 0 && r < 8; f += DIRECTIONS[d][0], r += DIRECTIONS[d][1]) {
+                        ray |= 1L << (r * 8 + f);
+                    }
+                    RAYS[d][square] = ray;
+                }
+                PAWN_ATTACKS[WHITE][square] = bit(file - 1, rank + 1) | bit(file + 1, rank + 1);
+                PAWN_ATTACKS[BLACK][square] = bit(file - 1, rank - 1) | bit(file + 1, rank - 1);
+                CASTLING_MASK[square] = 15;
+            }
+            CASTLING_MASK[4] = 15 & ~3;
+            CASTLING_MASK[7] = 15 & ~1;
+            CASTLING_MASK[0] = 15 & ~2;
+            CASTLING_MASK[60] = 15 & ~12;
+            CASTLING_MASK[63] = 15 & ~4;
+            CASTLING_MASK[56] = 15 & ~8;
+
+            SplittableRandom random = new SplittableRandom(0x5EED_C0DE_2024L);
+            for (long[] keys : PIECE_KEYS) {
+                for (int square = 0; square < 64; square++) keys[square] = random.nextLong();
+            }
+            for (int rights = 1; rights < 16; rights++) CASTLING_KEYS[rights] = random.nextLong();
+            for (int file = 0; file < 8; file++) EN_PASSANT_KEYS[file] = random.nextLong();
+            SIDE_KEY = random.nextLong();
+        }
+
+        private static long bit(int file, int rank) {
+            return file >= 0 && file < 8 && rank >= 0 && rank < 8 ? 1L << (rank * 8 + file) : 0;
+        }
+
+        private static final Board START = new Board(START_FEN);
+
+        private final long[] pieces = new long[12];
+        private final long[] colors = new long[2];
+        private final int[] squares = new int[64];
+        private int side;
+        private int castling;
+        private int epSquare;   // Only set when a pawn can capture there, so transpositions hash alike
+        private int halfmoveClock;
+        private int fullmoveNumber;
+        private long hash;
+
+        // Undo stack of make(): the hash, and captured piece + 1 | castling << 4 | ep + 1 << 8 | halfmove clock << 15
+        private int depth = 0;
+        private long[] undoHash = new long[512];
+        private int[] undoState = new int[512];
+
+        private final int[] moveBuffer = new int[MAX_MOVES]; // Scratch list for SAN decoding and encoding
+        private int[] perftMoves = new int[0];               // One MAX_MOVES slice per remaining depth
+
+        Board() {
+            reset();
+        }
+
+        Board(String fen) {
+            setFen(fen);
+        }
+
+        // Back to the standard start position, without allocating
+        void reset() {
+            if (START == null) { // Building START itself
+                setFen(START_FEN);
+                return;
+            }
+            System.arraycopy(START.pieces, 0, pieces, 0, pieces.length);
+            System.arraycopy(START.colors, 0, colors, 0, colors.length);
+            System.arraycopy(START.squares, 0, squares, 0, squares.length);
+            side = START.side;
+            castling = START.castling;
+            epSquare = START.epSquare;
+            halfmoveClock = START.halfmoveClock;
+            fullmoveNumber = START.fullmoveNumber;
+            hash = START.hash;
+            depth = 0;
+        }
+
+        void setFen(String fen) {
+            String[] fields = fen.trim().split("\\s+");
+            if (fields.length < 2) throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": expected at least placement and side");
+            Arrays.fill(pieces, 0);
+            Arrays.fill(colors, 0);
+            Arrays.fill(squares, NO_PIECE);
+            hash = 0;
+            depth = 0;
+
+            int rank = 7;
+            int file = 0;
+            for (int i = 0; i < fields[0].length(); i++) {
+                char c = fields[0].charAt(i);
+                if (c == '/') {
+                    if (file != 8 || --rank < 0) throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": bad rank " + (rank + 1));
+                    file = 0;
+                } else if (c >= '1' && c <= '8') {
+                    file += c - '0';
+                } else {
+                    int piece = PIECE_LETTERS.indexOf(c);
+                    if (piece < 0 || file > 7) throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": unexpected '" + c + "'");
+                    addPiece(rank * 8 + file++, piece);
+                }
+            }
+            if (rank != 0 || file != 8) throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": expected 8 ranks of 8 squares");
+            if (Long.bitCount(pieces[KING]) != 1 || Long.bitCount(pieces[6 + KING]) != 1) {
+                throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": each side needs exactly one king");
+            }
+
+            if (!fields[1].equals("w") && !fields[1].equals("b")) throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": side must be w or b");
+            side = fields[1].equals("w") ? WHITE : BLACK;
+
+            // Rights whose king or rook has moved are dropped
+            castling = 0;
+            String rights = fields.length > 2 ? fields[2] : "-";
+            if (rights.indexOf('K') >= 0 && squares[4] == KING && squares[7] == ROOK) castling |= 1;
+            if (rights.indexOf('Q') >= 0 && squares[4] == KING && squares[0] == ROOK) castling |= 2;
+            if (rights.indexOf('k') >= 0 && squares[60] == 6 + KING && squares[63] == 6 + ROOK) castling |= 4;
+            if (rights.indexOf('q') >= 0 && squares[60] == 6 + KING && squares[56] == 6 + ROOK) castling |= 8;
+            hash ^= CASTLING_KEYS[castling];
+
+            epSquare = NO_SQUARE;
+            String ep = fields.length > 3 ? fields[3] : "-";
+            if (ep.length() == 2 && ep.charAt(0) >= 'a' && ep.charAt(0) <= 'h' && (ep.charAt(1) == '3' || ep.charAt(1) == '6')) {
+                setEnPassant((ep.charAt(1) - '1') * 8 + ep.charAt(0) - 'a');
+            }
+            try {
+                halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+                fullmoveNumber = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid FEN \"" + fen + "\": bad move counters");
+            }
+            if (side == BLACK) hash ^= SIDE_KEY;
+        }
+
+        String toFen() {
+            StringBuilder fen = new StringBuilder(90);
+            for (int rank = 7; rank >= 0; rank--) {
+                int empty = 0;
+                for (int file = 0; file < 8; file++) {
+                    int piece = squares[rank * 8 + file];
+                    if (piece == NO_PIECE) {
+                        empty++;
+                        continue;
+                    }
+                    if (empty > 0) fen.append(empty);
+                    empty = 0;
+                    fen.append(PIECE_LETTERS.charAt(piece));
+                }
+                if (empty > 0) fen.append(empty);
+                if (rank > 0) fen.append('/');
+            }
+            fen.append(side == WHITE ? " w " : " b ");
+            if (castling == 0) fen.append('-');
+            if ((castling & 1) != 0) fen.append('K');
+            if ((castling & 2) != 0) fen.append('Q');
+            if ((castling & 4) != 0) fen.append('k');
+            if ((castling & 8) != 0) fen.append('q');
+            fen.append(' ');
+            if (epSquare == NO_SQUARE) fen.append('-');
+            else appendSquare(fen, epSquare);
+            return fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+        }
+
+        public long getHash() { return hash; }
+        public int getSideToMove() { return side; }
+        public int getPiece(int square) { return squares[square]; }
+
+        // The hash computed from scratch, to check the incremental one
+        long computeHash() {
+            long h = CASTLING_KEYS[castling];
+            for (int square = 0; square < 64; square++) {
+                if (squares[square] != NO_PIECE) h ^= PIECE_KEYS[squares[square]][square];
+            }
+            if (epSquare != NO_SQUARE) h ^= EN_PASSANT_KEYS[epSquare & 7];
+            return side == BLACK ? h ^ SIDE_KEY : h;
+        }
+
+        private void addPiece(int square, int piece) {
+            long bit = 1L << square;
+            pieces[piece] |= bit;
+            colors[piece / 6] |= bit;
+            squares[square] = piece;
+            hash ^= PIECE_KEYS[piece][square];
+        }
+
+        private int removePiece(int square) {
+            int piece = squares[square];
+            long bit = 1L << square;
+            pieces[piece] ^= bit;
+            colors[piece / 6] ^= bit;
+            squares[square] = NO_PIECE;
+            hash ^= PIECE_KEYS[piece][square];
+            return piece;
+        }
+
+        // Record the en passant square only if a pawn of the side to move attacks it
+        private void setEnPassant(int square) {
+            if ((PAWN_ATTACKS[side ^ 1][square] & pieces[side * 6 + PAWN]) != 0) {
+                epSquare = square;
+                hash ^= EN_PASSANT_KEYS[square & 7];
+            }
+        }
+
+        void make(int move) {
+            int from = from(move);
+            int to = to(move);
+            int flag = flag(move);
+            int captureSquare = flag == FLAG_EN_PASSANT ? to ^ 8 : to;
+            int captured = squares[captureSquare];
+            if (depth == undoHash.length) {
+                undoHash = Arrays.copyOf(undoHash, depth * 2);
+                undoState = Arrays.copyOf(undoState, depth * 2);
+            }
+            undoHash[depth] = hash;
+            undoState[depth++] = (captured + 1) | castling << 4 | (epSquare + 1) << 8 | halfmoveClock << 15;
+
+            if (epSquare != NO_SQUARE) {
+                hash ^= EN_PASSANT_KEYS[epSquare & 7];
+                epSquare = NO_SQUARE;
+            }
+            if (captured != NO_PIECE) removePiece(captureSquare);
+            int piece = removePiece(from);
+            int promotion = promotion(move);
+            addPiece(to, promotion != 0 ? side * 6 + promotion : piece);
+            if (flag == FLAG_CASTLE) {
+                addPiece(to > from ? to - 1 : to + 1, removePiece(to > from ? to + 1 : to - 2));
+            }
+
+            int rights = castling & CASTLING_MASK[from] & CASTLING_MASK[to];
+            hash ^= CASTLING_KEYS[castling] ^ CASTLING_KEYS[rights];
+            castling = rights;
+            halfmoveClock = piece % 6 == PAWN || captured != NO_PIECE ? 0 : halfmoveClock + 1;
+            if (side == BLACK) fullmoveNumber++;
+            side ^= 1;
+            hash ^= SIDE_KEY;
+            if (flag == FLAG_DOUBLE_PUSH) setEnPassant((from + to) >>> 1);
+        }
+
+        void unmake(int move) {
+            int from = from(move);
+            int to = to(move);
+            int flag = flag(move);
+            side ^= 1;
+            if (side == BLACK) fullmoveNumber--;
+
+            int piece = removePiece(to);
+            addPiece(from, promotion(move) != 0 ? side * 6 + PAWN : piece);
+            if (flag == FLAG_CASTLE) {
+                addPiece(to > from ? to + 1 : to - 2, removePiece(to > from ? to - 1 : to + 1));
+            }
+            int state = undoState[--depth];
+            int captured = (state & 15) - 1;
+            if (captured != NO_PIECE) addPiece(flag == FLAG_EN_PASSANT ? to ^ 8 : to, captured);
+            castling = state >>> 4 & 15;
+            epSquare = (state >>> 8 & 127) - 1;
+            halfmoveClock = state >>> 15;
+            hash = undoHash[depth];
+        }
+
+        boolean isInCheck() {
+            return isAttacked(Long.numberOfTrailingZeros(pieces[side * 6 + KING]), side ^ 1);
+        }
+
+        boolean isAttacked(int square, int by) {
+            int base = by * 6;
+            if ((PAWN_ATTACKS[by ^ 1][square] & pieces[base + PAWN]) != 0) return true;
+            if ((KNIGHT_ATTACKS[square] & pieces[base + KNIGHT]) != 0) return true;
+            if ((KING_ATTACKS[square] & pieces[base + KING]) != 0) return true;
+            long occupied = colors[WHITE] | colors[BLACK];
+            long queens = pieces[base + QUEEN];
+            return (bishopAttacks(square, occupied) & (pieces[base + BISHOP] | queens)) != 0
+                    || (rookAttacks(square, occupied) & (pieces[base + ROOK] | queens)) != 0;
+        }
+
+        private static long ray(int direction, int square, long occupied) {
+            long attacks = RAYS[direction][square];
+            long blockers = attacks & occupied;
+            if (blockers != 0) {
+                int blocker = direction < 4 ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+                attacks ^= RAYS[direction][blocker];
+            }
+            return attacks;
+        }
+
+        private static long bishopAttacks(int square, long occupied) {
+            return ray(1, square, occupied) | ray(3, square, occupied) | ray(5, square, occupied) | ray(7, square, occupied);
+        }
+
+        private static long rookAttacks(int square, long occupied) {
+            return ray(0, square, occupied) | ray(2, square, occupied) | ray(4, square, occupied) | ray(6, square, occupied);
+        }
+
+        // Whether the move, pseudo-legal in this position, keeps the own king out of check
+        boolean isLegal(int move) {
+            make(move);
+            boolean legal = !isAttacked(Long.numberOfTrailingZeros(pieces[(side ^ 1) * 6 + KING]), side);
+            unmake(move);
+            return legal;
+        }
+
+        // Write the legal moves to moves[offset..] and return how many there are
+        int generateLegal(int[] moves, int offset) {
+            int end = generatePseudoLegal(moves, offset);
+            int legal = offset;
+            for (int i = offset; i < end; i++) {
+                if (isLegal(moves[i])) moves[legal++] = moves[i];
+            }
+            return legal - offset;
+        }
+
+        // Write the pseudo-legal moves to moves[offset..] and return the end index.
+        // Castling is only generated when the king does not pass through check.
+        private int generatePseudoLegal(int[] moves, int n) {
+            int us = side;
+            int them = us ^ 1;
+            long own = colors[us];
+            long enemy = colors[them];
+            long occupied = own | enemy;
+            int base = us * 6;
+
+            int forward = us == WHITE ? 8 : -8;
+            long startRank = us == WHITE ? 0xFF00L : 0xFF000000000000L;
+            long pawns = pieces[base + PAWN];
+            while (pawns != 0) {
+                int from = Long.numberOfTrailingZeros(pawns);
+                pawns &= pawns - 1;
+                int to = from + forward;
+                if ((occupied & 1L << to) == 0) {
+                    n = addPawnMoves(moves, n, from, to);
+                    if ((startRank & 1L << from) != 0 && (occupied & 1L << (to + forward)) == 0) {
+                        moves[n++] = move(from, to + forward, 0, FLAG_DOUBLE_PUSH);
+                    }
+                }
+                long captures = PAWN_ATTACKS[us][from] & enemy;
+                while (captures != 0) {
+                    n = addPawnMoves(moves, n, from, Long.numberOfTrailingZeros(captures));
+                    captures &= captures - 1;
+                }
+                if (epSquare != NO_SQUARE && (PAWN_ATTACKS[us][from] & 1L << epSquare) != 0) {
+                    moves[n++] = move(from, epSquare, 0, FLAG_EN_PASSANT);
+                }
+            }
+
+            for (int type = KNIGHT; type <= KING; type++) {
+                long movers = pieces[base + type];
+                while (movers != 0) {
+                    int from = Long.numberOfTrailingZeros(movers);
+                    movers &= movers - 1;
+                    long targets = attacks(type, from, occupied) & ~own;
+                    while (targets != 0) {
+                        moves[n++] = move(from, Long.numberOfTrailingZeros(targets), 0, 0);
+                        targets &= targets - 1;
+                    }
+                }
+            }
+
+            int king = us == WHITE ? 4 : 60;
+            int kingSide = us == WHITE ? 1 : 4;
+            if ((castling & (kingSide | kingSide << 1)) != 0 && !isAttacked(king, them)) {
+                if ((castling & kingSide) != 0 && (occupied & 3L << (king + 1)) == 0
+                        && !isAttacked(king + 1, them) && !isAttacked(king + 2, them)) {
+                    moves[n++] = move(king, king + 2, 0, FLAG_CASTLE);
+                }
+                if ((castling & kingSide << 1) != 0 && (occupied & 7L << (king - 3)) == 0
+                        && !isAttacked(king - 1, them) && !isAttacked(king - 2, them)) {
+                    moves[n++] = move(king, king - 2, 0, FLAG_CASTLE);
+                }
+            }
+            return n;
+        }
+
+        private static int addPawnMoves(int[] moves, int n, int from, int to) {
+            if (to >= 56 || to < 8) {
+                for (int promotion = QUEEN; promotion >= KNIGHT; promotion--) {
+                    moves[n++] = move(from, to, promotion, 0);
+                }
+            } else {
+                moves[n++] = move(from, to, 0, 0);
+            }
+            return n;
+        }
+
+        private static long attacks(int type, int square, long occupied) {
+            switch (type) {
+                case KNIGHT: return KNIGHT_ATTACKS[square];
+                case BISHOP: return bishopAttacks(square, occupied);
+                case ROOK: return rookAttacks(square, occupied);
+                case QUEEN: return bishopAttacks(square, occupied) | rookAttacks(square, occupied);
+                default: return KING_ATTACKS[square];
+            }
+        }
+
+        // Leaf nodes of the legal move tree `depth` plies deep; with verifyHash
+        // every incremental hash on the way is checked against computeHash()
+        long perft(int depth, boolean verifyHash) {
+            if (depth <= 0) return 1;
+            if (perftMoves.length < depth * MAX_MOVES) perftMoves = new int[depth * MAX_MOVES];
+            return perftNode(depth, verifyHash);
+        }
+
+        private long perftNode(int depth, boolean verifyHash) {
+            if (verifyHash && hash != computeHash()) {
+                throw new IllegalStateException("Incremental hash differs from the recomputed one at " + toFen());
+            }
+            if (depth == 0) return 1;
+            int offset = (depth - 1) * MAX_MOVES;
+            int count = generateLegal(perftMoves, offset);
+            if (depth == 1 && !verifyHash) return count;
+
+            long nodes = 0;
+            for (int i = offset; i < offset + count; i++) {
+                make(perftMoves[i]);
+                nodes += perftNode(depth - 1, verifyHash);
+                unmake(perftMoves[i]);
+            }
+            return nodes;
+        }
+
+        // The legal move written in SAN as text[start, end), or NO_MOVE when there
+        // is none or it is ambiguous. Check marks and annotations are ignored, both
+        // O-O and 0-0 castle, and a promotion without a piece promotes to a queen.
+        int parseSan(CharSequence text, int start, int end) {
+            while (end > start && "+#!?".indexOf(text.charAt(end - 1)) >= 0) end--;
+            if (end - start < 2) return NO_MOVE;
+
+            char first = text.charAt(start);
+            if (first == 'O' || first == '0') {
+                int length = end - start;
+                if (length != 3 && length != 5) return NO_MOVE;
+                for (int i = start; i < end; i++) {
+                    if (text.charAt(i) != ((i - start) % 2 == 0 ? first : '-')) return NO_MOVE;
+                }
+                int king = side == WHITE ? 4 : 60;
+                return findMove(KING, king & 7, king >>> 3, length == 3 ? king + 2 : king - 2, 0, true);
+            }
+
+            int type = PAWN;
+            int pieceIndex = "NBRQK".indexOf(first);
+            if (pieceIndex >= 0) {
+                type = pieceIndex + 1;
+                start++;
+            }
+            int promotion = 0;
+            if (type == PAWN) {
+                int promotionIndex = "NBRQnbrq".indexOf(text.charAt(end - 1));
+                if (promotionIndex >= 0) {
+                    promotion = promotionIndex % 4 + 1;
+                    end--;
+                    if (end > start && text.charAt(end - 1) == '=') end--;
+                }
+            }
+            if (end - start < 2) return NO_MOVE;
+
+            int toFile = text.charAt(end - 2) - 'a';
+            int toRank = text.charAt(end - 1) - '1';
+            if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7) return NO_MOVE;
+            int fromFile = -1;
+            int fromRank = -1;
+            for (int i = start; i < end - 2; i++) {
+                char c = text.charAt(i);
+                if (c >= 'a' && c <= 'h') fromFile = c - 'a';
+                else if (c >= '1' && c <= '8') fromRank = c - '1';
+                else if (c != 'x' && c != ':' && c != '-') return NO_MOVE;
+            }
+            if (type == PAWN && (toRank == 7 || toRank == 0) && promotion == 0) promotion = QUEEN;
+            return findMove(type, fromFile, fromRank, toRank * 8 + toFile, promotion, false);
+        }
+
+        // The single legal move matching a decoded SAN move, or NO_MOVE. The
+        // candidate origins are found backwards from the target square, so no
+        // move list is generated except for castling.
+        private int findMove(int type, int fromFile, int fromRank, int to, int promotion, boolean castle) {
+            int piece = side * 6 + type;
+            if (castle) {
+                int end = generatePseudoLegal(moveBuffer, 0);
+                for (int i = 0; i < end; i++) {
+                    if (flag(moveBuffer[i]) == FLAG_CASTLE && to(moveBuffer[i]) == to && isLegal(moveBuffer[i])) return moveBuffer[i];
+                }
+                return NO_MOVE;
+            }
+            if ((colors[side] & 1L << to) != 0) return NO_MOVE;
+            if (type != PAWN && promotion != 0) return NO_MOVE;
+
+            long occupied = colors[WHITE] | colors[BLACK];
+            long origins;
+            int flag = 0;
+            if (type != PAWN) {
+                origins = attacks(type, to, occupied) & pieces[piece];
+            } else if ((colors[side ^ 1] & 1L << to) != 0 || to == epSquare) {
+                origins = PAWN_ATTACKS[side ^ 1][to] & pieces[piece];
+                if (to == epSquare) flag = FLAG_EN_PASSANT;
+            } else {
+                int back = side == WHITE ? -8 : 8;
+                origins = pieces[piece] & 1L << (to + back);
+                if (origins == 0 && to >>> 3 == (side == WHITE ? 3 : 4) && (occupied & 1L << (to + back)) == 0) {
+                    origins = pieces[piece] & 1L << (to + 2 * back);
+                    flag = FLAG_DOUBLE_PUSH;
+                }
+            }
+            if (type == PAWN && (to >= 56 || to < 8) != (promotion != 0)) return NO_MOVE;
+
+            int found = NO_MOVE;
+            while (origins != 0) {
+                int from = Long.numberOfTrailingZeros(origins);
+                origins &= origins - 1;
+                if ((fromFile >= 0 && (from & 7) != fromFile) || (fromRank >= 0 && from >>> 3 != fromRank)) continue;
+                int move = move(from, to, promotion, flag);
+                if (!isLegal(move)) continue;
+                if (found != NO_MOVE) return NO_MOVE;
+                found = move;
+            }
+            return found;
+        }
+
+        // Append the SAN of a legal move in this position, with its check or mate mark
+        void appendSan(int move, StringBuilder out) {
+            int from = from(move);
+            int to = to(move);
+            int type = squares[from] % 6;
+            if (flag(move) == FLAG_CASTLE) {
+                out.append(to > from ? "O-O" : "O-O-O");
+            } else if (type == PAWN) {
+                if (from % 8 != to % 8) out.append((char) ('a' + (from & 7))).append('x');
+                appendSquare(out, to);
+                if (promotion(move) != 0) out.append('=').append(PIECE_LETTERS.charAt(promotion(move)));
+            } else {
+                out.append(PIECE_LETTERS.charAt(type));
+                // Disambiguate by file, else by rank, else by both
+                boolean ambiguous = false;
+                boolean sameFile = false;
+                boolean sameRank = false;
+                int end = generatePseudoLegal(moveBuffer, 0);
+                for (int i = 0; i < end; i++) {
+                    int other = from(moveBuffer[i]);
+                    if (to(moveBuffer[i]) != to || other == from || squares[other] != squares[from] || !isLegal(moveBuffer[i])) continue;
+                    ambiguous = true;
+                    sameFile |= (other & 7) == (from & 7);
+                    sameRank |= other >>> 3 == from >>> 3;
+                }
+                if (ambiguous && (!sameFile || sameRank)) out.append((char) ('a' + (from & 7)));
+                if (ambiguous && sameFile) out.append((char) ('1' + (from >>> 3)));
+                if (squares[to] != NO_PIECE) out.append('x');
+                appendSquare(out, to);
+            }
+
+            make(move);
+            if (isInCheck()) out.append(generateLegal(moveBuffer, 0) == 0 ? '#' : '+');
+            unmake(move);
+        }
+
+        private static void appendSquare(StringBuilder out, int square) {
+            out.append((char) ('a' + (square & 7))).append((char) ('1' + (square >>> 3)));
+        }
+    }
+
+    // Replays PGN move text into Board positions. Comments, NAGs, variations,
+    // move numbers and the result are skipped, so both raw and cleaned move
+    // text work. A replayer is reused game after game and allocates nothing.
+    static class GameReplayer {
+        interface PositionVisitor {
+            // Called for the start position (ply 0) and after every ply; false stops the replay
+            boolean position(int ply, Board board);
+        }
+
+        private final Board board = new Board();
+        private int plies;
+        private int lastMove = Board.NO_MOVE;
+
+        // Replay from the standard start position. Returns false when a move could
+        // not be decoded; the positions up to it have been visited.
+        public boolean replay(CharSequence moveText, PositionVisitor visitor) {
+            board.reset();
+            plies = 0;
+            lastMove = Board.NO_MOVE;
+            if (visitor != null && !visitor.position(0, board)) return true;
+
+            int n = moveText.length();
+            int i = 0;
+            while (i < n) {
+                char c = moveText.charAt(i);
+                if (c <= ' ' || c == ')') {
+                    i++;
+                } else if (c == '{') {
+                    int close = indexOf(moveText, '}', i + 1);
+                    i = close < 0 ? n : close + 1;
+                } else if (c == ';') {
+                    int close = indexOf(moveText, '\n', i + 1);
+                    i = close < 0 ? n : close + 1;
+                } else if (c == '(') {
+                    i = skipVariation(moveText, i);
+                } else if (c == '*') {
+                    return true;
+                } else {
+                    int start = i;
+                    while (i < n && !isDelimiter(moveText.charAt(i))) i++;
+                    if (c == '$') continue;
+
+                    // Results end the game; move numbers ("12.", "12...") may be glued to the move
+                    if (isResult(moveText, start, i)) return true;
+                    if (c >= '1' && c <= '9' || c == '0' && !(i - start >= 3 && moveText.charAt(start + 1) == '-')) {
+                        while (start < i && (moveText.charAt(start) >= '0' && moveText.charAt(start) <= '9'
+                                || moveText.charAt(start) == '.')) {
+                            start++;
+                        }
+                        if (start == i) continue;
+                    }
+
+                    int move = board.parseSan(moveText, start, i);
+                    if (move == Board.NO_MOVE) return false;
+                    board.make(move);
+                    lastMove = move;
+                    plies++;
+                    if (visitor != null && !visitor.position(plies, board)) return true;
+                }
+            }
+            return true;
+        }
+
+        public Board getBoard() { return board; }
+        public int getPlies() { return plies; }
+        public int getLastMove() { return lastMove; }
+
+        private static boolean isDelimiter(char c) {
+            return c <= ' ' || c == '{' || c == '(' || c == ')' || c == ';';
+        }
+
+        private static boolean isResult(CharSequence text, int start, int end) {
+            int length = end - start;
+            return length == 3 && (regionEquals(text, start, "1-0") || regionEquals(text, start, "0-1"))
+                    || length == 7 && regionEquals(text, start, "1/2-1/2");
+        }
+
+        private static boolean regionEquals(CharSequence text, int start, String value) {
+            for (int k = 0; k < value.length(); k++) {
+                if (text.charAt(start + k) != value.charAt(k)) return false;
+            }
+            return true;
+        }
+
+        private static int indexOf(CharSequence text, char c, int from) {
+            for (int i = from; i < text.length(); i++) {
+                if (text.charAt(i) == c) return i;
+            }
+            return -1;
+        }
+
+        // Index after the variation opened at `open`, including nested ones and their comments
+        private static int skipVariation(CharSequence text, int open) {
+            int nesting = 0;
+            for (int i = open; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '{') {
+                    int close = indexOf(text, '}', i + 1);
+                    if (close < 0) return text.length();
+                    i = close;
+                } else if (c == '(') {
+                    nesting++;
+                } else if (c == ')' && --nesting == 0) {
+                    return i + 1;
+                }
+            }
+            return text.length();
+        }
+    }
+
+    // Perft suite: counts the leaf nodes of well-known positions and compares
+    // them with the published numbers, which exercises every move rule
+    // (castling through check, en passant pins, promotions). Depths up to 3
+    // also check the incremental Zobrist hash at every node.
+    static class Perft {
+        private static final int HASH_CHECK_DEPTH = 3;
+
+        // FEN and the node counts for depth 1, 2, ...
+        private static final Object[][] POSITIONS = {
+            {Board.START_FEN, new long[]{20, 400, 8_902, 197_281, 4_865_609, 119_060_324}},
+            {"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    new long[]{48, 2_039, 97_862, 4_085_603, 193_690_690}},
+            {"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", new long[]{14, 191, 2_812, 43_238, 674_624, 11_030_083}},
+            {"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    new long[]{6, 264, 9_467, 422_333, 15_833_292}},
+            {"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", new long[]{44, 1_486, 62_379, 2_103_487, 89_941_194}},
+            {"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                    new long[]{46, 2_079, 89_890, 3_894_594, 164_075_551}},
+        };
+
+        // Run the suite up to maxDepth plies; true when every count matches
+        static boolean run(int maxDepth) {
+            System.out.printf("%-6s %5s %14s %14s %12s  %s%n", "Result", "Depth", "Nodes", "Expected", "Nodes/s", "Position");
+            int failures = 0;
+            int checks = 0;
+            long totalNodes = 0;
+            long totalNanos = 0;
+            for (Object[] position : POSITIONS) {
+                String fen = (String) position[0];
+                long[] expected = (long[]) position[1];
+                Board board = new Board(fen);
+                for (int depth = 1; depth <= Math.min(maxDepth, expected.length); depth++) {
+                    long started = System.nanoTime();
+                    long nodes = board.perft(depth, depth <= HASH_CHECK_DEPTH);
+                    long elapsed = System.nanoTime() - started;
+                    boolean ok = nodes == expected[depth - 1] && board.toFen().equals(new Board(fen).toFen());
+                    if (!ok) failures++;
+                    checks++;
+                    totalNodes += nodes;
+                    totalNanos += elapsed;
+                    System.out.printf("%-6s %5d %14d %14d %12.0f  %s%n", ok ? "ok" : "FAIL", depth, nodes,
+                            expected[depth - 1], nodes * 1e9 / Math.max(1, elapsed), fen);
+                }
+            }
+            System.out.printf("%nPerft: %d of %d check(s) passed, %d nodes at %.0f nodes/s%n",
+                    checks - failures, checks, totalNodes, totalNodes * 1e9 / Math.max(1, totalNanos));
+            return failures == 0;
+        }
+
+        // Node counts of one position for depth 1..maxDepth, without expectations
+        static void run(String fen, int maxDepth) {
+            Board board = new Board(fen);
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                long started = System.nanoTime();
+                long nodes = board.perft(depth, false);
+                long elapsed = System.nanoTime() - started;
+                System.out.printf("depth %d: %d nodes (%.0f nodes/s)%n", depth, nodes, nodes * 1e9 / Math.max(1, elapsed));
+            }
+        }
+    }
+
+    // Opening explorer over the first plies of a user's games. Positions are
+    // keyed by their Zobrist hash, so move orders that transpose share one
+    // entry, and the user's color is folded into the key so that the White and
+    // Black repertoires stay apart. Entries live in parallel primitive arrays
+    // of an open-addressing table with linear probing (about 48 bytes each).
+    // Each entry remembers the position it was first reached from, which is
+    // enough to print the line leading to it; the moves out of a position are
+    // found by probing its legal moves, which also finds transposed children.
+    static class OpeningTree implements StatsAggregator<OpeningTree> {
+        // Plies replayed per game (-Dchess.openings.plies, 0 turns the explorer off)
+        static final int DEFAULT_PLIES = Integer.getInteger("chess.openings.plies", 10);
+
+        private static final long EMPTY = 0;
+        private static final long BLACK_KEY = 0x9E3779B97F4A7C15L; // Folded into the keys of games played as Black
+        private static final long START_HASH = new Board().getHash();
+        private static final ThreadLocal<OpeningLine> LINE = ThreadLocal.withInitial(OpeningLine::new);
+
+        private final int plies;
+        private long[] keys;
+        private int[] games;
+        private int[] wins;
+        private int[] losses;
+        private int[] draws;
+        private int[] rated;        // Games with a known opponent rating
+        private long[] ratingSums;  // Sum of those opponent ratings
+        private long[] parents;     // Key this position was first reached from, EMPTY for the start
+        private int[] moves;        // The move from that parent
+        private int size = 0;
+
+        OpeningTree() {
+            this(DEFAULT_PLIES);
+        }
+
+        OpeningTree(int plies) {
+            this.plies = plies;
+            allocate(64);
+        }
+
+        // Count the game in every position of its first plies. Color and result
+        // use the game store codes; games of an unknown color, and games with a
+        // move among those plies that does not replay, are skipped.
+        void addGame(CharSequence moveText, int color, int result, int opponentRating) {
+            if (plies <= 0 || color > 1) return;
+            OpeningLine line = LINE.get();
+            if (!line.record(moveText, plies)) return;
+
+            long colorKey = color == 1 ? BLACK_KEY : 0;
+            long parent = EMPTY;
+            for (int ply = 0; ply <= line.count; ply++) {
+                long key = key(line.hashes[ply], colorKey);
+                if (!line.isRepetition(ply)) {
+                    int slot = insert(key, parent, ply == 0 ? Board.NO_MOVE : line.moves[ply]);
+                    add(slot, 1, result == 0 ? 1 : 0, result == 1 ? 1 : 0, result == 2 ? 1 : 0,
+                            opponentRating > 0 ? 1 : 0, Math.max(0, opponentRating));
+                }
+                parent = key;
+            }
+        }
+
+        @Override
+        public void accumulate(GameRecord game) {
+            // Games set up from a FEN do not start from the position the tree is rooted at
+            if (plies > 0 && game.isStandardStart()) addGame(game.getMoveText(), game.getColor(), game.getResult(), game.getOpponentRating());
+        }
+
+        // Fold in the games of another tree; first-reached parents of this tree win
+        @Override
+        public void merge(OpeningTree other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] == EMPTY) continue;
+                int slot = insert(other.keys[i], other.parents[i], other.moves[i]);
+                add(slot, other.games[i], other.wins[i], other.losses[i], other.draws[i], other.rated[i], other.ratingSums[i]);
+            }
+        }
+
+        @Override
+        public void render(ReportRenderer out) throws IOException {
+            if (isEmpty()) return;
+            out.beginSection("OPENING EXPLORER");
+            renderOpenings(out, this);
+            out.endSection();
+        }
+
+        // Slot of a position for the user's color, or -1 when no game reached it
+        int find(long boardHash, int color) {
+            return findKey(key(boardHash, color == 1 ? BLACK_KEY : 0));
+        }
+
+        int findStart(int color) { return find(START_HASH, color); }
+
+        public int getPlies() { return plies; }
+        public int size() { return size; }
+        public boolean isEmpty() { return size == 0; }
+        public int getGames(int slot) { return games[slot]; }
+        public int getWins(int slot) { return wins[slot]; }
+        public int getLosses(int slot) { return losses[slot]; }
+        public int getDraws(int slot) { return draws[slot]; }
+
+        // Points per game for the user in percent, a draw counting half
+        public double getScore(int slot) {
+            return games[slot] > 0 ? (wins[slot] + draws[slot] * 0.5) / games[slot] * 100 : 0;
+        }
+
+        public int getAverageOpponentRating(int slot) {
+            return rated[slot] > 0 ? (int) (ratingSums[slot] / rated[slot]) : 0;
+        }
+
+        // Slots of one color's positions reached in at least minGames games, start position excluded
+        int[] positions(int color, int minGames) {
+            long colorKey = color == 1 ? BLACK_KEY : 0;
+            IntList found = new IntList();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY && parents[i] != EMPTY && games[i] >= minGames && colorKeyOf(i) == colorKey) {
+                    found.add(i);
+                }
+            }
+            return found.toArray();
+        }
+
+        // The line to a position in SAN ("1. d4 Nf6 2. c4"), following first-reached parents
+        String lineTo(int slot) {
+            IntList path = new IntList();
+            int current = slot;
+            while (current >= 0 && moves[current] != Board.NO_MOVE && path.size() <= plies) {
+                path.add(moves[current]);
+                current = findKey(parents[current]);
+            }
+            Board board = new Board();
+            StringBuilder line = new StringBuilder();
+            for (int i = path.size() - 1, ply = 0; i >= 0; i--, ply++) {
+                if (ply > 0) line.append(' ');
+                if (ply % 2 == 0) line.append(ply / 2 + 1).append(". ");
+                board.appendSan(path.get(i), line);
+                board.make(path.get(i));
+            }
+            return line.toString();
+        }
+
+        // BLACK_KEY when the entry belongs to the Black repertoire, found by following parents to the start
+        private long colorKeyOf(int slot) {
+            int current = slot;
+            for (int hops = 0; current >= 0 && parents[current] != EMPTY && hops <= plies; hops++) {
+                current = findKey(parents[current]);
+            }
+            return current >= 0 && keys[current] == key(START_HASH, BLACK_KEY) ? BLACK_KEY : 0;
+        }
+
+        private int findKey(long key) {
+            int mask = keys.length - 1;
+            for (int slot = index(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return slot;
+            }
+            return -1;
+        }
+
+        private static long key(long boardHash, long colorKey) {
+            long key = boardHash ^ colorKey;
+            return key == EMPTY ? 1 : key;
+        }
+
+        private static int index(long key, int mask) {
+            return (int) (key ^ key >>> 32) & mask;
+        }
+
+        private int insert(long key, long parent, int move) {
+            if ((size + 1) * 4 > keys.length * 3) rehash(keys.length * 2);
+            int mask = keys.length - 1;
+            int slot = index(key, mask);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) return slot;
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            parents[slot] = parent;
+            moves[slot] = move;
+            size++;
+            return slot;
+        }
+
+        private void add(int slot, int gameCount, int won, int lost, int drawn, int ratedCount, long ratingSum) {
+            games[slot] += gameCount;
+            wins[slot] += won;
+            losses[slot] += lost;
+            draws[slot] += drawn;
+            rated[slot] += ratedCount;
+            ratingSums[slot] += ratingSum;
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            games = new int[capacity];
+            wins = new int[capacity];
+            losses = new int[capacity];
+            draws = new int[capacity];
+            rated = new int[capacity];
+            ratingSums = new long[capacity];
+            parents = new long[capacity];
+            moves = new int[capacity];
+            size = 0;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldGames = games, oldWins = wins, oldLosses = losses, oldDraws = draws, oldRated = rated, oldMoves = moves;
+            long[] oldRatingSums = ratingSums, oldParents = parents;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == EMPTY) continue;
+                int slot = insert(oldKeys[i], oldParents[i], oldMoves[i]);
+                add(slot, oldGames[i], oldWins[i], oldLosses[i], oldDraws[i], oldRated[i], oldRatingSums[i]);
+            }
+        }
+
+        // Hashes and moves of a game's first plies, replayed without allocating
+        static class OpeningLine implements GameReplayer.PositionVisitor {
+            private final GameReplayer replayer = new GameReplayer();
+            private long[] hashes = new long[64];
+            private int[] moves = new int[64];
+            private int count;
+            private int limit;
+
+            // False when a move within the plies could not be decoded
+            boolean record(CharSequence moveText, int plies) {
+                if (hashes.length <= plies) {
+                    hashes = new long[plies + 1];
+                    moves = new int[plies + 1];
+                }
+                count = 0;
+                limit = plies;
+                return replayer.replay(moveText, this);
+            }
+
+            @Override
+            public boolean position(int ply, Board board) {
+                hashes[ply] = board.getHash();
+                moves[ply] = replayer.getLastMove();
+                count = ply;
+                return ply < limit;
+            }
+
+            // A position the game already passed through earlier (shuffling pieces back and forth)
+            boolean isRepetition(int ply) {
+                for (int earlier = ply - 2; earlier >= 0; earlier -= 2) {
+                    if (hashes[earlier] == hashes[ply]) return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    // Layouts of the report files and of --query (-Dchess.report.format): the
+    // fixed-width text report, and JSON, CSV and Markdown for downstream jobs.
+    // The layout's extension names the report files.
+    enum ReportFormat {
+        TEXT("txt"), JSON("json"), CSV("csv"), MARKDOWN("md");
+
+        final String extension;
+
+        ReportFormat(String extension) {
+            this.extension = extension;
+        }
+
+        // Text when the property is unset or names no layout
+        static ReportFormat fromSystemProperties() {
+            String name = System.getProperty("chess.report.format", "text").trim();
+            for (ReportFormat format : values()) {
+                if (format.name().equalsIgnoreCase(name)) return format;
+            }
+            System.err.println("Unknown report format \"" + name + "\" (text, json, csv or markdown), writing text");
+            return TEXT;
+        }
+
+        ReportRenderer open(Writer out) {
+            switch (this) {
+                case JSON: return new ReportRenderer.Json(out);
+                case CSV: return new ReportRenderer.Csv(out);
+                case MARKDOWN: return new ReportRenderer.Markdown(out);
+                default: return new ReportRenderer.Text(out);
+            }
+        }
+    }
+
+    // Streams one report into a writer that stays open for the whole run: the
+    // games as they are written, then the statistics. Sections describe their
+    // content once, as templates of literal text with placeholders such as
+    // {score:5.1} (name, then '-' to left-justify, '+' to sign, width and
+    // decimals); the text layout fills them in, the data layouts keep the names
+    // and values. Lines and group headers carry their own line breaks. A group
+    // header opens an entry (a game type, an opponent, an opening move) that
+    // holds the lines and groups up to its endGroup; a header without
+    // placeholders is only a title. Decimal formats are created once per
+    // renderer and precision.
+    abstract static class ReportRenderer implements Closeable {
+        static final String[] RESULTS = {"won", "lost", "draw", "unknown"};
+        private static final int MAX_DECIMALS = 3;
+
+        protected final Writer out;
+        protected final Placeholder placeholder = new Placeholder();
+        private final DecimalFormat[] textDecimals = new DecimalFormat[MAX_DECIMALS + 1];
+        private final DecimalFormat[] dataDecimals = new DecimalFormat[MAX_DECIMALS + 1];
+
+        ReportRenderer(Writer out) {
+            this.out = out;
+        }
+
+        // Start of the document; resumed when appending to the games of an earlier run
+        void begin(boolean resumed) throws IOException { }
+
+        abstract void game(int number, ProcessedGame game) throws IOException;
+        abstract void beginStatistics(String username, String period, String filter) throws IOException;
+        abstract void endStatistics() throws IOException;
+        abstract void beginSection(String title) throws IOException;
+        abstract void endSection() throws IOException;
+        abstract void beginGroup(String template, Object... values) throws IOException;
+        abstract void endGroup() throws IOException;
+        abstract void line(String template, Object... values) throws IOException;
+
+        // A value only the data layouts carry, such as a series of ratings
+        void field(String name, Object value) throws IOException { }
+
+        // Whether field values are kept, so sections can skip gathering them
+        boolean keepsFields() { return false; }
+
+        void end() throws IOException { }
+
+        // A group without lines of its own
+        void row(String template, Object... values) throws IOException {
+            beginGroup(template, values);
+            endGroup();
+        }
+
+        // The statistics of a report for a username, period label and filter
+        void statistics(GameStats stats, String username, String period, String filter) throws IOException {
+            beginStatistics(username, period, filter);
+            stats.render(this);
+            endStatistics();
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                end();
+            } finally {
+                out.close();
+            }
+        }
+
+        // A value as the text layouts show it: decimals in the default locale, "-" for none
+        protected String text(Object value, Placeholder spec) {
+            if (value == null) return "-";
+            boolean signed = spec.sign && value instanceof Number && ((Number) value).doubleValue() >= 0;
+            String text = value instanceof Double
+                    ? decimal(textDecimals, spec.precision < 0 ? 2 : spec.precision, "#").format(value)
+                    : value.toString();
+            return signed ? "+" + text : text;
+        }
+
+        // A number as the data layouts carry it, or null when it has no value
+        protected String number(Object value, int precision) {
+            if (value instanceof Double) {
+                double number = (Double) value;
+                if (Double.isNaN(number) || Double.isInfinite(number)) return null;
+                return decimal(dataDecimals, precision < 0 ? 2 : precision, "0").format(number);
+            }
+            return value.toString();
+        }
+
+        private static DecimalFormat decimal(DecimalFormat[] formats, int precision, String integer) {
+            precision = Math.min(precision, MAX_DECIMALS);
+            DecimalFormat format = formats[precision];
+            if (format == null) {
+                String pattern = integer + (precision > 0 ? "." + "#".repeat(precision) : "");
+                format = integer.equals("0") ? new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT))
+                        : new DecimalFormat(pattern);
+                formats[precision] = format;
+            }
+            return format;
+        }
+
+        // Write the template with its placeholders filled in, padded to their widths when `pad`
+        protected void fill(Appendable target, String template, Object[] values, boolean pad) throws IOException {
+            int from = 0;
+            int index = 0;
+            while (placeholder.find(template, from)) {
+                literal(target, template, from, placeholder.start);
+                String text = text(index < values.length ? values[index] : null, placeholder);
+                index++;
+                int padding = pad ? placeholder.width - text.length() : 0;
+                if (!placeholder.left) pad(target, padding);
+                appendValue(target, text);
+                if (placeholder.left) pad(target, padding);
+                from = placeholder.end;
+            }
+            literal(target, template, from, template.length());
+        }
+
+        private void literal(Appendable target, String template, int from, int to) throws IOException {
+            if (target == out) out.write(template, from, to - from);
+            else target.append(template, from, to);
+        }
+
+        // Hook for layouts that escape values
+        protected void appendValue(Appendable target, String text) throws IOException {
+            target.append(text);
+        }
+
+        private static void pad(Appendable target, int count) throws IOException {
+            for (int i = 0; i < count; i++) target.append(' ');
+        }
+
+        // One {name:spec} placeholder of a template, parsed in place
+        static final class Placeholder {
+            int start;      // Index of '{'
+            int end;        // Index after '}'
+            int nameStart;
+            int nameEnd;
+            boolean left;
+            boolean sign;
+            int width;
+            int precision;
+
+            // Find the next placeholder at or after `from`; false when there is none
+            boolean find(String template, int from) {
+                start = template.indexOf('{', from);
+                if (start < 0) return false;
+                int close = template.indexOf('}', start);
+                nameStart = start + 1;
+                int i = nameStart;
+                while (i < close && template.charAt(i) != ':') i++;
+                nameEnd = i;
+                left = false;
+                sign = false;
+                width = 0;
+                precision = -1;
+                for (i++; i < close; i++) {
+                    char c = template.charAt(i);
+                    if (c == '-') left = true;
+                    else if (c == '+') sign = true;
+                    else if (c == '.') precision = 0;
+                    else if (precision >= 0) precision = precision * 10 + c - '0';
+                    else width = width * 10 + c - '0';
+                }
+                end = close + 1;
+                return true;
+            }
+
+            String name(String template) {
+                return template.substring(nameStart, nameEnd);
+            }
+        }
+
+        // The fixed-width report: templates filled in as they are
+        static class Text extends ReportRenderer {
+            Text(Writer out) {
+                super(out);
+            }
+
+            @Override
+            void game(int number, ProcessedGame game) throws IOException {
+                GameData data = game.data;
+                out.write("--- Game ");
+                out.write(Integer.toString(number));
+                out.write(' ');
+                out.write(data.getResultLabel());
+                out.write(' ');
+                out.write(data.getFormattedTimeControl());
+                out.write(" (");
+                out.write(data.getGameType());
+                out.write(") ---\nColor: ");
+                out.write(game.userColor);
+                out.write(" | Rating: ");
+                out.write(game.userRating > 0 ? Integer.toString(game.userRating) : "?");
+                out.write(" | Date: ");
+                out.write(data.getDate());
+                out.write('\n');
+                out.write(data.getMoves());
+                out.write("\n\n");
+            }
+
+            @Override
+            void beginStatistics(String username, String period, String filter) throws IOException {
+                out.write("\n" + createSeparator(60));
+                out.write("\n" + centerText("CHESS.COM GAME STATISTICS", 60));
+                out.write("\n" + centerText("Username: " + username + " | Period: " + period, 60));
+                out.write("\n" + createSeparator(60));
+            }
+
+            @Override
+            void endStatistics() throws IOException {
+                out.write("\n" + createSeparator(60));
+                out.write("\n" + centerText("Analysis generated by chessextractor made by Divine Coder Of Hell", 60));
+                out.write("\n" + createSeparator(60));
+            }
+
+            @Override
+            void beginSection(String title) throws IOException {
+                out.write("\n\n");
+                out.write(centerText(title, 60));
+                out.write('\n');
+            }
+
+            @Override void endSection() { }
+            @Override void endGroup() { }
+
+            @Override
+            void beginGroup(String template, Object... values) throws IOException {
+                fill(out, template, values, true);
+            }
+
+            @Override
+            void line(String template, Object... values) throws IOException {
+                fill(out, template, values, true);
+            }
+        }
+
+        // Layouts that keep names and values: placeholders become fields of the
+        // current entry, and titles a "title" field
+        abstract static class Data extends ReportRenderer {
+            Data(Writer out) {
+                super(out);
+            }
+
+            // One named value of the current entry
+            abstract void value(String name, Object value, int precision) throws IOException;
+
+            @Override
+            void field(String name, Object value) throws IOException {
+                value(name, value, -1);
+            }
+
+            @Override
+            boolean keepsFields() { return true; }
+
+            @Override
+            void line(String template, Object... values) throws IOException {
+                values(template, values);
+            }
+
+            // The placeholders of a template as values; false when it has none
+            protected boolean values(String template, Object[] values) throws IOException {
+                int from = 0;
+                int index = 0;
+                while (placeholder.find(template, from)) {
+                    from = placeholder.end;
+                    int precision = placeholder.precision;
+                    value(placeholder.name(template), index < values.length ? values[index] : null, precision);
+                    index++;
+                }
+                return index > 0;
+            }
+
+            // A template without placeholders as a title: "\nBy Day:\n" is "By Day"
+            protected static String title(String template) {
+                String title = template.trim();
+                return title.endsWith(":") ? title.substring(0, title.length() - 1) : title;
+            }
+
+            // "RESULTS BY COLOR" as resultsByColor
+            protected static String key(String title) {
+                StringBuilder key = new StringBuilder(title.length());
+                boolean upper = false;
+                for (int i = 0; i < title.length(); i++) {
+                    char c = title.charAt(i);
+                    if (!Character.isLetterOrDigit(c)) {
+                        upper = key.length() > 0;
+                    } else {
+                        key.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+                        upper = false;
+                    }
+                }
+                return key.toString();
+            }
+        }
+
+        // A JSON document: {"games": [...], "statistics": {...}}. Every section
+        // is an object under "statistics", and the groups of an entry are
+        // objects in its "rows" array, which follows the entry's own fields.
+        // Games are compact objects, one a line. JSON reports are whole
+        // documents and are not appended to.
+        static class Json extends Data {
+            private boolean[] first = new boolean[16];  // No member at this depth yet
+            private boolean[] array = new boolean[16];  // This depth is an array, closed by the next member of its object
+            private int depth = 0;
+
+            Json(Writer out) {
+                super(out);
+            }
+
+            @Override
+            void begin(boolean resumed) throws IOException {
+                out.write('{');
+                first[0] = true;
+            }
+
+            @Override
+            void game(int number, ProcessedGame game) throws IOException {
+                if (!array[depth]) {
+                    member("games");
+                    open('[', true);
+                }
+                next();
+                out.write("{\"number\": ");
+                out.write(Integer.toString(number));
+                out.write(", \"result\": ");
+                string(RESULTS[game.getResult()]);
+                out.write(", \"timeControl\": ");
+                string(game.getTimeControl());
+                out.write(", \"type\": ");
+                string(game.getGameType());
+                out.write(", \"color\": ");
+                string(game.userColor);
+                out.write(", \"rating\": ");
+                out.write(game.userRating > 0 ? Integer.toString(game.userRating) : "null");
+                out.write(", \"opponent\": ");
+                if (game.getOpponent() != null) string(game.getOpponent());
+                else out.write("null");
+                out.write(", \"opponentRating\": ");
+                out.write(game.getOpponentRating() > 0 ? Integer.toString(game.getOpponentRating()) : "null");
+                out.write(", \"date\": ");
+                string(game.data.getDate());
+                out.write(", \"moves\": ");
+                string(game.data.getMoves());
+                out.write('}');
+            }
+
+            @Override
+            void beginStatistics(String username, String period, String filter) throws IOException {
+                member("statistics");
+                open('{', false);
+                value("username", username, -1);
+                value("period", period, -1);
+                value("filter", filter, -1);
+            }
+
+            @Override
+            void endStatistics() throws IOException {
+                closeObject();
+            }
+
+            @Override
+            void beginSection(String title) throws IOException {
+                member(key(title));
+                open('{', false);
+            }
+
+            @Override
+            void endSection() throws IOException {
+                closeObject();
+            }
+
+            @Override
+            void beginGroup(String template, Object... values) throws IOException {
+                if (!array[depth]) {
+                    member("rows");
+                    open('[', true);
+                }
+                next();
+                open('{', false);
+                if (!values(template, values)) value("title", title(template), -1);
+            }
+
+            @Override
+            void endGroup() throws IOException {
+                closeObject();
+            }
 
-                gameCount++;
-                System.out.print("Processing Game " + gameCount + "... ");
+            @Override
+            void end() throws IOException {
+                if (array[depth]) close(']');
+                out.write(first[0] ? "}\n" : "\n}\n");
+            }
 
-                // Parse this single game
-                GameData gameData = parseSingleGame(gameBlock, targetUsername);
-                
-                // Apply time control filter
-                if (!timeControlFilter.equals("0") && !matchesTimeControl(gameData.getTimeControlRaw(), timeControlFilter)) {
-                    System.out.println("Skipped (time control filter)");
-                    continue;
+            @Override
+            void value(String name, Object value, int precision) throws IOException {
+                member(name);
+                if (value instanceof int[]) {
+                    int[] numbers = (int[]) value;
+                    out.write('[');
+                    for (int i = 0; i < numbers.length; i++) {
+                        if (i > 0) out.write(", ");
+                        out.write(Integer.toString(numbers[i]));
+                    }
+                    out.write(']');
+                } else if (value instanceof Number) {
+                    String number = number(value, precision);
+                    out.write(number != null ? number : "null");
+                } else if (value != null) {
+                    string(value.toString());
+                } else {
+                    out.write("null");
                 }
-                
-                filteredCount++;
-                System.out.println("Added");
-                
-                // Calculate move count
-                int moveCount = calculateMoveCount(gameData.getMoves());
-                
-                // Determine user's color
-                String userColor = determineUserColor(targetUsername, gameData.getWhitePlayer(), gameData.getBlackPlayer());
-                
-                // Get user's rating
-                int userRating = getUserRating(targetUsername, gameData.getWhitePlayer(), gameData.getBlackPlayer(), 
-                                             gameData.getWhiteElo(), gameData.getBlackElo());
-                
-                // Update statistics
-                stats.addGame(gameData.getGameType(), gameData.getResultLabel(), userColor, moveCount, userRating, gameData.getDate());
-
-                // Write the formatted output for this game
-                writer.write("--- Game " + filteredCount + " " + gameData.getResultLabel() + " " + 
-                           gameData.getFormattedTimeControl() + " (" + gameData.getGameType() + ") ---\n");
-                writer.write("Color: " + userColor + " | Rating: " + (userRating > 0 ? userRating : "?") + 
-                           " | Date: " + gameData.getDate() + "\n");
-                writer.write(gameData.getMoves());
-                writer.write("\n\n");
             }
-            System.out.println("\nFinished processing " + filteredCount + " of " + gameCount + " game(s).");
-        }
-        return stats;
-    }
 
-    // Check if game time control matches filter
-    private static boolean matchesTimeControl(String gameTimeControl, String filter) {
-        if (gameTimeControl == null || gameTimeControl.equals("?") || gameTimeControl.equals("-")) {
-            return false;
-        }
-        
-        // Normalize both to compare
-        String normalizedGame = gameTimeControl.trim();
-        String normalizedFilter = filter.trim();
-        
-        // Exact match
-        if (normalizedGame.equals(normalizedFilter)) {
-            return true;
-        }
-        
-        // If filter is just base time (e.g., "600"), check if game starts with it
-        if (!filter.contains("+") && normalizedGame.startsWith(normalizedFilter)) {
-            return true;
-        }
-        
-        return false;
-    }
+            private void member(String name) throws IOException {
+                if (array[depth]) close(']');
+                next();
+                string(name);
+                out.write(": ");
+            }
 
-    // Class to hold parsed data for a single game
-    static class GameData {
-        private String moves;
-        private String resultLabel;
-        private String formattedTimeControl;
-        private String gameType;
-        private String timeControlRaw;
-        private String whitePlayer;
-        private String blackPlayer;
-        private String whiteElo;
-        private String blackElo;
-        private String date;
-
-        public GameData(String moves, String resultLabel, String formattedTimeControl, 
-                       String gameType, String timeControlRaw, String whitePlayer, 
-                       String blackPlayer, String whiteElo, String blackElo, String date) {
-            this.moves = moves;
-            this.resultLabel = resultLabel;
-            this.formattedTimeControl = formattedTimeControl;
-            this.gameType = gameType;
-            this.timeControlRaw = timeControlRaw;
-            this.whitePlayer = whitePlayer;
-            this.blackPlayer = blackPlayer;
-            this.whiteElo = whiteElo;
-            this.blackElo = blackElo;
-            this.date = date;
-        }
+            private void next() throws IOException {
+                out.write(first[depth] ? "\n" : ",\n");
+                first[depth] = false;
+                for (int i = 0; i <= depth; i++) out.write("  ");
+            }
 
-        public String getMoves() { return moves; }
-        public String getResultLabel() { return resultLabel; }
-        public String getFormattedTimeControl() { return formattedTimeControl; }
-        public String getGameType() { return gameType; }
-        public String getTimeControlRaw() { return timeControlRaw; }
-        public String getWhitePlayer() { return whitePlayer; }
-        public String getBlackPlayer() { return blackPlayer; }
-        public String getWhiteElo() { return whiteElo; }
-        public String getBlackElo() { return blackElo; }
-        public String getDate() { return date; }
-    }
+            private void open(char bracket, boolean isArray) throws IOException {
+                out.write(bracket);
+                if (++depth == first.length) {
+                    first = Arrays.copyOf(first, depth * 2);
+                    array = Arrays.copyOf(array, depth * 2);
+                }
+                first[depth] = true;
+                array[depth] = isArray;
+            }
 
-    // Parse headers and moves for a single game block
-    private static GameData parseSingleGame(String gameBlock, String targetUsername) {
-        // Separate headers from the move text
-        String[] lines = gameBlock.split("\\n");
-        StringBuilder headerSection = new StringBuilder();
-        StringBuilder moveSection = new StringBuilder();
+            private void closeObject() throws IOException {
+                if (array[depth]) close(']');
+                close('}');
+            }
 
-        boolean inMoveSection = false;
-        for (String line : lines) {
-            line = line.trim();
-            if (line.startsWith("[")) {
-                if (!inMoveSection) {
-                    headerSection.append(line).append("\n");
+            private void close(char bracket) throws IOException {
+                boolean empty = first[depth];
+                depth--;
+                if (!empty) {
+                    out.write('\n');
+                    for (int i = 0; i <= depth; i++) out.write("  ");
                 }
-            } else {
-                inMoveSection = true;
-                if (!line.isEmpty()) {
-                    moveSection.append(line).append(" ");
+                out.write(bracket);
+            }
+
+            private void string(String value) throws IOException {
+                out.write('"');
+                int from = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c != '"' && c != '\\' && c >= 0x20) continue;
+                    out.write(value, from, i - from);
+                    if (c == '"' || c == '\\') {
+                        out.write('\\');
+                        out.write(c);
+                    } else if (c == '\n') {
+                        out.write("\\n");
+                    } else {
+                        out.write("\\u00");
+                        out.write(Character.forDigit(c >> 4, 16));
+                        out.write(Character.forDigit(c & 15, 16));
+                    }
+                    from = i + 1;
                 }
+                out.write(value, from, value.length() - from);
+                out.write('"');
             }
         }
 
-        String headers = headerSection.toString();
-        String moves = cleanMoves(moveSection.toString().trim());
+        // One value a row: section,group,field,value. Sections are keyed like
+        // the JSON ones; a group is named by its first value or its title, and
+        // nested groups are joined with '/'. Games are rows of section "games"
+        // grouped by game number, and the statistics start with "report" rows.
+        static class Csv extends Data {
+            private final List<String> groups = new ArrayList<>();
+            private String section = "";
 
-        // Extract key metadata from headers
-        String whitePlayer = extractHeader(headers, "White");
-        String blackPlayer = extractHeader(headers, "Black");
-        String result = extractHeader(headers, "Result");
-        String timeControlRaw = extractHeader(headers, "TimeControl");
-        String eventType = extractHeader(headers, "Event");
-        String whiteElo = extractHeader(headers, "WhiteElo");
-        String blackElo = extractHeader(headers, "BlackElo");
-        
-        // Extract date from headers
-        String date = extractHeader(headers, "UTCDate");
-        if (date.equals("?")) {
-            date = extractHeader(headers, "Date");
-        }
+            Csv(Writer out) {
+                super(out);
+            }
+
+            @Override
+            void begin(boolean resumed) throws IOException {
+                if (!resumed) out.write("section,group,field,value\n");
+            }
 
-        // Determine the result for the target user
-        String userResultLabel = determineUserResult(targetUsername, whitePlayer, blackPlayer, result);
+            @Override
+            void game(int number, ProcessedGame game) throws IOException {
+                section = "games";
+                groups.clear();
+                groups.add(Integer.toString(number));
+                value("result", RESULTS[game.getResult()], -1);
+                value("timeControl", game.getTimeControl(), -1);
+                value("type", game.getGameType(), -1);
+                value("color", game.userColor, -1);
+                value("rating", game.userRating > 0 ? game.userRating : null, -1);
+                value("opponent", game.getOpponent(), -1);
+                value("opponentRating", game.getOpponentRating() > 0 ? game.getOpponentRating() : null, -1);
+                value("date", game.data.getDate(), -1);
+                value("moves", game.data.getMoves(), -1);
+            }
 
-        // Format the time control
-        String formattedTimeControl = formatTimeControl(timeControlRaw);
+            @Override
+            void beginStatistics(String username, String period, String filter) throws IOException {
+                section = "report";
+                groups.clear();
+                value("username", username, -1);
+                value("period", period, -1);
+                value("filter", filter, -1);
+            }
 
-        // Determine game type
-        String gameType = determineGameType(timeControlRaw, eventType);
+            @Override void endStatistics() { }
 
-        return new GameData(moves, userResultLabel, formattedTimeControl, gameType, 
-                           timeControlRaw, whitePlayer, blackPlayer, whiteElo, blackElo, date);
-    }
+            @Override
+            void beginSection(String title) {
+                section = key(title);
+                groups.clear();
+            }
 
-    // Extract the value from a PGN header line
-    private static String extractHeader(String headers, String key) {
-        Pattern pattern = Pattern.compile("\\[" + key + " \"([^\"]+)\"\\]");
-        Matcher matcher = pattern.matcher(headers);
-        return matcher.find() ? matcher.group(1) : "?";
-    }
+            @Override void endSection() { }
 
-    // Determine if the target user won, lost, or drew
-    private static String determineUserResult(String targetUser, String white, String black, String pgnResult) {
-        targetUser = targetUser.trim().replace("\"", "");
-        white = white.trim().replace("\"", "");
-        black = black.trim().replace("\"", "");
+            @Override
+            void beginGroup(String template, Object... values) throws IOException {
+                if (placeholder.find(template, 0)) {
+                    groups.add(text(values.length > 0 ? values[0] : null, placeholder));
+                    values(template, values);
+                } else {
+                    groups.add(title(template));
+                }
+            }
 
-        boolean userIsWhite = targetUser.equalsIgnoreCase(white);
-        boolean userIsBlack = targetUser.equalsIgnoreCase(black);
+            @Override
+            void endGroup() {
+                groups.remove(groups.size() - 1);
+            }
 
-        if (!userIsWhite && !userIsBlack) {
-            return "(?)";
-        }
+            @Override
+            void value(String name, Object value, int precision) throws IOException {
+                out.write(section);
+                out.write(',');
+                cell(String.join("/", groups)); // Quoted as a whole when any group needs it
+                out.write(',');
+                out.write(name);
+                out.write(',');
+                if (value instanceof int[]) {
+                    int[] numbers = (int[]) value;
+                    for (int i = 0; i < numbers.length; i++) {
+                        if (i > 0) out.write(' ');
+                        out.write(Integer.toString(numbers[i]));
+                    }
+                } else if (value instanceof Number) {
+                    String number = number(value, precision);
+                    if (number != null) out.write(number);
+                } else if (value != null) {
+                    cell(value.toString());
+                }
+                out.write('\n');
+            }
 
-        switch (pgnResult) {
-            case "1-0":
-                return userIsWhite ? "(won)" : "(lost)";
-            case "0-1":
-                return userIsBlack ? "(won)" : "(lost)";
-            case "1/2-1/2":
-                return "(draw)";
-            default:
-                return "(?)";
-        }
-    }
-
-    // Determine user's color in the game
-    private static String determineUserColor(String targetUser, String white, String black) {
-        targetUser = targetUser.trim().replace("\"", "");
-        white = white.trim().replace("\"", "");
-        black = black.trim().replace("\"", "");
-        
-        if (targetUser.equalsIgnoreCase(white)) {
-            return "White";
-        } else if (targetUser.equalsIgnoreCase(black)) {
-            return "Black";
+            // A cell, quoted when it holds a separator, quote or line break
+            private void cell(String text) throws IOException {
+                boolean quote = false;
+                for (int i = 0; i < text.length() && !quote; i++) {
+                    char c = text.charAt(i);
+                    quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+                }
+                if (!quote) {
+                    out.write(text);
+                    return;
+                }
+                out.write('"');
+                out.write(text.replace("\"", "\"\""));
+                out.write('"');
+            }
         }
-        return "Unknown";
-    }
 
-    // Get user's rating for the game
-    private static int getUserRating(String targetUser, String white, String black, String whiteElo, String blackElo) {
-        try {
-            targetUser = targetUser.trim().replace("\"", "");
-            white = white.trim().replace("\"", "");
-            black = black.trim().replace("\"", "");
-            
-            if (targetUser.equalsIgnoreCase(white)) {
-                return Integer.parseInt(whiteElo);
-            } else if (targetUser.equalsIgnoreCase(black)) {
-                return Integer.parseInt(blackElo);
+        // A readable document: a heading per game and per section, and the
+        // lines of a section as nested lists following its groups
+        static class Markdown extends ReportRenderer {
+            private final StringBuilder item = new StringBuilder(128);
+            private int depth = 0;
+
+            Markdown(Writer out) {
+                super(out);
             }
-        } catch (NumberFormatException e) {
-            return 0;
-        }
-        return 0;
-    }
 
-    // Convert time control from "600" or "300+5" format to "X|Y" format
-    private static String formatTimeControl(String timeControlRaw) {
-        if (timeControlRaw == null || timeControlRaw.equals("?") || timeControlRaw.equals("-")) {
-            return "?|?";
-        }
+            @Override
+            void game(int number, ProcessedGame game) throws IOException {
+                GameData data = game.data;
+                out.write("### Game ");
+                out.write(Integer.toString(number));
+                out.write(' ');
+                out.write(data.getResultLabel());
+                out.write("\n\n");
+                out.write(data.getFormattedTimeControl());
+                out.write(" (");
+                out.write(data.getGameType());
+                out.write(") | Color: ");
+                out.write(game.userColor);
+                out.write(" | Rating: ");
+                out.write(game.userRating > 0 ? Integer.toString(game.userRating) : "?");
+                out.write(" | Date: ");
+                out.write(data.getDate());
+                out.write("\n\n```\n");
+                out.write(data.getMoves());
+                out.write("\n```\n\n");
+            }
 
-        try {
-            if (!timeControlRaw.contains("+")) {
-                int totalSeconds = Integer.parseInt(timeControlRaw);
-                int minutes = totalSeconds / 60;
-                return minutes + "|0";
-            } else {
-                String[] parts = timeControlRaw.split("\\+");
-                int baseSeconds = Integer.parseInt(parts[0]);
-                int incrementSeconds = Integer.parseInt(parts[1]);
-                int baseMinutes = baseSeconds / 60;
-                return baseMinutes + "|" + incrementSeconds;
+            @Override
+            void beginStatistics(String username, String period, String filter) throws IOException {
+                out.write("\n# Chess.com Game Statistics\n\n**Username:** ");
+                appendValue(out, username);
+                out.write(" | **Period:** ");
+                appendValue(out, period);
+                if (filter != null && !filter.equals("0")) {
+                    out.write(" | **Filter:** `");
+                    out.write(filter.replace('`', '\''));
+                    out.write('`');
+                }
+                out.write('\n');
             }
-        } catch (NumberFormatException e) {
-            return "?|?";
-        }
-    }
 
-    // Determine game type based on time control and event
-    private static String determineGameType(String timeControlRaw, String eventType) {
-        if (timeControlRaw == null || timeControlRaw.equals("?") || timeControlRaw.equals("-")) {
-            return "Unknown";
-        }
+            @Override
+            void endStatistics() throws IOException {
+                out.write("\n---\n\n*Analysis generated by chessextractor made by Divine Coder Of Hell*\n");
+            }
 
-        try {
-            int totalTime;
-            if (timeControlRaw.contains("+")) {
-                String[] parts = timeControlRaw.split("\\+");
-                totalTime = Integer.parseInt(parts[0]);
-            } else {
-                totalTime = Integer.parseInt(timeControlRaw);
+            @Override
+            void beginSection(String title) throws IOException {
+                out.write("\n## ");
+                out.write(title);
+                out.write("\n\n");
+                depth = 0;
             }
 
-            int minutes = totalTime / 60;
+            @Override void endSection() { }
 
-            if (eventType != null && eventType.contains("Daily")) {
-                return "Daily";
-            } else if (minutes <= 1) {
-                return "Bullet";
-            } else if (minutes <= 3) {
-                return "Blitz";
-            } else if (minutes <= 10) {
-                return "Rapid";
-            } else if (minutes <= 30) {
-                return "Classical";
-            } else {
-                return "Correspondence";
+            @Override
+            void beginGroup(String template, Object... values) throws IOException {
+                line(template, values);
+                depth++;
+            }
+
+            @Override
+            void endGroup() {
+                depth--;
+            }
+
+            // The filled template on one list line, its layout whitespace collapsed
+            @Override
+            void line(String template, Object... values) throws IOException {
+                item.setLength(0);
+                fill(item, template, values, false);
+                int length = 0;
+                boolean space = false;
+                for (int i = 0; i < item.length(); i++) {
+                    char c = item.charAt(i);
+                    if (c <= ' ') {
+                        space = length > 0;
+                    } else {
+                        if (space) item.setCharAt(length++, ' ');
+                        item.setCharAt(length++, c);
+                        space = false;
+                    }
+                }
+                if (length == 0) return;
+                item.setLength(length);
+                for (int i = 0; i < depth; i++) out.write("  ");
+                out.write("- ");
+                out.append(item);
+                out.write('\n');
+            }
+
+            @Override
+            protected void appendValue(Appendable target, String text) throws IOException {
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '\\' || c == '*' || c == '_' || c == '`' || c == '[' || c == ']') target.append('\\');
+                    target.append(c);
+                }
             }
-        } catch (NumberFormatException e) {
-            return "Unknown";
         }
     }
 
-    // Clean the move string
-    private static String cleanMoves(String moveText) {
-        String withoutClocks = moveText.replaceAll("\\{\\[%clk [^}]*\\}\\}", "");
-        withoutClocks = withoutClocks.replaceAll("\\{\\[%eval [^}]*\\}\\}", "");
-        withoutClocks = withoutClocks.replaceAll("\\s*(1-0|0-1|1/2-1/2)\\s*$", "");
-        return withoutClocks.replaceAll("\\s+", " ").trim();
+    // Opening tree shown in the report: plies deep, and moves per position
+    private static final int OPENING_REPORT_PLIES = 4;
+    private static final int OPENING_REPORT_BRANCHES = 3;
+
+    // Row templates of the opening explorer: the moves of the tree by ply, then
+    // the best and worst scoring lines, each without and with the average
+    // rating of the opponents
+    private static final String OPENING_POSITION = "{games:4} games  Score {score:5.1}%  (W {won} / L {lost} / D {draw})";
+    private static final String[][] OPENING_TEMPLATES = new String[OPENING_REPORT_PLIES + 1][];
+    static {
+        for (int ply = 0; ply <= OPENING_REPORT_PLIES; ply++) {
+            String label = ply < OPENING_REPORT_PLIES ? "  ".repeat(ply + 1) + "{move:-" + (20 - 2 * ply) + "} "
+                    : "    {line}\n      ";
+            OPENING_TEMPLATES[ply] = new String[]{label + OPENING_POSITION + "\n",
+                    label + OPENING_POSITION + "  Avg Opp: {opponentRating}\n"};
+        }
     }
 
-    // Calculate number of moves in a game
-    private static int calculateMoveCount(String moves) {
-        // Split by move numbers and count actual moves
-        String[] tokens = moves.split("\\s+");
-        int moveCount = 0;
-        
-        for (String token : tokens) {
-            // Skip move numbers (e.g., "1.", "2.") and result markers
-            if (!token.matches("\\d+\\.") && 
-                !token.matches("\\d+\\.\\.\\.") &&
-                !token.matches("1-0|0-1|1/2-1/2") &&
-                !token.isEmpty()) {
-                moveCount++;
+    // The opening explorer: each color's most played lines as a tree, then
+    // the positions the user scores best and worst in
+    private static void renderOpenings(ReportRenderer out, OpeningTree tree) throws IOException {
+        for (int color = 0; color < 2; color++) {
+            int start = tree.findStart(color);
+            if (start < 0) continue;
+            int total = tree.getGames(start);
+            out.beginGroup("\nAs {color} ({games} games, first {plies} plies):\n", GameStore.COLORS[color], total,
+                    tree.getPlies());
+            renderOpeningTree(out, tree, new Board(), color, 0, Math.max(2, total / 50));
+
+            // Positions common enough to judge, by score
+            List<Integer> positions = new ArrayList<>();
+            for (int slot : tree.positions(color, Math.max(3, total / 20))) positions.add(slot);
+            positions.sort(Comparator.comparingDouble(tree::getScore).reversed());
+            int shown = Math.min(3, positions.size() / 2);
+            if (shown > 0) {
+                out.beginGroup("  Best scoring:\n");
+                for (int i = 0; i < shown; i++) {
+                    renderOpeningPosition(out, OPENING_REPORT_PLIES, tree.lineTo(positions.get(i)), tree, positions.get(i));
+                    out.endGroup();
+                }
+                out.endGroup();
+                out.beginGroup("  Worst scoring:\n");
+                for (int i = positions.size() - 1; i >= positions.size() - shown; i--) {
+                    renderOpeningPosition(out, OPENING_REPORT_PLIES, tree.lineTo(positions.get(i)), tree, positions.get(i));
+                    out.endGroup();
+                }
+                out.endGroup();
             }
+            out.endGroup();
         }
-        
-        return moveCount / 2; // Each move has white and black
-    }
-
-    // Append detailed statistics to the file
-    private static void appendDetailedStatisticsToFile(String fileName, GameStats stats, 
-                                                      String username, String year, String month) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write("\n" + createSeparator(60));
-            writer.write("\n" + centerText("CHESS.COM GAME STATISTICS", 60));
-            writer.write("\n" + centerText("Username: " + username + " | Period: " + 
-                                         (month.equals("0") ? "Year " + year : year + "-" + month), 60));
-            writer.write("\n" + createSeparator(60));
-            
-            // Overall Statistics
-            writer.write("\n\n" + centerText("OVERALL STATISTICS", 60));
-            writer.write("\n" + formatStats(stats));
-            
-            // Rating Change Bar
-            writer.write("\n\n" + centerText("RATING CHANGES", 60));
-            writer.write("\n" + formatRatingChanges(stats));
-            
-            // Performance by Game Type
-            writer.write("\n\n" + centerText("PERFORMANCE BY GAME TYPE", 60));
-            writer.write("\n" + formatGameTypeStats(stats));
-            
-            // Results by Color
-            writer.write("\n\n" + centerText("RESULTS BY COLOR", 60));
-            writer.write("\n" + formatColorStats(stats));
-            
-            // Additional Statistics
-            writer.write("\n\n" + centerText("ADDITIONAL STATISTICS", 60));
-            writer.write("\n" + formatAdditionalStats(stats));
-            
-            writer.write("\n" + createSeparator(60));
-            writer.write("\n" + centerText("Analysis generated by chessextractor made by Divine Coder Of Hell", 60));
-            writer.write("\n" + createSeparator(60));
-        }
-    }
-    
-    // Format overall statistics
-    private static String formatStats(GameStats stats) {
-        int total = stats.getTotalGames();
-        if (total == 0) return "No games found.";
-        
-        int won = stats.getWon();
-        int lost = stats.getLost();
-        int draw = stats.getDraw();
-        
-        double wonPercent = total > 0 ? (double) won / total * 100 : 0;
-        double lostPercent = total > 0 ? (double) lost / total * 100 : 0;
-        double drawPercent = total > 0 ? (double) draw / total * 100 : 0;
-        
-        DecimalFormat df = new DecimalFormat("#.##");
-        
-        return String.format(
-            "Total Games: %d\n" +
-            "Won: %d (%s%%) | Lost: %d (%s%%) | Draw: %d (%s%%)\n" +
-            "Average Moves per Game: %s\n" +
-            "Win Rate: %s%%",
-            total, won, df.format(wonPercent), lost, df.format(lostPercent), 
-            draw, df.format(drawPercent), df.format(stats.getAverageMoves()), 
-            df.format(wonPercent)
-        );
     }
-    
-    // Format rating changes
-    private static String formatRatingChanges(GameStats stats) {
-        Map<String, RatingTracker> trackers = stats.getRatingTrackers();
-        if (trackers.isEmpty()) return "No rating data available.";
-        
-        StringBuilder sb = new StringBuilder();
-        DecimalFormat df = new DecimalFormat("#");
-        
-        for (Map.Entry<String, RatingTracker> entry : trackers.entrySet()) {
-            String gameType = entry.getKey();
-            RatingTracker tracker = entry.getValue();
-            int change = tracker.getRatingChange();
-            String changeStr = change >= 0 ? "+" + change : String.valueOf(change);
-            
-            sb.append(String.format("%-12s: %s (Start: %d, End: %d, Avg: %d)\n", 
-                    gameType, changeStr, tracker.getStartingRating(), 
-                    tracker.getLatestRating(), tracker.getAverageRating()));
+
+    // The most played moves from the board's position, each a group holding the moves after it
+    private static void renderOpeningTree(ReportRenderer out, OpeningTree tree, Board board, int color, int ply,
+                                          int minGames) throws IOException {
+        if (ply >= Math.min(OPENING_REPORT_PLIES, tree.getPlies())) return;
+
+        int[][] children = openingMoves(tree, board, color, minGames);
+        for (int i = 0; i < Math.min(OPENING_REPORT_BRANCHES, children.length); i++) {
+            int move = children[i][0];
+            StringBuilder label = new StringBuilder();
+            label.append(ply / 2 + 1).append(ply % 2 == 0 ? ". " : "... ");
+            board.appendSan(move, label);
+            renderOpeningPosition(out, ply, label.toString(), tree, children[i][1]);
+
+            board.make(move);
+            renderOpeningTree(out, tree, board, color, ply + 1, minGames);
+            board.unmake(move);
+            out.endGroup();
         }
-        
-        return sb.toString();
     }
-    
-    // Format game type statistics
-    private static String formatGameTypeStats(GameStats stats) {
-        Map<String, GameTypeStats> typeStats = stats.getGameTypeStats();
-        if (typeStats.isEmpty()) return "No game type data available.";
-        
-        StringBuilder sb = new StringBuilder();
-        DecimalFormat df = new DecimalFormat("#.##");
-        
-        for (GameTypeStats gtStats : typeStats.values()) {
-            if (gtStats.getTotal() == 0) continue;
-            
-            sb.append(String.format("\n%s (Total: %d):\n", gtStats.getGameType(), gtStats.getTotal()));
-            sb.append(String.format("  Win: %d (%s%%) | Loss: %d (%s%%) | Draw: %d (%s%%)\n",
-                    gtStats.getWon(), df.format(gtStats.getWinRate()),
-                    gtStats.getLost(), df.format(gtStats.getLossRate()),
-                    gtStats.getDraw(), df.format(gtStats.getDrawRate())));
-            sb.append(String.format("  Avg Moves: %s | Avg Rating: %d\n",
-                    df.format(gtStats.getAverageMoves()),
-                    gtStats.getAverageRating()));
-            sb.append(String.format("  Rating Range: %d (%d - %d, Latest: %d)\n",
-                    gtStats.getRatingRange(),
-                    gtStats.getMinRating(),
-                    gtStats.getMaxRating(),
-                    gtStats.getLatestRating()));
-        }
-        
-        return sb.toString();
+
+    // Open the group of a position reached by a move (a ply of the tree) or a line
+    private static void renderOpeningPosition(ReportRenderer out, int templates, String label, OpeningTree tree, int slot)
+            throws IOException {
+        int opponentRating = tree.getAverageOpponentRating(slot);
+        out.beginGroup(OPENING_TEMPLATES[templates][opponentRating > 0 ? 1 : 0], label, tree.getGames(slot),
+                tree.getScore(slot), tree.getWins(slot), tree.getLosses(slot), tree.getDraws(slot), opponentRating);
     }
-    
-    // Format color statistics
-    private static String formatColorStats(GameStats stats) {
-        StringBuilder sb = new StringBuilder();
-        DecimalFormat df = new DecimalFormat("#.##");
-        
-        // White statistics
-        int whiteTotal = stats.getWhiteGames();
-        if (whiteTotal > 0) {
-            double whiteWinRate = (double) stats.getWhiteWon() / whiteTotal * 100;
-            double whiteLossRate = (double) stats.getWhiteLost() / whiteTotal * 100;
-            double whiteDrawRate = (double) stats.getWhiteDraw() / whiteTotal * 100;
-            
-            sb.append(String.format("\nAs White (%d games):\n", whiteTotal));
-            sb.append(String.format("  Win: %d (%s%%) | Loss: %d (%s%%) | Draw: %d (%s%%)\n",
-                    stats.getWhiteWon(), df.format(whiteWinRate),
-                    stats.getWhiteLost(), df.format(whiteLossRate),
-                    stats.getWhiteDraw(), df.format(whiteDrawRate)));
-        }
-        
-        // Black statistics
-        int blackTotal = stats.getBlackGames();
-        if (blackTotal > 0) {
-            double blackWinRate = (double) stats.getBlackWon() / blackTotal * 100;
-            double blackLossRate = (double) stats.getBlackLost() / blackTotal * 100;
-            double blackDrawRate = (double) stats.getBlackDraw() / blackTotal * 100;
-            
-            sb.append(String.format("\nAs Black (%d games):\n", blackTotal));
-            sb.append(String.format("  Win: %d (%s%%) | Loss: %d (%s%%) | Draw: %d (%s%%)\n",
-                    stats.getBlackWon(), df.format(blackWinRate),
-                    stats.getBlackLost(), df.format(blackLossRate),
-                    stats.getBlackDraw(), df.format(blackDrawRate)));
+
+    // Legal moves from the board's position that at least minGames games went
+    // on to, as {move, slot}, most played first. Probing every legal move
+    // also finds positions first reached through another move order.
+    private static int[][] openingMoves(OpeningTree tree, Board board, int color, int minGames) {
+        int[] legal = new int[Board.MAX_MOVES];
+        int count = board.generateLegal(legal, 0);
+        List<int[]> children = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            board.make(legal[i]);
+            int slot = tree.find(board.getHash(), color);
+            board.unmake(legal[i]);
+            if (slot >= 0 && tree.getGames(slot) >= minGames) children.add(new int[]{legal[i], slot});
         }
-        
-        return sb.toString();
+        children.sort((a, b) -> Integer.compare(tree.getGames(b[1]), tree.getGames(a[1])));
+        return children.toArray(new int[0][]);
     }
     
-    // Format additional statistics
-    private static String formatAdditionalStats(GameStats stats) {
-        StringBuilder sb = new StringBuilder();
-        DecimalFormat df = new DecimalFormat("#.##");
-        
-        // Move statistics
-        List<Integer> moves = stats.getMoveCounts();
-        if (!moves.isEmpty()) {
-            Collections.sort(moves);
-            int shortest = moves.get(0);
-            int longest = moves.get(moves.size() - 1);
-            int median = moves.get(moves.size() / 2);
-            
-            sb.append(String.format("Shortest Game: %d moves\n", shortest));
-            sb.append(String.format("Longest Game: %d moves\n", longest));
-            sb.append(String.format("Median Game Length: %d moves\n", median));
-        }
-        
-        // Game type distribution
-        Map<String, GameTypeStats> typeStats = stats.getGameTypeStats();
-        if (!typeStats.isEmpty()) {
-            sb.append("\nGame Type Distribution:\n");
-            for (Map.Entry<String, GameTypeStats> entry : typeStats.entrySet()) {
-                int total = entry.getValue().getTotal();
-                double percentage = (double) total / stats.getTotalGames() * 100;
-                sb.append(String.format("  %-12s: %d games (%s%%)\n", 
-                        entry.getKey(), total, df.format(percentage)));
-            }
-        }
-        
-        return sb.toString();
+    private static String formatOpeningPosition(OpeningTree tree, int slot, DecimalFormat df) {
+        int opponentRating = tree.getAverageOpponentRating(slot);
+        return String.format("%4d games  Score %5s%%  (W %d / L %d / D %d)%s", tree.getGames(slot),
+                df.format(tree.getScore(slot)), tree.getWins(slot), tree.getLosses(slot), tree.getDraws(slot),
+                opponentRating > 0 ? "  Avg Opp: " + opponentRating : "");
     }
     
     // Create separator line
@@ -1034,6 +7633,28 @@ public class ChessMoveExtractor {
         if (padding < 0) padding = 0;
         return " ".repeat(padding) + text;
     }
+
+    // The statistics of a report as a JSON document, for --serve
+    private static String statisticsJson(GameStats stats, String username, String period, String filter)
+            throws IOException {
+        StringWriter json = new StringWriter(4096);
+        ReportRenderer renderer = ReportFormat.JSON.open(json);
+        renderer.begin(false);
+        renderer.statistics(stats, username, period, filter);
+        renderer.end();
+        return json.toString();
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
     
     // Print console summary
     private static void printConsoleSummary(GameStats stats) {
@@ -1061,4 +7682,329 @@ public class ChessMoveExtractor {
             }
         }
     }
+
+    // Seeded generator of Chess.com-style PGN archives. The same game count and
+    // seed always produce the same bytes, so benchmark runs stay comparable.
+    static class SyntheticPgn {
+        static final String DEFAULT_USERNAME = "BenchPlayer";
+
+        private static final String[] TIME_CONTROLS = {
+            "60", "60+1", "120+1", "180", "180+2", "300", "300+5", "600", "600+5", "900+10", "1800", "1/86400"
+        };
+        private static final String[] TERMINATIONS = {
+            "won by resignation", "won by checkmate", "won on time", "won by abandonment"
+        };
+
+        private final Random random;
+        private final String username;
+        private final int games;
+        private final Board board = new Board();
+        private final int[] legalMoves = new int[Board.MAX_MOVES];
+        private final StringBuilder san = new StringBuilder();
+
+        SyntheticPgn(String username, int games, long seed) {
+            this.random = new Random(seed);
+            this.username = username;
+            this.games = games;
+        }
+
+        static void write(Path file, String username, int games, long seed) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                SyntheticPgn generator = new SyntheticPgn(username, games, seed);
+                for (int i = 0; i < games; i++) {
+                    generator.writeGame(writer, i);
+                }
+            }
+        }
+
+        // Games are spread evenly over one year, in archive (chronological) order
+        void writeGame(Appendable out, int index) throws IOException {
+            String opponent = "opponent_" + random.nextInt(2_000);
+            boolean userIsWhite = random.nextBoolean();
+            String white = userIsWhite ? username : opponent;
+            String black = userIsWhite ? opponent : username;
+            String timeControl = TIME_CONTROLS[random.nextInt(TIME_CONTROLS.length)];
+            boolean daily = timeControl.startsWith("1/");
+
+            int roll = random.nextInt(100);
+            String result = roll < 47 ? "1-0" : roll < 92 ? "0-1" : "1/2-1/2";
+            java.time.LocalDate day = java.time.LocalDate.of(2024, 1, 1).plusDays((long) index * 366 / Math.max(1, games));
+            String date = String.format("%04d.%02d.%02d", day.getYear(), day.getMonthValue(), day.getDayOfMonth());
+            String time = String.format("%02d:%02d:%02d", random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            int whiteElo = 800 + random.nextInt(1600);
+            int blackElo = Math.max(100, whiteElo + random.nextInt(401) - 200);
+
+            header(out, "Event", daily ? "Let's Play!" : "Live Chess");
+            header(out, "Site", "Chess.com");
+            header(out, "Date", date);
+            header(out, "Round", "-");
+            header(out, "White", white);
+            header(out, "Black", black);
+            header(out, "Result", result);
+            header(out, "CurrentPosition", "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+            header(out, "Timezone", "UTC");
+            header(out, "ECO", "C" + (20 + random.nextInt(80)));
+            header(out, "UTCDate", date);
+            header(out, "UTCTime", time);
+            header(out, "WhiteElo", String.valueOf(whiteElo));
+            header(out, "BlackElo", String.valueOf(blackElo));
+            header(out, "TimeControl", timeControl);
+            header(out, "Termination", (result.equals("1/2-1/2") ? "Game drawn by agreement"
+                    : (result.equals("1-0") ? white : black) + " " + TERMINATIONS[random.nextInt(TERMINATIONS.length)]));
+            header(out, "StartTime", time);
+            header(out, "EndDate", date);
+            header(out, "EndTime", time);
+            header(out, "Link", "https://www.chess.com/game/" + (daily ? "daily/" : "live/") + (100_000_000L + index));
+            out.append('\n');
+
+            // Clock annotations count down from the base time, adding the increment
+            int baseSeconds = daily ? 86_400 : Integer.parseInt(timeControl.split("\\+")[0]);
+            int increment = timeControl.contains("+") ? Integer.parseInt(timeControl.split("\\+")[1]) : 0;
+            int[] clockTenths = {baseSeconds * 10, baseSeconds * 10};
+            // Random legal moves, so that the games replay; mate or stalemate ends a game early
+            board.reset();
+            int plies = 10 + random.nextInt(110);
+            for (int ply = 0; ply < plies; ply++) {
+                int legal = board.generateLegal(legalMoves, 0);
+                if (legal == 0) break;
+                int move = legalMoves[random.nextInt(legal)];
+                san.setLength(0);
+                board.appendSan(move, san);
+                board.make(move);
+
+                int side = ply & 1;
+                int moveNumber = ply / 2 + 1;
+                if (ply > 0) out.append(' ');
+                out.append(String.valueOf(moveNumber)).append(side == 0 ? ". " : "... ");
+                out.append(san);
+
+                int spent = Math.min(clockTenths[side] - 1, random.nextInt(Math.max(2, baseSeconds / 20) * 10));
+                clockTenths[side] = Math.max(1, clockTenths[side] - spent + increment * 10);
+                int tenths = clockTenths[side];
+                out.append(String.format(" {[%%clk %d:%02d:%02d.%d]}",
+                        tenths / 36_000, tenths / 600 % 60, tenths / 10 % 60, tenths % 10));
+            }
+            out.append(' ').append(result).append("\n\n");
+        }
+
+        private static void header(Appendable out, String key, String value) throws IOException {
+            out.append('[').append(key).append(" \"").append(value).append("\"]\n");
+        }
+    }
+
+    // Repeatable benchmark suite for the parsing, statistics and report paths.
+    // Each case gets warm-up rounds before the measured rounds, and results are
+    // fed to a sink so the JIT cannot drop the work. Micro cases use the first
+    // 1,000 games of the corpus; the full pipeline streams the whole corpus.
+    static class Benchmark {
+        private static final int WARMUP_ROUNDS = Integer.getInteger("chess.bench.warmup", 5);
+        private static final int MEASURED_ROUNDS = Integer.getInteger("chess.bench.rounds", 10);
+        private static final int MICRO_GAMES = 1_000;
+
+        static volatile long sink;
+
+        static void run(int games, long seed) throws IOException {
+            System.out.println("Generating " + games + " synthetic game(s) (seed " + seed + ")...");
+            Path corpus = Files.createTempFile("chess-bench", ".pgn");
+            Path output = Files.createTempFile("chess-bench", ".txt");
+            try {
+                SyntheticPgn.write(corpus, SyntheticPgn.DEFAULT_USERNAME, games, seed);
+                String user = SyntheticPgn.DEFAULT_USERNAME;
+
+                List<String> blocks = new ArrayList<>();
+                try (PgnGameReader reader = new PgnGameReader(Files.newInputStream(corpus))) {
+                    String block;
+                    while (blocks.size() < MICRO_GAMES && (block = reader.nextGame()) != null) {
+                        blocks.add(block);
+                    }
+                }
+                List<String[]> headerLines = new ArrayList<>();
+                List<String> moveTexts = new ArrayList<>();
+                List<GameData> parsed = new ArrayList<>();
+                PlayerDictionary players = new PlayerDictionary();
+                int userId = players.intern(user);
+                for (String block : blocks) {
+                    String[] lines = block.split("\n");
+                    List<String> headers = new ArrayList<>();
+                    StringBuilder moves = new StringBuilder();
+                    for (String line : lines) {
+                        if (line.startsWith("[")) headers.add(line);
+                        else moves.append(line).append(' ');
+                    }
+                    headerLines.add(headers.toArray(new String[0]));
+                    moveTexts.add(moves.toString().trim());
+                    parsed.add(parseSingleGame(block, players, userId));
+                }
+
+                System.out.printf("%n%-34s %10s %14s %14s%n", "Benchmark", "ops/round", "ns/op", "ops/s");
+
+                measure("PgnGameReader (split)", games, () -> {
+                    long count = 0;
+                    try (PgnGameReader reader = new PgnGameReader(Files.newInputStream(corpus))) {
+                        while (reader.nextGame() != null) count++;
+                    }
+                    return count;
+                });
+
+                measure("parseSingleGame", blocks.size(), () -> {
+                    long acc = 0;
+                    for (String block : blocks) acc += parseSingleGame(block, players, userId).getMoveCount();
+                    return acc;
+                });
+
+                measure("parseSingleGame (headers)", blocks.size(), () -> {
+                    long acc = 0;
+                    for (String block : blocks) acc += parseSingleGame(block, players, userId).getTimeControlRaw().length();
+                    return acc;
+                });
+
+                measure("PgnHeaders.parseLine", blocks.size(), () -> {
+                    long acc = 0;
+                    for (String[] lines : headerLines) {
+                        PgnHeaders headers = new PgnHeaders();
+                        for (String line : lines) headers.parseLine(line, 0, line.length());
+                        acc += headers.get(PgnHeaders.TIME_CONTROL).length();
+                    }
+                    return acc;
+                });
+
+                measure("MoveTextScanner (clean+count)", moveTexts.size(), () -> {
+                    MoveTextScanner scanner = MOVE_SCANNER.get();
+                    long acc = 0;
+                    for (String moves : moveTexts) {
+                        acc += scanner.scan(moves);
+                        acc += scanner.cleaned().length();
+                    }
+                    return acc;
+                });
+
+                GameReplayer replayer = new GameReplayer();
+                List<String> moveLines = new ArrayList<>();
+                int positions = 0;
+                for (GameData game : parsed) {
+                    moveLines.add(game.getMoves());
+                    if (!replayer.replay(game.getMoves(), null)) {
+                        throw new IllegalStateException("Synthetic game does not replay: " + game.getMoves());
+                    }
+                    positions += replayer.getPlies();
+                }
+                measure("GameReplayer (positions)", positions, () -> {
+                    long acc = 0;
+                    for (String moves : moveLines) {
+                        replayer.replay(moves, null);
+                        acc += replayer.getBoard().getHash();
+                    }
+                    return acc;
+                });
+
+                measure("OpeningTree.addGame", moveLines.size(), () -> {
+                    OpeningTree tree = new OpeningTree();
+                    for (int i = 0; i < moveLines.size(); i++) {
+                        tree.addGame(moveLines.get(i), i & 1, i % 3, 1500);
+                    }
+                    return tree.size();
+                });
+
+                measure("PositionIndex (build)", moveLines.size(), () -> {
+                    PositionIndex.Builder builder = new PositionIndex.Builder();
+                    for (int i = 0; i < moveLines.size(); i++) {
+                        builder.addGame(i, PositionIndex.positionsOf(moveLines.get(i)));
+                    }
+                    builder.write(output, moveLines.size(), 0, moveLines.size());
+                    return (int) Files.size(output);
+                });
+
+                // Every aggregator of a report, the opening explorer included
+                List<ProcessedGame> processed = new ArrayList<>();
+                for (GameData game : parsed) {
+                    processed.add(new ProcessedGame(game));
+                }
+                measure("GameStats.addGame", processed.size(), () -> {
+                    GameStats stats = new GameStats();
+                    for (ProcessedGame game : processed) {
+                        stats.addGame(game);
+                    }
+                    return stats.getTotalGames();
+                });
+
+                GameStats reportStats = new GameStats();
+                for (ProcessedGame game : processed) {
+                    reportStats.addGame(game);
+                }
+                measure("report sections", 1, () -> {
+                    StringWriter out = new StringWriter();
+                    REPORT_FORMAT.open(out).statistics(reportStats, user, "Year 2024", "0");
+                    return out.getBuffer().length();
+                });
+
+                measureFullRun("extractAndSaveGames (full)", user, corpus, output, games, "0", false);
+                measureFullRun("extractAndSaveGames (parallel)", user, corpus, output, games, "0", true);
+                measureFullRun("extractAndSaveGames (180+2)", user, corpus, output, games, "180+2", false);
+
+                // The default path, which also keeps every game of the archive in the store
+                Path storeDir = Files.createTempDirectory("chess-bench-store");
+                try {
+                    GameStore store = new GameStore(storeDir);
+                    measureStoreRun("extractAndSaveGames (store)", user, corpus, output, games, "0", store);
+                    measureStoreRun("extractAndSaveGames (store, 180+2)", user, corpus, output, games, "180+2", store);
+                } finally {
+                    try (java.util.stream.Stream<Path> files = Files.walk(storeDir)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(corpus);
+                Files.deleteIfExists(output);
+            }
+        }
+
+        interface Case {
+            long run() throws IOException;
+        }
+
+        private static void measureFullRun(String name, String user, Path corpus, Path output, int games,
+                                           String filter, boolean parallel) throws IOException {
+            measure(name, games, () -> {
+                GameProcessor processor = new GameProcessor(user, output.toString(), filter, parallel);
+                try (processor; InputStream in = Files.newInputStream(corpus)) {
+                    processor.processArchive(in);
+                    processor.writeStatistics(user, "Year 2024");
+                }
+                return processor.getFilteredCount();
+            });
+        }
+
+        private static void measureStoreRun(String name, String user, Path corpus, Path output, int games,
+                                            String filter, GameStore store) throws IOException {
+            String url = "https://api.chess.com/pub/player/" + user + "/games/2024/01/pgn";
+            measure(name, games, () -> {
+                GameProcessor processor = new GameProcessor(user, output.toString(), filter, false);
+                GameStore.SegmentWriter segment = store.newSegment(user, url);
+                try (processor; InputStream in = Files.newInputStream(corpus)) {
+                    processor.processArchive(in, segment);
+                    processor.writeStatistics(user, "Year 2024");
+                }
+                segment.commit();
+                return processor.getFilteredCount();
+            });
+        }
+
+        private static void measure(String name, int opsPerRound, Case benchmarkCase) throws IOException {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sink += benchmarkCase.run();
+            }
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                long start = System.nanoTime();
+                sink += benchmarkCase.run();
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+            double nsPerOp = (double) total / MEASURED_ROUNDS / Math.max(1, opsPerRound);
+            System.out.printf("%-34s %10d %14.1f %14.0f   (best round %.2f ms)%n",
+                    name, opsPerRound, nsPerOp, 1e9 / nsPerOp, best / 1e6);
+        }
+    }
 }
\ No newline at end of file